@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An in-memory index of the pictures of every album (media store bucket) of the device,
+ * sorted by path. It is built once with a single media store query and then kept current
+ * with the changes found by the media discoveries, so the pictures of an album can be
+ * obtained (and paged) in O(result size) without walking the whole library. The albums are
+ * sorted by path, so the subalbums of an album are found without walking all the albums.
+ */
+public class AlbumIndex {
+
+    private static final String TAG = "AlbumIndex";
+
+    private static final boolean DEBUG = false;
+
+    private static final String[] PROJECTION = {MediaStore.Images.ImageColumns.DATA};
+    private static final String[] COUNT_PROJECTION = {MediaStore.Images.ImageColumns._ID};
+
+    private static final String WHERE_VALID =
+            MediaStore.Images.ImageColumns.DATA + " IS NOT NULL";
+    private static final String WHERE_BUCKET = WHERE_VALID + " AND "
+            + MediaStore.Images.ImageColumns.BUCKET_ID + " = ?";
+
+    /**
+     * The pictures of an album, as {@link PathTable} ids sorted by path
+     */
+    private static class Album {
+        int[] mIds = new int[8];
+        int mSize;
+
+        void append(int id) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        int indexOf(PathTable paths, String path) {
+            // Binary search by path. Returns (-(insertion point) - 1) if not found
+            int low = 0, high = mSize - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = paths.getPath(mIds[mid]).compareTo(path);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void insert(PathTable paths, int id) {
+            int index = indexOf(paths, paths.getPath(id));
+            if (index >= 0) {
+                return;
+            }
+            index = -(index + 1);
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+            mIds[index] = id;
+            mSize++;
+        }
+
+        void remove(PathTable paths, int id) {
+            int index = indexOf(paths, paths.getPath(id));
+            if (index >= 0) {
+                System.arraycopy(mIds, index + 1, mIds, index, mSize - index - 1);
+                mSize--;
+            }
+        }
+    }
+
+    private static AlbumIndex sInstance;
+
+    private final PathTable mPaths;
+    private final TreeMap<String, Album> mAlbums;
+    // The pictures of the albums with their subalbums, merged by path
+    private final Map<String, int[]> mMerged;
+    private boolean mBuilt;
+
+    /**
+     * Method that returns the album index of the process
+     *
+     * @return AlbumIndex The album index
+     */
+    public synchronized static AlbumIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new AlbumIndex();
+        }
+        return sInstance;
+    }
+
+    private AlbumIndex() {
+        super();
+        mPaths = PathTable.getInstance();
+        mAlbums = new TreeMap<>();
+        mMerged = new HashMap<>();
+    }
+
+    /**
+     * Method that returns a page of the pictures of an album and its subalbums. The index
+     * is built the first time. The pictures of an album and its subalbums are merged once and
+     * kept until the next change of the index, and the albums are reloaded before the merge
+     * if the media store has a different number of pictures for them (changes of albums not
+     * seen by the discoveries).
+     *
+     * @param cr The content resolver
+     * @param album The album path
+     * @param offset The index of the first picture to return
+     * @param limit The maximum number of pictures to return
+     * @return int[] The {@link PathTable} ids of the pictures, sorted by path
+     */
+    public synchronized int[] getPictures(ContentResolver cr, String album, int offset,
+            int limit) {
+        if (!mBuilt) {
+            build(cr);
+        }
+
+        int[] ids = mMerged.get(album);
+        if (ids == null) {
+            ids = merge(cr, album);
+            mMerged.put(album, ids);
+        }
+        if (offset >= ids.length) {
+            return new int[0];
+        }
+        int end = (int) Math.min((long) offset + limit, ids.length);
+        return Arrays.copyOfRange(ids, offset, end);
+    }
+
+    private int[] merge(ContentResolver cr, String album) {
+        // The album and its subalbums (the paths between "album/" and "album0", as '0'
+        // follows '/')
+        List<String> albums = new ArrayList<>();
+        albums.add(album);
+        albums.addAll(getSubalbums(album).keySet());
+        List<int[]> runs = new ArrayList<>(albums.size());
+        for (String name : albums) {
+            Album a = mAlbums.get(name);
+            int count = count(cr, name);
+            if (count != (a == null ? 0 : a.mSize)) {
+                a = reload(cr, name);
+            }
+            if (a != null && a.mSize > 0) {
+                runs.add(Arrays.copyOf(a.mIds, a.mSize));
+            }
+        }
+
+        // The pictures of the subalbums are interleaved by path with the ones of the album.
+        // Every album is already sorted, so merge them in pairs
+        while (runs.size() > 1) {
+            List<int[]> merged = new ArrayList<>((runs.size() + 1) / 2);
+            for (int i = 0; i < runs.size(); i += 2) {
+                merged.add(i + 1 < runs.size()
+                        ? merge(runs.get(i), runs.get(i + 1)) : runs.get(i));
+            }
+            runs = merged;
+        }
+        return runs.isEmpty() ? new int[0] : runs.get(0);
+    }
+
+    private int[] merge(int[] lhs, int[] rhs) {
+        int[] merged = new int[lhs.length + rhs.length];
+        int i = 0, j = 0, k = 0;
+        while (i < lhs.length && j < rhs.length) {
+            if (mPaths.getPath(lhs[i]).compareTo(mPaths.getPath(rhs[j])) <= 0) {
+                merged[k++] = lhs[i++];
+            } else {
+                merged[k++] = rhs[j++];
+            }
+        }
+        System.arraycopy(lhs, i, merged, k, lhs.length - i);
+        System.arraycopy(rhs, j, merged, k + lhs.length - i, rhs.length - j);
+        return merged;
+    }
+
+    private SortedMap<String, Album> getSubalbums(String album) {
+        return mAlbums.subMap(album + "/", album + "0");
+    }
+
+    /**
+     * Method that applies the changes found by a media discovery. Nothing is done if the
+     * index wasn't built yet.
+     *
+     * @param added The {@link PathTable} ids of the new or modified pictures
+     * @param removed The {@link PathTable} ids of the removed pictures
+     */
+    public synchronized void update(int[] added, int[] removed) {
+        if (!mBuilt) {
+            return;
+        }
+        mMerged.clear();
+        for (int id : removed) {
+            Album a = mAlbums.get(mPaths.getAlbum(id));
+            if (a != null) {
+                a.remove(mPaths, id);
+            }
+        }
+        for (int id : added) {
+            String album = mPaths.getAlbum(id);
+            Album a = mAlbums.get(album);
+            if (a == null) {
+                a = new Album();
+                mAlbums.put(album, a);
+            }
+            a.insert(mPaths, id);
+        }
+    }
+
+    /**
+     * Method that replaces the pictures of the passed albums with the ones found by a full
+     * media discovery. Nothing is done if the index wasn't built yet.
+     *
+     * @param albums The albums fully discovered
+     * @param pictures The {@link PathTable} ids of the pictures found (other albums are
+     *                 ignored)
+     */
+    public synchronized void reconcile(Set<String> albums, int[] pictures) {
+        if (!mBuilt) {
+            return;
+        }
+        for (String album : albums) {
+            mAlbums.remove(album);
+        }
+        int[] found = new int[0];
+        int count = 0;
+        for (int id : pictures) {
+            if (albums.contains(mPaths.getAlbum(id))) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, Math.max(16, count * 2));
+                }
+                found[count++] = id;
+            }
+        }
+        update(Arrays.copyOf(found, count), new int[0]);
+    }
+
+    private void build(ContentResolver cr) {
+        long start = System.currentTimeMillis();
+        mAlbums.clear();
+        mMerged.clear();
+        Cursor c = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                WHERE_VALID, null, MediaStore.Images.ImageColumns.DATA + " ASC");
+        if (c == null) {
+            return;
+        }
+        int count = 0;
+        try {
+            while (c.moveToNext()) {
+                append(mPaths.intern(c.getString(0)));
+                count++;
+            }
+        } finally {
+            c.close();
+        }
+        mBuilt = true;
+
+        long end = System.currentTimeMillis();
+        Log.d(TAG, "Album index built in " + (end - start) + " milliseconds: " + count
+                + " pictures in " + mAlbums.size() + " albums");
+    }
+
+    private Album reload(ContentResolver cr, String album) {
+        if (DEBUG) Log.v(TAG, "Reloading album " + album);
+        mAlbums.remove(album);
+        mMerged.clear();
+        Cursor c = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                WHERE_BUCKET, new String[]{MediaPictureDiscoverer.getBucketId(album)},
+                MediaStore.Images.ImageColumns.DATA + " ASC");
+        if (c == null) {
+            return null;
+        }
+        try {
+            while (c.moveToNext()) {
+                int id = mPaths.intern(c.getString(0));
+                // Other albums could share the bucket id (hash collisions)
+                if (album.equals(mPaths.getAlbum(id))) {
+                    append(id);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return mAlbums.get(album);
+    }
+
+    private int count(ContentResolver cr, String album) {
+        // The bucket id is indexed by the media store, and only ids are fetched
+        Cursor c = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, COUNT_PROJECTION,
+                WHERE_BUCKET, new String[]{MediaPictureDiscoverer.getBucketId(album)}, null);
+        if (c == null) {
+            return 0;
+        }
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private void append(int id) {
+        // Rows are fetched sorted by path
+        String album = mPaths.getAlbum(id);
+        Album a = mAlbums.get(album);
+        if (a == null) {
+            a = new Album();
+            mAlbums.put(album, a);
+        }
+        a.append(id);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * An offscreen composite of the frames of the world that are not being transitioned. Between
+ * transitions most of the wallpaper is static, so it's drawn once into the composite, and
+ * then every frame only draws the composite plus the frames being transitioned.
+ */
+public class CompositeCache {
+
+    private static final String TAG = "CompositeCache";
+
+    private static final boolean DEBUG = false;
+
+    private static final float[] VERTEX = {
+                                            -1.0f, -1.0f,
+                                             1.0f, -1.0f,
+                                            -1.0f,  1.0f,
+                                             1.0f,  1.0f
+                                          };
+
+    private static final float[] TEXTURE_COORDS = {
+                                                    0.0f, 0.0f,
+                                                    1.0f, 0.0f,
+                                                    0.0f, 1.0f,
+                                                    1.0f, 1.0f
+                                                  };
+
+    private final int mWidth;
+    private final int mHeight;
+
+    private int mFramebufferHandle;
+    private int mTextureHandle;
+    private boolean mAvailable;
+    private boolean mValid;
+
+    private int mProgramHandler;
+    private int mPositionHandler;
+    private int mTextureCoordHandler;
+    private int mTextureHandler;
+    private int mMatrixHandler;
+    private FloatBuffer mPositionBuffer;
+    private FloatBuffer mTextureBuffer;
+
+    /**
+     * Constructor of <code>CompositeCache</code>.
+     *
+     * @param ctx The current context
+     * @param width The width of the surface
+     * @param height The height of the surface
+     */
+    public CompositeCache(Context ctx, int width, int height) {
+        super();
+        mWidth = width;
+        mHeight = height;
+        mValid = false;
+
+        mProgramHandler = GLESUtil.createProgram(
+                                                ctx.getResources(),
+                                                R.raw.default_vertex_shader,
+                                                R.raw.default_fragment_shader);
+        mPositionHandler = GLES20.glGetAttribLocation(mProgramHandler, "aPosition");
+        GLESUtil.glesCheckError("glGetAttribLocation");
+        mTextureCoordHandler = GLES20.glGetAttribLocation(mProgramHandler, "aTextureCoord");
+        GLESUtil.glesCheckError("glGetAttribLocation");
+        mTextureHandler = GLES20.glGetUniformLocation(mProgramHandler, "sTexture");
+        GLESUtil.glesCheckError("glGetUniformLocation");
+        mMatrixHandler = GLES20.glGetUniformLocation(mProgramHandler, "uMVPMatrix");
+        GLESUtil.glesCheckError("glGetUniformLocation");
+        mPositionBuffer = toFloatBuffer(VERTEX);
+        mTextureBuffer = toFloatBuffer(TEXTURE_COORDS);
+
+        // The texture where the static frames are drawn (the same size of the surface,
+        // so it's drawn back pixel by pixel)
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLESUtil.glesCheckError("glGenTextures");
+        mTextureHandle = textures[0];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenTextures: " + mTextureHandle);
+        }
+        GLESUtil.glesGetState().bindTexture(mTextureHandle);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLESUtil.glesCheckError("glTexImage2D");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLESUtil.glesCheckError("glTexParameteri");
+
+        int[] fb = new int[1];
+        GLES20.glGenFramebuffers(1, fb, 0);
+        GLESUtil.glesCheckError("glGenFramebuffers");
+        mFramebufferHandle = fb[0];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenFramebuffers: " + mFramebufferHandle);
+        }
+        GLESUtil.glesGetState().bindFramebuffer(mFramebufferHandle);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextureHandle, 0);
+        GLESUtil.glesCheckError("glFramebufferTexture2D");
+
+        // If the framebuffer can't be used, the world is drawn directly to the screen
+        final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        mAvailable = status == GLES20.GL_FRAMEBUFFER_COMPLETE;
+        if (!mAvailable) {
+            Log.w(TAG, "The composite framebuffer is not complete: " + status);
+        }
+        GLESUtil.glesGetState().bindFramebuffer(0);
+
+        if (DEBUG) Log.d(TAG, "Created a composite of " + width + "x" + height);
+    }
+
+    /**
+     * Method that returns if the composite can be used
+     *
+     * @return boolean If the composite can be used
+     */
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * Method that returns if the composite has the current static frames drawn
+     *
+     * @return boolean If the composite has the current static frames drawn
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Method that discards the contents of the composite, so they are drawn again
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Method that redirects the drawing of the world to the composite. It must be followed
+     * by a call to {@link #end()}.
+     */
+    public void begin() {
+        GLESUtil.glesSetRenderTarget(mFramebufferHandle);
+        GLESUtil.glesGetState().viewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Method that restores the drawing of the world to the screen. The caller must restore
+     * its viewport.
+     */
+    public void end() {
+        GLESUtil.glesSetRenderTarget(0);
+        mValid = true;
+        if (DEBUG) Log.d(TAG, "Composite redrawn");
+    }
+
+    /**
+     * Method that draws the composite in the screen
+     *
+     * @param matrix The model-view-projection matrix
+     */
+    public void draw(float[] matrix) {
+        GLESUtil.glesBindRenderTarget();
+
+        // The composite is opaque
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
+
+        GLESUtil.glesGetState().useProgram(mProgramHandler);
+        GLES20.glUniformMatrix4fv(mMatrixHandler, 1, false, matrix, 0);
+        GLESUtil.glesCheckError("glUniformMatrix4fv");
+
+        // Texture
+        mTextureBuffer.position(0);
+        GLES20.glVertexAttribPointer(
+                mTextureCoordHandler, 2, GLES20.GL_FLOAT, false, 0, mTextureBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandler);
+
+        // Position
+        mPositionBuffer.position(0);
+        GLES20.glVertexAttribPointer(mPositionHandler, 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandler);
+
+        // Set the input texture
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(mTextureHandle);
+        GLES20.glUniform1i(mTextureHandler, 0);
+        GLESUtil.glesCheckError("glUniform1i");
+
+        // Draw
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLESUtil.glesCheckError("glDrawArrays");
+
+        // Disable attributes
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandler);
+    }
+
+    /**
+     * Method that destroy all the internal references
+     */
+    public void recycle() {
+        if (GLES20.glIsFramebuffer(mFramebufferHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteFramebuffers: "
+                        + mFramebufferHandle);
+            }
+            GLESUtil.glesGetState().deleteFramebuffers(1, new int[]{mFramebufferHandle}, 0);
+        }
+        if (GLES20.glIsTexture(mTextureHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
+                        + mTextureHandle + "]");
+            }
+            GLESUtil.glesGetState().deleteTextures(1, new int[]{mTextureHandle}, 0);
+        }
+        if (GLES20.glIsProgram(mProgramHandler)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: " + mProgramHandler);
+            }
+            GLESUtil.glesGetState().deleteProgram(mProgramHandler);
+        }
+        mFramebufferHandle = 0;
+        mTextureHandle = 0;
+        mProgramHandler = 0;
+        mAvailable = false;
+        mValid = false;
+    }
+
+    private static FloatBuffer toFloatBuffer(float[] data) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4); // (# of coordinate values * 4 bytes per float)
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(data);
+        buffer.position(0);
+        return buffer;
+    }
+}
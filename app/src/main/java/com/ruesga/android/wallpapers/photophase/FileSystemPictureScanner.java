@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scanner of the pictures stored under a set of folders of the filesystem, for the
+ * folders that the media store doesn't index (<code>.nomedia</code> folders, app exports,
+ * devices with media scanning disabled, ...).<br/>
+ * <br/>
+ * Folders are walked in parallel by a bounded pool of threads. Pictures are recognized by
+ * their extension and their magic bytes, and the contents of the folders not modified
+ * since the previous scan are reused without listing them again.
+ */
+public class FileSystemPictureScanner {
+
+    private static final String TAG = "FileSystemPictureScanner";
+
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_THREADS = 4;
+
+    private static final String[] EXTENSIONS = {"jpg", "jpeg", "png", "gif", "bmp", "webp"};
+
+    private static final int MAGIC_LENGTH = 12;
+
+    /**
+     * The result of a scan
+     */
+    public static class Result {
+        /**
+         * The {@link PathTable} ids of all the pictures found (sorted)
+         */
+        public int[] mPictures;
+        /**
+         * The {@link PathTable} ids of the pictures not found by the previous scan
+         */
+        public int[] mAdded;
+        /**
+         * The {@link PathTable} ids of the pictures found by the previous scan but not now
+         */
+        public int[] mRemoved;
+        /**
+         * The number of folders walked
+         */
+        public int mFolders;
+        /**
+         * The number of folders listed (the rest were not modified)
+         */
+        public int mListedFolders;
+    }
+
+    /**
+     * The contents of a folder in the previous scan
+     */
+    private static class Folder {
+        long mModified;
+        int[] mPictures;
+        File[] mChildren;
+    }
+
+    private final PathTable mPaths;
+    private final int mThreads;
+    private final Map<String, Folder> mFolders;
+    private int[] mLastPictures;
+    private final AtomicBoolean mCancelled;
+
+    /**
+     * Constructor of <code>FileSystemPictureScanner</code>
+     */
+    public FileSystemPictureScanner() {
+        this(Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Constructor of <code>FileSystemPictureScanner</code>
+     *
+     * @param threads The maximum number of threads walking the folders
+     */
+    public FileSystemPictureScanner(int threads) {
+        super();
+        mPaths = PathTable.getInstance();
+        mThreads = Math.max(1, threads);
+        mFolders = new ConcurrentHashMap<>();
+        mLastPictures = new int[0];
+        mCancelled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Method that scans the pictures under the passed folders. Must not be called
+     * concurrently. A cancelled scan returns the pictures found until it was cancelled,
+     * but no changes.
+     *
+     * @param roots The folders to scan
+     * @return Result The result of the scan, with the changes since the previous one
+     */
+    public Result scan(Collection<File> roots) {
+        long start = System.currentTimeMillis();
+
+        final IntArray pictures = new IntArray();
+        final Set<String> visited =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger listed = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger();
+        final Object done = new Object();
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            for (File root : roots) {
+                if (mCancelled.get()) {
+                    break;
+                }
+                if (root.isDirectory() && visited.add(getCanonicalPath(root))) {
+                    submit(executor, root, pictures, visited, listed, pending, done);
+                }
+            }
+
+            // Wait until all the folders were walked
+            synchronized (done) {
+                while (pending.get() > 0) {
+                    done.wait();
+                }
+            }
+        } catch (InterruptedException ex) {
+            mCancelled.set(true);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Result result = new Result();
+        result.mFolders = visited.size();
+        result.mListedFolders = listed.get();
+        int[] found = pictures.toArray();
+        Arrays.sort(found);
+        result.mPictures = found;
+        if (mCancelled.getAndSet(false)) {
+            // Don't trust a partial scan
+            result.mAdded = new int[0];
+            result.mRemoved = new int[0];
+            return result;
+        }
+
+        // Diff with the previous scan (both are sorted)
+        IntArray added = new IntArray();
+        IntArray removed = new IntArray();
+        int i = 0, j = 0;
+        while (i < found.length || j < mLastPictures.length) {
+            if (j >= mLastPictures.length
+                    || (i < found.length && found[i] < mLastPictures[j])) {
+                added.add(found[i++]);
+            } else if (i >= found.length || found[i] > mLastPictures[j]) {
+                removed.add(mLastPictures[j++]);
+            } else {
+                i++;
+                j++;
+            }
+        }
+        result.mAdded = added.toArray();
+        result.mRemoved = removed.toArray();
+        mLastPictures = found;
+
+        // Forget the folders that no longer exist (or are out of the roots)
+        mFolders.keySet().retainAll(visited);
+
+        long end = System.currentTimeMillis();
+        if (DEBUG) Log.v(TAG, "Scanned " + result.mFolders + " folders ("
+                + result.mListedFolders + " listed) in " + (end - start) + " milliseconds: "
+                + found.length + " pictures, " + result.mAdded.length + " added, "
+                + result.mRemoved.length + " removed");
+        return result;
+    }
+
+    /**
+     * Method that cancels the current scan, or the next one if there isn't a scan in
+     * progress
+     */
+    public void cancel() {
+        mCancelled.set(true);
+    }
+
+    private void submit(final ExecutorService executor, final File folder,
+            final IntArray pictures, final Set<String> visited, final AtomicInteger listed,
+            final AtomicInteger pending, final Object done) {
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mCancelled.get()) {
+                        return;
+                    }
+                    Folder f = walk(folder, listed);
+                    synchronized (pictures) {
+                        for (int picture : f.mPictures) {
+                            pictures.add(picture);
+                        }
+                    }
+                    for (File child : f.mChildren) {
+                        // Skip hidden folders (thumbnails, caches, ...) and links loops
+                        if (!child.getName().startsWith(".")
+                                && visited.add(getCanonicalPath(child))) {
+                            submit(executor, child, pictures, visited, listed, pending, done);
+                        }
+                    }
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (done) {
+                            done.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private Folder walk(File folder, AtomicInteger listed) {
+        // A folder only needs to be listed again if its entries changed
+        String path = getCanonicalPath(folder);
+        long modified = folder.lastModified();
+        Folder f = mFolders.get(path);
+        if (f != null && f.mModified == modified) {
+            return f;
+        }
+
+        listed.incrementAndGet();
+        IntArray found = new IntArray();
+        IntArray children = new IntArray();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            if (file.isDirectory()) {
+                children.add(i);
+            } else if (hasPictureExtension(file.getName()) && hasPictureMagic(file)) {
+                found.add(mPaths.intern(file));
+            }
+        }
+
+        f = new Folder();
+        f.mModified = modified;
+        f.mPictures = found.toArray();
+        f.mChildren = new File[children.size()];
+        for (int i = 0; i < f.mChildren.length; i++) {
+            f.mChildren[i] = files[children.get(i)];
+        }
+        mFolders.put(path, f);
+        return f;
+    }
+
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static boolean hasPictureExtension(String name) {
+        int pos = name.lastIndexOf('.');
+        if (pos == -1) {
+            return false;
+        }
+        String extension = name.substring(pos + 1).toLowerCase(Locale.US);
+        for (String ext : EXTENSIONS) {
+            if (ext.equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasPictureMagic(File file) {
+        byte[] magic = new byte[MAGIC_LENGTH];
+        int read = 0;
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            while (read < magic.length) {
+                int count = is.read(magic, read, magic.length - read);
+                if (count == -1) {
+                    break;
+                }
+                read += count;
+            }
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+
+        // JPEG
+        if (read >= 3 && (magic[0] & 0xff) == 0xff && (magic[1] & 0xff) == 0xd8
+                && (magic[2] & 0xff) == 0xff) {
+            return true;
+        }
+        // PNG
+        if (read >= 4 && (magic[0] & 0xff) == 0x89 && magic[1] == 'P' && magic[2] == 'N'
+                && magic[3] == 'G') {
+            return true;
+        }
+        // GIF
+        if (read >= 4 && magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F'
+                && magic[3] == '8') {
+            return true;
+        }
+        // BMP
+        if (read >= 2 && magic[0] == 'B' && magic[1] == 'M') {
+            return true;
+        }
+        // WEBP
+        return read >= 12 && magic[0] == 'R' && magic[1] == 'I' && magic[2] == 'F'
+                && magic[3] == 'F' && magic[8] == 'W' && magic[9] == 'E' && magic[10] == 'B'
+                && magic[11] == 'P';
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLESTextureInfo;
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * A texture atlas for the small frames of dense dispositions. The picture of every small frame
+ * is copied (at its size in the screen) to a cell of a shared texture, so all the static small
+ * frames are drawn with just one draw call instead of one per frame.
+ */
+public class FrameAtlas {
+
+    private static final String TAG = "FrameAtlas";
+
+    private static final boolean DEBUG = false;
+
+    // Only dispositions with at least this number of frames use the atlas
+    public static final int MIN_FRAMES = 6;
+
+    // Frames bigger than this fraction of the screen (per dimension) are not small
+    private static final float MAX_FRAME_FRACTION = 0.5f;
+
+    private static final int VERTEX_PER_FRAME = 4;
+    private static final int INDEX_PER_FRAME = 6;
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    private static final int TEXTURE_COORDS_OFFSET = 2 * 4;
+
+    private static final float[] COPY_VERTEX = {
+                                                -1.0f, -1.0f,
+                                                 1.0f, -1.0f,
+                                                -1.0f,  1.0f,
+                                                 1.0f,  1.0f
+                                               };
+
+    private final int[] mCells;
+    private final GLESTextureInfo[] mContents;
+    private int mAtlasWidth;
+    private int mAtlasHeight;
+    private boolean mAvailable;
+
+    private int mTextureHandle;
+    private int mFramebufferHandle;
+    private int mBufferHandle;
+    private int mIndexBufferHandle;
+    private final ShortBuffer mIndices;
+
+    private int mProgramHandler;
+    private int mPositionHandler;
+    private int mTextureCoordHandler;
+    private int mTextureHandler;
+    private int mMatrixHandler;
+    private int mDimHandler;
+    private final FloatBuffer mCopyPositionBuffer;
+    private final FloatBuffer mCopyTextureBuffer;
+    private final float[] mIdentityMatrix = new float[16];
+    private final int[] mViewport = new int[4];
+
+    /**
+     * Constructor of <code>FrameAtlas</code>.
+     *
+     * @param ctx The current context
+     * @param photoVertices The photo vertex of every frame of the world
+     * @param width The width of the world in pixels
+     * @param height The height of the world in pixels
+     */
+    public FrameAtlas(Context ctx, List<float[]> photoVertices, int width, int height) {
+        super();
+
+        // Choose the small frames and the size of their cells (a cell fits any small frame
+        // at its size in the screen, so the atlas is sampled pixel by pixel)
+        int count = photoVertices.size();
+        mCells = new int[count * 4];
+        mContents = new GLESTextureInfo[count];
+        int[] sizes = new int[count * 2];
+        int small = 0, cellw = 0, cellh = 0;
+        for (int i = 0; i < count; i++) {
+            float[] vertex = photoVertices.get(i);
+            int w = (int) Math.ceil((vertex[6] - vertex[4]) / 2 * width);
+            int h = (int) Math.ceil((vertex[5] - vertex[1]) / 2 * height);
+            sizes[i * 2] = w;
+            sizes[i * 2 + 1] = h;
+            if (w <= width * MAX_FRAME_FRACTION && h <= height * MAX_FRAME_FRACTION) {
+                cellw = Math.max(cellw, w);
+                cellh = Math.max(cellh, h);
+                small++;
+            } else {
+                sizes[i * 2] = -1;
+            }
+        }
+        int cols = (int) Math.ceil(Math.sqrt(small));
+        int rows = cols == 0 ? 0 : (int) Math.ceil(small / (float) cols);
+        mAtlasWidth = cols * cellw;
+        mAtlasHeight = rows * cellh;
+        int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        GLESUtil.glesCheckError("glGetIntegerv");
+        mAvailable = small >= MIN_FRAMES
+                && mAtlasWidth <= maxSize[0] && mAtlasHeight <= maxSize[0];
+        if (!mAvailable) {
+            if (DEBUG) Log.d(TAG, "Atlas not used: " + small + " small frames; size "
+                    + mAtlasWidth + "x" + mAtlasHeight);
+            mIndices = null;
+            mCopyPositionBuffer = null;
+            mCopyTextureBuffer = null;
+            return;
+        }
+
+        // Assign a cell to every small frame and build their vertex (position plus
+        // coordinates of the cell)
+        float[] data = new float[count * VERTEX_PER_FRAME * FLOATS_PER_VERTEX];
+        int cell = 0;
+        for (int i = 0; i < count; i++) {
+            if (sizes[i * 2] == -1) {
+                mCells[i * 4] = -1;
+                continue;
+            }
+            int x = (cell % cols) * cellw;
+            int y = (cell / cols) * cellh;
+            mCells[i * 4] = x;
+            mCells[i * 4 + 1] = y;
+            mCells[i * 4 + 2] = sizes[i * 2];
+            mCells[i * 4 + 3] = sizes[i * 2 + 1];
+            cell++;
+
+            float u0 = x / (float) mAtlasWidth;
+            float v0 = y / (float) mAtlasHeight;
+            float u1 = (x + sizes[i * 2]) / (float) mAtlasWidth;
+            float v1 = (y + sizes[i * 2 + 1]) / (float) mAtlasHeight;
+            float[] vertex = photoVertices.get(i);
+            float[] coords = {u0, v0, u1, v0, u0, v1, u1, v1};
+            int pos = i * VERTEX_PER_FRAME * FLOATS_PER_VERTEX;
+            for (int j = 0; j < VERTEX_PER_FRAME; j++) {
+                data[pos++] = vertex[j * 2];
+                data[pos++] = vertex[j * 2 + 1];
+                data[pos++] = coords[j * 2];
+                data[pos++] = coords[j * 2 + 1];
+            }
+        }
+
+        mProgramHandler = GLESUtil.createProgram(
+                                                ctx.getResources(),
+                                                R.raw.default_vertex_shader,
+                                                R.raw.default_fragment_shader);
+        mPositionHandler = GLES20.glGetAttribLocation(mProgramHandler, "aPosition");
+        GLESUtil.glesCheckError("glGetAttribLocation");
+        mTextureCoordHandler = GLES20.glGetAttribLocation(mProgramHandler, "aTextureCoord");
+        GLESUtil.glesCheckError("glGetAttribLocation");
+        mTextureHandler = GLES20.glGetUniformLocation(mProgramHandler, "sTexture");
+        GLESUtil.glesCheckError("glGetUniformLocation");
+        mMatrixHandler = GLES20.glGetUniformLocation(mProgramHandler, "uMVPMatrix");
+        GLESUtil.glesCheckError("glGetUniformLocation");
+        mDimHandler = GLES20.glGetUniformLocation(mProgramHandler, "uDim");
+        GLESUtil.glesCheckError("glGetUniformLocation");
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+        mCopyPositionBuffer = toFloatBuffer(COPY_VERTEX);
+        mCopyTextureBuffer = toFloatBuffer(PhotoFrame.DEFAULT_TEXTURE_COORDS);
+        mIndices = ByteBuffer.allocateDirect(count * INDEX_PER_FRAME * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        // The vertex of all the frames, and the indices of the static ones
+        int[] buffers = new int[2];
+        GLES20.glGenBuffers(2, buffers, 0);
+        GLESUtil.glesCheckError("glGenBuffers");
+        mBufferHandle = buffers[0];
+        mIndexBufferHandle = buffers[1];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenBuffers: " + mBufferHandle
+                    + ", " + mIndexBufferHandle);
+        }
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, data.length * 4, toFloatBuffer(data),
+                GLES20.GL_STATIC_DRAW);
+        GLESUtil.glesCheckError("glBufferData");
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndices.capacity() * 2, null,
+                GLES20.GL_DYNAMIC_DRAW);
+        GLESUtil.glesCheckError("glBufferData");
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        // The atlas texture and the framebuffer used to copy the pictures to its cells
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLESUtil.glesCheckError("glGenTextures");
+        mTextureHandle = textures[0];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenTextures: " + mTextureHandle);
+        }
+        GLESUtil.glesGetState().bindTexture(mTextureHandle);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mAtlasWidth, mAtlasHeight,
+                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLESUtil.glesCheckError("glTexImage2D");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(
+                GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLESUtil.glesCheckError("glTexParameteri");
+
+        int[] fb = new int[1];
+        GLES20.glGenFramebuffers(1, fb, 0);
+        GLESUtil.glesCheckError("glGenFramebuffers");
+        mFramebufferHandle = fb[0];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenFramebuffers: " + mFramebufferHandle);
+        }
+        GLESUtil.glesGetState().bindFramebuffer(mFramebufferHandle);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextureHandle, 0);
+        GLESUtil.glesCheckError("glFramebufferTexture2D");
+        final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.w(TAG, "The atlas framebuffer is not complete: " + status);
+            mAvailable = false;
+        }
+        GLESUtil.glesBindRenderTarget();
+
+        if (DEBUG) Log.d(TAG, "Atlas of " + mAtlasWidth + "x" + mAtlasHeight + " for "
+                + small + " of " + count + " frames");
+    }
+
+    /**
+     * Method that returns if the atlas can be used
+     *
+     * @return boolean If the atlas can be used
+     */
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * Method that returns if a frame has a cell in the atlas
+     *
+     * @param slot The slot of the frame in the world
+     * @return boolean If the frame has a cell in the atlas
+     */
+    public boolean contains(int slot) {
+        return mAvailable && mCells[slot * 4] != -1;
+    }
+
+    /**
+     * Method that copies the picture of a frame to its cell, if it changed since the last copy
+     *
+     * @param slot The slot of the frame in the world
+     * @param frame The frame
+     * @return boolean If the cell has the picture of the frame
+     */
+    public boolean update(int slot, PhotoFrame frame) {
+        GLESTextureInfo ti = frame.getTextureInfo();
+        if (ti == null || ti.handle <= 0) {
+            return false;
+        }
+        if (mContents[slot] == ti) {
+            return true;
+        }
+
+        // Draw the picture in the cell through the atlas framebuffer
+        GLESUtil.glesGetState().getViewport(mViewport);
+        GLESUtil.glesGetState().bindFramebuffer(mFramebufferHandle);
+        GLESUtil.glesGetState().viewport(mCells[slot * 4], mCells[slot * 4 + 1],
+                mCells[slot * 4 + 2], mCells[slot * 4 + 3]);
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
+        GLESUtil.glesGetState().useProgram(mProgramHandler);
+        GLES20.glUniformMatrix4fv(mMatrixHandler, 1, false, mIdentityMatrix, 0);
+        GLESUtil.glesCheckError("glUniformMatrix4fv");
+        // The cells hold the pictures without the dim; it's applied when they are drawn
+        GLES20.glUniform1f(mDimHandler, 0f);
+        GLESUtil.glesCheckError("glUniform1f");
+        mCopyTextureBuffer.position(0);
+        GLES20.glVertexAttribPointer(
+                mTextureCoordHandler, 2, GLES20.GL_FLOAT, false, 0, mCopyTextureBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandler);
+        mCopyPositionBuffer.position(0);
+        GLES20.glVertexAttribPointer(
+                mPositionHandler, 2, GLES20.GL_FLOAT, false, 0, mCopyPositionBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandler);
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(ti.handle);
+        GLES20.glUniform1i(mTextureHandler, 0);
+        GLESUtil.glesCheckError("glUniform1i");
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLESUtil.glesCheckError("glDrawArrays");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandler);
+
+        // Restore the drawing of the world
+        GLESUtil.glesBindRenderTarget();
+        GLESUtil.glesGetState().viewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+
+        mContents[slot] = ti;
+        return true;
+    }
+
+    /**
+     * Method that draws frames from their cells with one draw call
+     *
+     * @param slots The slots of the frames to draw
+     * @param matrix The model-view-projection matrix
+     * @param dim The dim of the wallpaper (0 to 1)
+     */
+    public void draw(IntArray slots, float[] matrix, float dim) {
+        int count = slots.size();
+        if (count == 0) {
+            return;
+        }
+
+        // Two triangles per frame
+        mIndices.clear();
+        for (int i = 0; i < count; i++) {
+            short first = (short) (slots.get(i) * VERTEX_PER_FRAME);
+            mIndices.put(first);
+            mIndices.put((short) (first + 1));
+            mIndices.put((short) (first + 2));
+            mIndices.put((short) (first + 2));
+            mIndices.put((short) (first + 1));
+            mIndices.put((short) (first + 3));
+        }
+        mIndices.position(0);
+
+        GLESUtil.glesBindRenderTarget();
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
+        GLESUtil.glesGetState().useProgram(mProgramHandler);
+        GLES20.glUniformMatrix4fv(mMatrixHandler, 1, false, matrix, 0);
+        GLESUtil.glesCheckError("glUniformMatrix4fv");
+        GLES20.glUniform1f(mDimHandler, dim);
+        GLESUtil.glesCheckError("glUniform1f");
+
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+        GLES20.glVertexAttribPointer(mTextureCoordHandler, 2, GLES20.GL_FLOAT, false, STRIDE,
+                TEXTURE_COORDS_OFFSET);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandler);
+        GLES20.glVertexAttribPointer(mPositionHandler, 2, GLES20.GL_FLOAT, false, STRIDE, 0);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandler);
+
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(mTextureHandle);
+        GLES20.glUniform1i(mTextureHandler, 0);
+        GLESUtil.glesCheckError("glUniform1i");
+
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
+        GLES20.glBufferSubData(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0, count * INDEX_PER_FRAME * 2,
+                mIndices);
+        GLESUtil.glesCheckError("glBufferSubData");
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, count * INDEX_PER_FRAME,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLESUtil.glesCheckError("glDrawElements");
+
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandler);
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Method that destroy all the internal references
+     */
+    public void recycle() {
+        if (GLES20.glIsFramebuffer(mFramebufferHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteFramebuffers: "
+                        + mFramebufferHandle);
+            }
+            GLESUtil.glesGetState().deleteFramebuffers(1, new int[]{mFramebufferHandle}, 0);
+        }
+        if (GLES20.glIsTexture(mTextureHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
+                        + mTextureHandle + "]");
+            }
+            GLESUtil.glesGetState().deleteTextures(1, new int[]{mTextureHandle}, 0);
+        }
+        if (GLES20.glIsBuffer(mBufferHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteBuffers: " + mBufferHandle
+                        + ", " + mIndexBufferHandle);
+            }
+            GLESUtil.glesGetState().deleteBuffers(
+                    2, new int[]{mBufferHandle, mIndexBufferHandle}, 0);
+        }
+        if (GLES20.glIsProgram(mProgramHandler)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: " + mProgramHandler);
+            }
+            GLESUtil.glesGetState().deleteProgram(mProgramHandler);
+        }
+        mFramebufferHandle = 0;
+        mTextureHandle = 0;
+        mBufferHandle = 0;
+        mIndexBufferHandle = 0;
+        mProgramHandler = 0;
+        mAvailable = false;
+    }
+
+    private static FloatBuffer toFloatBuffer(float[] data) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4); // (# of coordinate values * 4 bytes per float)
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(data);
+        buffer.position(0);
+        return buffer;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * A clock that requests the renders of the surface while it's animating, instead of the
+ * continuous render mode. The renders are aligned to the vsync of the display (through
+ * {@link Choreographer}; a timer before Jelly Bean) and limited to a maximum frame rate, so
+ * the transitions don't draw at the full rate of 90/120Hz panels. The frame time is the
+ * monotonic time of the vsync the frame was requested for, so the progress of the
+ * transitions doesn't jitter with the time the GLThread takes to start drawing.
+ */
+public class FrameClock {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // The frame rate of the fallback timer (the display rate isn't known without vsync)
+    private static final int DEFAULT_FRAME_RATE = 60;
+
+    private final GLESSurfaceDispatcher mDispatcher;
+    private final Handler mHandler;
+    private final Object mCallback;
+
+    private volatile long mFrameInterval;
+    private volatile long mFrameTime;
+    private volatile boolean mRunning;
+    private long mNextFrame;
+    private long mVsyncPeriod;
+    private long mLastVsync;
+
+    private final Runnable mStart = new Runnable() {
+        @Override
+        public void run() {
+            mNextFrame = 0;
+            mLastVsync = 0;
+            postFrame();
+        }
+    };
+
+    private final Runnable mStop = new Runnable() {
+        @Override
+        public void run() {
+            removeFrame();
+        }
+    };
+
+    private final Runnable mTimerFrame = new Runnable() {
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+    };
+
+    /**
+     * Constructor of <code>FrameClock</code>
+     *
+     * @param dispatcher The dispatcher of the surface to render
+     */
+    public FrameClock(GLESSurfaceDispatcher dispatcher) {
+        super();
+        mDispatcher = dispatcher;
+        mHandler = new Handler(Looper.getMainLooper());
+        mCallback = AndroidHelper.isJellyBeanOrGreater() ? createFrameCallback() : null;
+        setFrameRateCap(0);
+    }
+
+    /**
+     * Method that sets the maximum frame rate
+     *
+     * @param fps The maximum frames per second (0 for the rate of the display)
+     */
+    public void setFrameRateCap(int fps) {
+        mFrameInterval = fps > 0 ? NANOS_PER_SECOND / fps : 0;
+    }
+
+    /**
+     * Method that returns the interval between frames the clock tries to keep
+     *
+     * @return long The interval in nanoseconds (0 if it's the refresh period of the display)
+     */
+    public long getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    /**
+     * Method that starts to request renders. It can be called from any thread.
+     */
+    public void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mFrameTime = 0;
+            mHandler.post(mStart);
+        }
+    }
+
+    /**
+     * Method that stops to request renders. It can be called from any thread.
+     */
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mHandler.post(mStop);
+        }
+    }
+
+    /**
+     * Method that returns if the clock is requesting renders
+     *
+     * @return boolean If the clock is requesting renders
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Method that returns the time of the frame to draw
+     *
+     * @return long The time (in nanoseconds of {@link System#nanoTime()})
+     */
+    public long getFrameTime() {
+        long frameTime = mFrameTime;
+        return mRunning && frameTime != 0 ? frameTime : System.nanoTime();
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastVsync != 0) {
+            mVsyncPeriod = frameTimeNanos - mLastVsync;
+        }
+        mLastVsync = frameTimeNanos;
+
+        // Skip the vsyncs until the next frame is due (half a vsync before it, so the frames
+        // are taken from the nearest vsync). The due time advances by intervals, so the
+        // average rate is the cap even if it isn't a divisor of the rate of the display
+        long interval = mFrameInterval;
+        if (interval == 0 || frameTimeNanos >= mNextFrame - mVsyncPeriod / 2) {
+            mNextFrame = mNextFrame == 0 || frameTimeNanos - mNextFrame > interval
+                    ? frameTimeNanos + interval : mNextFrame + interval;
+            mFrameTime = frameTimeNanos;
+            mDispatcher.requestRender();
+        }
+        postFrame();
+    }
+
+    private void postFrame() {
+        if (mCallback != null) {
+            postFrameCallback();
+        } else {
+            long interval = mFrameInterval > 0
+                    ? mFrameInterval : NANOS_PER_SECOND / DEFAULT_FRAME_RATE;
+            mHandler.postDelayed(mTimerFrame, interval / 1000000L);
+        }
+    }
+
+    private void removeFrame() {
+        if (mCallback != null) {
+            removeFrameCallback();
+        } else {
+            mHandler.removeCallbacks(mTimerFrame);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Object createFrameCallback() {
+        return new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                FrameClock.this.doFrame(frameTimeNanos);
+            }
+        };
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mCallback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mCallback);
+    }
+}
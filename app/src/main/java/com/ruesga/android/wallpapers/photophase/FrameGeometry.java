@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * The geometry of all the photo frames of the world, uploaded once to a vertex buffer object
+ * (the frames don't move between recreations of the world). Every frame is a slot of
+ * 4 vertices (a triangle strip) with interleaved position and texture coordinates.
+ */
+public class FrameGeometry {
+
+    private static final int COORDS_PER_VERTEX = 2;
+    private static final int VERTEX_PER_FRAME = 4;
+    private static final int FLOATS_PER_VERTEX = COORDS_PER_VERTEX * 2;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    private static final int TEXTURE_COORDS_OFFSET = COORDS_PER_VERTEX * 4;
+
+    private int mBufferHandle;
+
+    /**
+     * Constructor of <code>FrameGeometry</code>.
+     *
+     * @param photoVertices The vertex (4 pairs of coordinates) of every frame
+     * @param textureCoords The texture coordinates (4 pairs) shared by all the frames
+     */
+    public FrameGeometry(List<float[]> photoVertices, float[] textureCoords) {
+        super();
+
+        int count = photoVertices.size();
+        float[] data = new float[count * VERTEX_PER_FRAME * FLOATS_PER_VERTEX];
+        int pos = 0;
+        for (float[] vertex : photoVertices) {
+            for (int i = 0; i < VERTEX_PER_FRAME; i++) {
+                data[pos++] = vertex[i * COORDS_PER_VERTEX];
+                data[pos++] = vertex[i * COORDS_PER_VERTEX + 1];
+                data[pos++] = textureCoords[i * COORDS_PER_VERTEX];
+                data[pos++] = textureCoords[i * COORDS_PER_VERTEX + 1];
+            }
+        }
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4); // (# of coordinate values * 4 bytes per float)
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(data);
+        buffer.position(0);
+
+        int[] vbo = new int[1];
+        GLES20.glGenBuffers(1, vbo, 0);
+        GLESUtil.glesCheckError("glGenBuffers");
+        mBufferHandle = vbo[0];
+        if (GLESUtil.DEBUG_GL_MEMOBJS) {
+            Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenBuffers: " + mBufferHandle);
+        }
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, data.length * 4, buffer,
+                GLES20.GL_STATIC_DRAW);
+        GLESUtil.glesCheckError("glBufferData");
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Method that sets the geometry as the source of the position and texture coordinates
+     * attributes. It must be followed by a call to {@link #unbind(int, int)}.
+     *
+     * @param positionHandler The position attribute
+     * @param textureCoordHandler The texture coordinates attribute
+     */
+    public void bind(int positionHandler, int textureCoordHandler) {
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+        GLES20.glVertexAttribPointer(textureCoordHandler, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
+                false, STRIDE, TEXTURE_COORDS_OFFSET);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(textureCoordHandler);
+        GLES20.glVertexAttribPointer(positionHandler, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
+                false, STRIDE, 0);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(positionHandler);
+    }
+
+    /**
+     * Method that draws a frame of the geometry
+     *
+     * @param slot The slot of the frame
+     */
+    public void draw(int slot) {
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, slot * VERTEX_PER_FRAME, VERTEX_PER_FRAME);
+        GLESUtil.glesCheckError("glDrawArrays");
+    }
+
+    /**
+     * Method that releases the attributes, so client side arrays can be used again
+     *
+     * @param positionHandler The position attribute
+     * @param textureCoordHandler The texture coordinates attribute
+     */
+    public void unbind(int positionHandler, int textureCoordHandler) {
+        GLESUtil.glesGetState().disableVertexAttribArray(positionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(textureCoordHandler);
+        GLESUtil.glesGetState().bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Method that destroy all the internal references
+     */
+    public void recycle() {
+        if (GLES20.glIsBuffer(mBufferHandle)) {
+            if (GLESUtil.DEBUG_GL_MEMOBJS) {
+                Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteBuffers: " + mBufferHandle);
+            }
+            GLESUtil.glesGetState().deleteBuffers(1, new int[]{mBufferHandle}, 0);
+        }
+        mBufferHandle = 0;
+    }
+}
@@ -16,8 +16,7 @@
 
 package com.ruesga.android.wallpapers.photophase;
 
-
-
+import com.ruesga.android.wallpapers.photophase.utils.GLESConfigChooser;
 
 /**
  * An abstract implementation of {@link EGLWallpaperService} based on <code>GLES</code>.
@@ -44,7 +43,7 @@ public abstract class GLES20WallpaperService extends GLESWallpaperService {
         void initialize() {
             // Request an OpenGL ES 2.x compatible context.
             getGlSurfaceView().setEGLContextClientVersion(2);
-            getGlSurfaceView().setEGLConfigChooser(false);
+            getGlSurfaceView().setEGLConfigChooser(new GLESConfigChooser(false));
         }
     }
 }
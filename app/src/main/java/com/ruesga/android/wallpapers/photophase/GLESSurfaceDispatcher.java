@@ -24,6 +24,7 @@ import android.opengl.GLSurfaceView;
 public class GLESSurfaceDispatcher {
 
     private final GLSurfaceView mSurface;
+    private FrameClock mFrameClock;
 
     /**
      * Constructor of <code>GLESSurfaceDispatcher</code>
@@ -55,17 +56,54 @@ public class GLESSurfaceDispatcher {
         this.mSurface.queueEvent(r);
     }
 
+    /**
+     * Method that sets the clock that drives the continuous render mode
+     *
+     * @param clock The frame clock (null to use the continuous mode of the surface)
+     */
+    public void setFrameClock(FrameClock clock) {
+        mFrameClock = clock;
+    }
+
     /**
      * Method that set the render mode
      *
      * @param mode The GLES render mode
      */
     public void setRenderMode(int mode) {
+        if (mFrameClock != null) {
+            // The surface only renders on demand; the continuous mode is the frame clock
+            // requesting the renders
+            if (mSurface.getRenderMode() != GLSurfaceView.RENDERMODE_WHEN_DIRTY) {
+                mSurface.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+            }
+            if (mode == GLSurfaceView.RENDERMODE_CONTINUOUSLY) {
+                mFrameClock.start();
+            } else {
+                mFrameClock.stop();
+            }
+            return;
+        }
         if (mSurface.getRenderMode() != mode) {
             mSurface.setRenderMode(mode);
         }
     }
 
+    /**
+     * Method that sets the size of the surface, which is scaled to the screen by the
+     * compositor. It must be called from the main thread.
+     *
+     * @param width The width of the surface (0 for the size of the screen)
+     * @param height The height of the surface (0 for the size of the screen)
+     */
+    public void setSurfaceSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            mSurface.getHolder().setSizeFromLayout();
+        } else {
+            mSurface.getHolder().setFixedSize(width, height);
+        }
+    }
+
     /**
      * Method that requests a render to the surface.
      */
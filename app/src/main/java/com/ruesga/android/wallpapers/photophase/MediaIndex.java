@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent index of the selected pictures found in the media store. The index is
+ * available immediately when the wallpaper starts, so pictures can be selected before the
+ * media store query returns. It is reconciled with the media store in background.
+ */
+public class MediaIndex {
+
+    private static final String TAG = "MediaIndex";
+
+    private static final boolean DEBUG = false;
+
+    private static final String DATABASE_NAME = "media_index.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE_PICTURES = "pictures";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_PATH = "path";
+    static final String COLUMN_BUCKET = "bucket";
+    static final String COLUMN_SIZE = "size";
+    static final String COLUMN_MTIME = "mtime";
+    static final String COLUMN_WIDTH = "width";
+    static final String COLUMN_HEIGHT = "height";
+    static final String COLUMN_ORIENTATION = "orientation";
+    static final String COLUMN_LAST_SHOWN = "last_shown";
+
+    /**
+     * A picture of the index
+     */
+    public static class Entry {
+        public long mId;
+        public String mPath;
+        public String mBucket;
+        public long mSize;
+        public long mModified;
+        public int mWidth;
+        public int mHeight;
+        public int mOrientation;
+    }
+
+    /**
+     * The watermark of the index. Media store rows beyond it weren't indexed yet
+     */
+    public static class Watermark {
+        public long mMaxId;
+        public long mMaxModified;
+        public int mCount;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        public DatabaseHelper(Context ctx) {
+            super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_PICTURES + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                    + COLUMN_PATH + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_BUCKET + " TEXT, "
+                    + COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_MTIME + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_WIDTH + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_HEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_ORIENTATION + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_LAST_SHOWN + " INTEGER NOT NULL DEFAULT 0)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The index is just a cache of the media store. Rebuild it
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PICTURES);
+            onCreate(db);
+        }
+    }
+
+    private static MediaIndex sInstance;
+
+    private final DatabaseHelper mHelper;
+
+    /**
+     * Method that returns the index
+     *
+     * @param ctx The current context
+     * @return MediaIndex The index
+     */
+    public synchronized static MediaIndex getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new MediaIndex(ctx.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaIndex(Context ctx) {
+        super();
+        mHelper = new DatabaseHelper(ctx);
+    }
+
+    /**
+     * Method that returns the pictures of the index, in the order of the media store. Their
+     * positions are recorded in the {@link PictureSequence}.
+     *
+     * @return int[] The {@link PathTable} ids of the indexed pictures
+     */
+    public int[] load() {
+        long start = SystemClock.elapsedRealtime();
+        PathTable paths = PathTable.getInstance();
+        PictureSequence sequence = PictureSequence.getInstance();
+        IntArray pictures = new IntArray();
+        try {
+            SQLiteDatabase db = mHelper.getReadableDatabase();
+            Cursor c = db.query(TABLE_PICTURES, new String[]{COLUMN_ID, COLUMN_PATH},
+                    null, null, null, null, COLUMN_ID + " ASC");
+            try {
+                while (c.moveToNext()) {
+                    int id = paths.intern(c.getString(1));
+                    sequence.putMediaStoreId(id, c.getLong(0));
+                    pictures.add(id);
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't load the media index", ex);
+        }
+        Log.d(TAG, "Media index loaded: " + pictures.size() + " pictures in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return pictures.toArray();
+    }
+
+    /**
+     * Method that reconciles the index with the pictures currently in the media store.
+     * Only the changed pictures are written, and the last shown time is preserved.
+     *
+     * @param entries All the pictures of the media store
+     */
+    public void reconcile(List<Entry> entries) {
+        long start = SystemClock.elapsedRealtime();
+        int added = 0, updated = 0, deleted = 0;
+        try {
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                // Current state of the index
+                Map<Long, Long> current = new HashMap<>();
+                Cursor c = db.query(TABLE_PICTURES, new String[]{COLUMN_ID, COLUMN_MTIME},
+                        null, null, null, null, null);
+                try {
+                    while (c.moveToNext()) {
+                        current.put(c.getLong(0), c.getLong(1));
+                    }
+                } finally {
+                    c.close();
+                }
+
+                for (Entry entry : entries) {
+                    Long modified = current.remove(entry.mId);
+                    if (modified == null) {
+                        insert(db, entry);
+                        added++;
+                    } else if (modified != entry.mModified) {
+                        db.update(TABLE_PICTURES, toContentValues(entry),
+                                COLUMN_ID + " = " + entry.mId, null);
+                        updated++;
+                    }
+                }
+
+                // Whatever remains was deleted from the media store
+                SQLiteStatement delete = db.compileStatement(
+                        "DELETE FROM " + TABLE_PICTURES + " WHERE " + COLUMN_ID + " = ?");
+                for (Long id : current.keySet()) {
+                    delete.bindLong(1, id);
+                    delete.executeUpdateDelete();
+                    deleted++;
+                }
+                delete.close();
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't update the media index", ex);
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Media index reconciled in " + (SystemClock.elapsedRealtime() - start)
+                    + " ms: added=" + added + ", updated=" + updated + ", deleted=" + deleted);
+        }
+    }
+
+    /**
+     * Method that returns the watermark of the index
+     *
+     * @return Watermark The watermark
+     */
+    public Watermark getWatermark() {
+        Watermark watermark = new Watermark();
+        try {
+            SQLiteDatabase db = mHelper.getReadableDatabase();
+            Cursor c = db.rawQuery("SELECT MAX(" + COLUMN_ID + "), MAX(" + COLUMN_MTIME
+                    + "), COUNT(*) FROM " + TABLE_PICTURES, null);
+            try {
+                if (c.moveToFirst()) {
+                    watermark.mMaxId = c.getLong(0);
+                    watermark.mMaxModified = c.getLong(1);
+                    watermark.mCount = c.getInt(2);
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't read the media index watermark", ex);
+        }
+        return watermark;
+    }
+
+    /**
+     * Method that returns the ids of all the indexed pictures
+     *
+     * @return long[] The ids in ascending order
+     */
+    public long[] getIds() {
+        try {
+            SQLiteDatabase db = mHelper.getReadableDatabase();
+            Cursor c = db.query(TABLE_PICTURES, new String[]{COLUMN_ID},
+                    null, null, null, null, COLUMN_ID);
+            try {
+                long[] ids = new long[c.getCount()];
+                int i = 0;
+                while (c.moveToNext()) {
+                    ids[i++] = c.getLong(0);
+                }
+                return ids;
+            } finally {
+                c.close();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't read the media index", ex);
+            return new long[0];
+        }
+    }
+
+    /**
+     * Method that adds or updates the passed pictures
+     *
+     * @param entries The new or modified pictures
+     */
+    public void update(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Entry entry : entries) {
+                    if (db.update(TABLE_PICTURES, toContentValues(entry),
+                            COLUMN_ID + " = " + entry.mId, null) == 0) {
+                        insert(db, entry);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't update the media index", ex);
+        }
+    }
+
+    /**
+     * Method that removes the passed pictures
+     *
+     * @param ids The ids of the pictures to remove
+     * @return int[] The {@link PathTable} ids of the removed pictures
+     */
+    public int[] delete(List<Long> ids) {
+        PathTable paths = PathTable.getInstance();
+        IntArray deleted = new IntArray(ids.size());
+        if (ids.isEmpty()) {
+            return deleted.toArray();
+        }
+        try {
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Long id : ids) {
+                    Cursor c = db.query(TABLE_PICTURES, new String[]{COLUMN_PATH},
+                            COLUMN_ID + " = " + id, null, null, null, null);
+                    try {
+                        if (c.moveToFirst()) {
+                            deleted.add(paths.intern(c.getString(0)));
+                        }
+                    } finally {
+                        c.close();
+                    }
+                    db.delete(TABLE_PICTURES, COLUMN_ID + " = " + id, null);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't update the media index", ex);
+        }
+        return deleted.toArray();
+    }
+
+    /**
+     * Method that records that a picture was shown
+     *
+     * @param picture The path of the picture
+     */
+    public void markShown(String picture) {
+        try {
+            ContentValues values = new ContentValues(1);
+            values.put(COLUMN_LAST_SHOWN, System.currentTimeMillis());
+            mHelper.getWritableDatabase().update(TABLE_PICTURES, values,
+                    COLUMN_PATH + " = ?", new String[]{picture});
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't update the media index", ex);
+        }
+    }
+
+    private static void insert(SQLiteDatabase db, Entry entry) {
+        // A path could be reused by a new media store row
+        db.delete(TABLE_PICTURES, COLUMN_PATH + " = ?", new String[]{entry.mPath});
+        db.insert(TABLE_PICTURES, null, toContentValues(entry));
+    }
+
+    private static ContentValues toContentValues(Entry entry) {
+        ContentValues values = new ContentValues(8);
+        values.put(COLUMN_ID, entry.mId);
+        values.put(COLUMN_PATH, entry.mPath);
+        values.put(COLUMN_BUCKET, entry.mBucket);
+        values.put(COLUMN_SIZE, entry.mSize);
+        values.put(COLUMN_MTIME, entry.mModified);
+        values.put(COLUMN_WIDTH, entry.mWidth);
+        values.put(COLUMN_HEIGHT, entry.mHeight);
+        values.put(COLUMN_ORIENTATION, entry.mOrientation);
+        return values;
+    }
+}
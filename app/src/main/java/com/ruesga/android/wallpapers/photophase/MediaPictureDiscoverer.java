@@ -26,12 +26,20 @@ import android.provider.MediaStore;
 import android.util.Log;
 
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+import com.ruesga.android.wallpapers.photophase.sources.ImageSource;
+import com.ruesga.android.wallpapers.photophase.sources.ImageSources;
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+import com.ruesga.android.wallpapers.photophase.utils.Utils;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,6 +53,38 @@ public class MediaPictureDiscoverer {
     private static final boolean DEBUG = false;
 
     private static final String[] PROJECTION = {MediaStore.MediaColumns.DATA};
+    private static final String[] BOOTSTRAP_PROJECTION = {
+            MediaStore.Images.ImageColumns._ID, MediaStore.Images.ImageColumns.DATA};
+
+    // Number of rows between partial results
+    private static final int PARTIAL_RESULTS_ROWS = 250;
+
+    // Number of pictures sampled before the first discovery
+    private static final int BOOTSTRAP_PICTURES = 8;
+
+    private static final String WHERE_VALID =
+            MediaStore.Images.ImageColumns.DATA + " IS NOT NULL";
+    // The rows beyond the watermark. The modification time has a resolution of one second, so
+    // the rows modified at the watermark are reported again (the index updates are idempotent)
+    private static final String WHERE_CHANGED = WHERE_VALID + " AND ("
+            + MediaStore.Images.ImageColumns._ID + " > ? OR "
+            + MediaStore.Images.ImageColumns.DATE_MODIFIED + " >= ?)";
+
+    private static final String[] INDEX_PROJECTION;
+    static {
+        List<String> projection = new ArrayList<>();
+        projection.add(MediaStore.Images.ImageColumns._ID);
+        projection.add(MediaStore.Images.ImageColumns.DATA);
+        projection.add(MediaStore.Images.ImageColumns.BUCKET_ID);
+        projection.add(MediaStore.Images.ImageColumns.SIZE);
+        projection.add(MediaStore.Images.ImageColumns.DATE_MODIFIED);
+        projection.add(MediaStore.Images.ImageColumns.ORIENTATION);
+        if (AndroidHelper.isJellyBeanOrGreater()) {
+            projection.add(MediaStore.Images.ImageColumns.WIDTH);
+            projection.add(MediaStore.Images.ImageColumns.HEIGHT);
+        }
+        INDEX_PROJECTION = projection.toArray(new String[projection.size()]);
+    }
 
     /**
      * An interface that is called when new data is ready.
@@ -59,31 +99,50 @@ public class MediaPictureDiscoverer {
         /**
          * Called when the all the data is ready
          *
-         * @param images All the images paths found
+         * @param images The {@link PathTable} ids of all the images found
          * @param userRequest If the user requested this media discovery
          */
-        void onEndMediaDiscovered(File[] images, boolean userRequest);
+        void onEndMediaDiscovered(int[] images, boolean userRequest);
         /**
          * Called when the partial data is ready
          *
-         * @param images All the images paths found
+         * @param images The {@link PathTable} ids of the images found
+         * @param userRequest If the user requested this media discovery
+         */
+        void onPartialMediaDiscovered(int[] images, boolean userRequest);
+        /**
+         * Called when an incremental discovery ends, with the changes since the last one
+         *
+         * @param added The {@link PathTable} ids of the images added (or modified) since
+         *              the last discovery
+         * @param removed The {@link PathTable} ids of the images removed since the last
+         *                discovery
          * @param userRequest If the user requested this media discovery
          */
-        void onPartialMediaDiscovered(File[] images, boolean userRequest);
+        void onDeltaMediaDiscovered(int[] added, int[] removed, boolean userRequest);
     }
 
     /**
      * The asynchronous task for query the MediaStore
      */
-    private class AsyncDiscoverTask extends AsyncTask<Void, File, List<File>> {
+    private class AsyncDiscoverTask extends AsyncTask<Void, int[], int[]> {
 
         private final ContentResolver mFinalContentResolver;
         private final OnMediaPictureDiscoveredListener mFinalCallback;
         private final Set<String> mFilter;
+        private final Set<String> mOriginalFilter;
         private final Set<String> mLastAlbums;
         private final Set<String> mNewAlbums;
         private final boolean mIsAutoSelectNewAlbums;
         private final boolean mUserRequest;
+        private boolean mIndexed;
+        private boolean mIncremental;
+        private String mFilterSelection;
+        private final Set<String> mSelectedAlbums;
+        private final PathTable mPaths;
+        private final PictureSequence mSequence;
+        private final IntArray mAdded;
+        private int[] mRemoved;
 
         /**
          * Constructor of <code>AsyncDiscoverTask</code>
@@ -97,34 +156,77 @@ public class MediaPictureDiscoverer {
             super();
             mFinalContentResolver = cr;
             mFinalCallback = cb;
-            mFilter = Preferences.Media.getSelectedMedia(mContext);
-            mLastAlbums = Preferences.Media.getLastDiscorevedAlbums(mContext);
+            mOriginalFilter = mSelection.getSelectedMedia();
+            mFilter = new HashSet<>(mOriginalFilter);
+            mLastAlbums = mSelection.getDiscoveredAlbums();
             mIsAutoSelectNewAlbums = Preferences.Media.isAutoSelectNewAlbums(mContext);
             mNewAlbums = new HashSet<>();
+            mSelectedAlbums = new HashSet<>();
             mUserRequest = userRequest;
+            mPaths = PathTable.getInstance();
+            mSequence = PictureSequence.getInstance();
+            mAdded = new IntArray();
+            mRemoved = new int[0];
+
+            // Only the changes are needed if the listener already has the pictures of
+            // the same selection
+            mIncremental = !userRequest && mPublishedFilter != null
+                    && mPublishedFilter.equals(mFilter);
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected List<File> doInBackground(Void...params) {
+        protected int[] doInBackground(Void...params) {
             try {
+                final Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+                mNewAlbums.addAll(mLastAlbums);
+                if (mIncremental) {
+                    MediaIndex.Watermark watermark = mIndex.getWatermark();
+                    if (watermark.mCount > 0) {
+                        // Only new rows can belong to new albums
+                        discoverAlbums(uri, watermark.mMaxId);
+                        mFilterSelection = buildFilterSelection();
+                        discoverChanges(uri, watermark);
+                        discoverSources();
+                        return null;
+                    }
+                    mIncremental = false;
+                }
+
                 // Start progress
                 publishProgress();
 
-                // Query external content
-                List<File> paths =
+                // Publish the indexed pictures, so they can be selected before the media
+                // store query returns
+                int[] indexed = loadIndex();
+                mIndexed = indexed.length > 0;
+                if (mIndexed) {
+                    publishProgress(indexed);
+                } else {
+                    // Nothing indexed yet. Sample a few pictures to display while the
+                    // whole library is discovered
+                    int[] sample = bootstrap(uri);
+                    if (sample.length > 0) {
+                        publishProgress(sample);
+                    }
+                }
+
+                // Query the selected pictures of the external content
+                discoverAlbums(uri, 0);
+                mFilterSelection = buildFilterSelection();
+                int[] paths =
                         getPictures(
-                                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                                PROJECTION,
-                                null,
+                                uri,
+                                INDEX_PROJECTION,
+                                WHERE_VALID + " AND " + mFilterSelection,
                                 null);
+                paths = merge(paths, discoverSources());
                 if (DEBUG) {
-                    int cc = paths.size();
-                    Log.v(TAG, "Pictures found (" + cc + "):");
-                    for (int i = 0; i < cc; i++) {
-                        Log.v(TAG, "\t" + paths.get(i));
+                    Log.v(TAG, "Pictures found (" + paths.length + "):");
+                    for (int id : paths) {
+                        Log.v(TAG, "\t" + mPaths.getPath(id));
                     }
                 }
                 return paths;
@@ -133,11 +235,15 @@ public class MediaPictureDiscoverer {
                 Log.e(TAG, "AsyncDiscoverTask failed.", e);
 
                 // Return and empty list
-                return new ArrayList<>();
+                return new int[0];
             } finally {
                 // Save the filter (could have new albums)
-                Preferences.Media.setSelectedMedia(mContext, mFilter);
-                Preferences.Media.setLastDiscorevedAlbums(mContext, mNewAlbums);
+                if (!mFilter.equals(mOriginalFilter)) {
+                    mSelection.setSelectedMedia(mFilter);
+                }
+                if (!mNewAlbums.equals(mLastAlbums)) {
+                    mSelection.setDiscoveredAlbums(mNewAlbums);
+                }
             }
         }
 
@@ -145,12 +251,12 @@ public class MediaPictureDiscoverer {
          * {@inheritDoc}
          */
         @Override
-        protected void onProgressUpdate(File... values) {
+        protected void onProgressUpdate(int[]... values) {
             if (mFinalCallback != null) {
                 if (values == null || values.length == 0) {
                     mFinalCallback.onStartMediaDiscovered(mUserRequest);
                 } else {
-                    mFinalCallback.onPartialMediaDiscovered(values, mUserRequest);
+                    mFinalCallback.onPartialMediaDiscovered(values[0], mUserRequest);
                 }
             }
         }
@@ -159,9 +265,15 @@ public class MediaPictureDiscoverer {
          * {@inheritDoc}
          */
         @Override
-        protected void onPostExecute(List<File> result) {
+        protected void onPostExecute(int[] result) {
+            mPublishedFilter = mFilter;
             if (mFinalCallback != null) {
-                mFinalCallback.onEndMediaDiscovered(result.toArray(new File[result.size()]), mUserRequest);
+                if (mIncremental) {
+                    mFinalCallback.onDeltaMediaDiscovered(
+                            mAdded.toArray(), mRemoved, mUserRequest);
+                } else {
+                    mFinalCallback.onEndMediaDiscovered(result, mUserRequest);
+                }
             }
         }
 
@@ -169,12 +281,13 @@ public class MediaPictureDiscoverer {
          * {@inheritDoc}
          */
         @Override
-        protected void onCancelled(List<File> result) {
+        protected void onCancelled(int[] result) {
             // Nothing found
+            mPublishedFilter = null;
             if (mFinalCallback != null) {
                 // Overwrite the user request setting. If the task is cancelled then
                 // there is no notification to send to the user
-                mFinalCallback.onEndMediaDiscovered(new File[]{}, false);
+                mFinalCallback.onEndMediaDiscovered(new int[0], false);
             }
         }
 
@@ -185,34 +298,39 @@ public class MediaPictureDiscoverer {
          * @param projection The field data to return
          * @param where A filter
          * @param args The filter arguments
-         * @return List<File> The pictures found
+         * @return int[] The {@link PathTable} ids of the pictures found
          */
-        private List<File> getPictures(
+        private int[] getPictures(
                 Uri uri, String[] projection, String where, String[] args) {
             long start = System.currentTimeMillis();
-            List<File> paths = new ArrayList<>();
-            List<File> partial = new ArrayList<>();
-            Cursor c = mFinalContentResolver.query(uri, projection, where, args, null);
+            IntArray paths = new IntArray();
+            IntArray partial = new IntArray();
+            List<MediaIndex.Entry> entries = new ArrayList<>();
+            Cursor c = mFinalContentResolver.query(uri, projection, where, args,
+                    MediaStore.Images.ImageColumns._ID + " ASC");
+            int rows = 0;
             if (c != null) {
                 try {
+                    rows = c.getCount();
                     int i = 0;
                     while (c.moveToNext()) {
                         // Only valid files (those i can read)
-                        String p = c.getString(0);
+                        String p = c.getString(1);
                         if (p != null) {
-                            File f = new File(p);
-                            catalog(f);
+                            int id = mPaths.intern(p);
+                            entries.add(toIndexEntry(c));
+                            mSequence.putMediaStoreId(id, c.getLong(0));
 
                             // Check if is a valid filter
-                            if (matchFilter(f)) {
-                                paths.add(f);
-                                partial.add(f);
+                            if (matchFilter(id)) {
+                                paths.add(id);
+                                partial.add(id);
                             }
                         }
 
-                        // Publish partial data
-                        if (i % 5 == 0 && partial.size() > 0) {
-                            publishProgress(partial.toArray(new File[partial.size()]));
+                        // Publish partial data (if the indexed pictures weren't published)
+                        if (!mIndexed && i % PARTIAL_RESULTS_ROWS == 0 && partial.size() > 0) {
+                            publishProgress(partial.toArray());
                             partial.clear();
                         }
                         i++;
@@ -224,21 +342,396 @@ public class MediaPictureDiscoverer {
                         // Ignore: handle exception
                     }
                 }
+
+                // Update the indexes for the next time
+                if (!isCancelled()) {
+                    mIndex.reconcile(entries);
+                    mAlbums.reconcile(mSelectedAlbums, paths.toArray());
+                }
             }
             long end = System.currentTimeMillis();
-            if (DEBUG) Log.v(TAG, "Media reloaded in " + (end - start) + " milliseconds");
-            return paths;
+            if (DEBUG) {
+                Log.v(TAG, "Media reloaded in " + (end - start) + " milliseconds: "
+                        + rows + " of " + countRows(uri) + " rows fetched");
+            }
+            return paths.toArray();
+        }
+
+        /**
+         * Method that returns a sample of the pictures that will be selected by the
+         * discovery (a window of rows from a random id), without walking the library.
+         *
+         * @param uri The content uri where to search
+         * @return int[] The {@link PathTable} ids of the sampled pictures
+         */
+        private int[] bootstrap(Uri uri) {
+            long start = System.currentTimeMillis();
+            try {
+                // The selected albums, and the new ones if they will be automatically selected
+                String where = WHERE_VALID + " AND (" + buildFilterSelection();
+                if (mIsAutoSelectNewAlbums) {
+                    where += mLastAlbums.isEmpty() ? " OR 1"
+                            : " OR " + MediaStore.Images.ImageColumns.BUCKET_ID + " NOT IN ("
+                                    + appendBucketIds(new StringBuilder(), mLastAlbums) + ")";
+                }
+                where += ")";
+
+                // The window starts at a random id (the ids are sparse, so it doesn't need
+                // the number of rows). Only the first row of the cursor is read
+                long minId = 0;
+                if (Preferences.Media.isRandomSequence(mContext)) {
+                    Cursor c = mFinalContentResolver.query(uri, BOOTSTRAP_PROJECTION, where,
+                            null, MediaStore.Images.ImageColumns._ID + " DESC");
+                    if (c != null) {
+                        try {
+                            if (c.moveToFirst()) {
+                                minId = Utils.getNextRandom(0,
+                                        (int) Math.min(c.getLong(0), Integer.MAX_VALUE - 1));
+                            }
+                        } finally {
+                            c.close();
+                        }
+                    }
+                }
+                if (isCancelled()) {
+                    return new int[0];
+                }
+
+                // Read the rows of the window by hand. The providers don't accept a limit
+                // clause in the sort order
+                IntArray sample = new IntArray(BOOTSTRAP_PICTURES);
+                Cursor c = mFinalContentResolver.query(uri, BOOTSTRAP_PROJECTION,
+                        where + " AND " + MediaStore.Images.ImageColumns._ID + " >= ?",
+                        new String[]{String.valueOf(minId)},
+                        MediaStore.Images.ImageColumns._ID + " ASC");
+                if (c != null) {
+                    try {
+                        int rows = 0;
+                        while (rows < BOOTSTRAP_PICTURES && c.moveToNext()) {
+                            // The albums of the selected pictures are fetched whole
+                            int id = mPaths.intern(c.getString(1));
+                            mSequence.putMediaStoreId(id, c.getLong(0));
+                            if (matchFilter(id) || (mIsAutoSelectNewAlbums
+                                    && !mLastAlbums.contains(mPaths.getAlbum(id)))) {
+                                sample.add(id);
+                            }
+                            rows++;
+                        }
+                    } finally {
+                        c.close();
+                    }
+                }
+
+                long end = System.currentTimeMillis();
+                if (DEBUG) {
+                    Log.d(TAG, "Bootstrap: " + sample.size() + " pictures sampled from id "
+                            + minId + " in " + (end - start) + " milliseconds");
+                }
+                return sample.toArray();
+
+            } catch (RuntimeException e) {
+                // The sample is optional. The discovery will fetch the pictures anyway
+                Log.w(TAG, "Failed to sample the pictures", e);
+                return new int[0];
+            }
+        }
+
+        /**
+         * Method that catalogs the albums not seen by previous discoveries. Only the
+         * pictures of those albums are fetched.
+         *
+         * @param uri The content uri where to search
+         * @param minId Only check the rows beyond this id
+         */
+        private void discoverAlbums(Uri uri, long minId) {
+            StringBuilder where = new StringBuilder(WHERE_VALID);
+            if (!mLastAlbums.isEmpty()) {
+                where.append(" AND ").append(MediaStore.Images.ImageColumns.BUCKET_ID)
+                        .append(" NOT IN (");
+                appendBucketIds(where, mLastAlbums);
+                where.append(")");
+            }
+            if (minId > 0) {
+                where.append(" AND ").append(MediaStore.Images.ImageColumns._ID)
+                        .append(" > ").append(minId);
+            }
+            IntArray found = new IntArray();
+            Cursor c = mFinalContentResolver.query(uri, PROJECTION, where.toString(), null, null);
+            if (c != null) {
+                try {
+                    while (c.moveToNext()) {
+                        String p = c.getString(0);
+                        catalog(new File(p));
+                        found.add(mPaths.intern(p));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            mAlbums.update(found.toArray(), new int[0]);
+        }
+
+        /**
+         * Method that translates the selected albums and pictures into a media store
+         * selection, so only the rows of the selected albums are fetched. The selected
+         * pictures are fetched with the rest of their album (the rows are matched later
+         * against the filter), so the size of the selection is bounded by the number of
+         * albums and not by the number of selected pictures.
+         *
+         * @return String The selection
+         */
+        private String buildFilterSelection() {
+            Set<String> albums = new HashSet<>();
+            mSelectedAlbums.clear();
+            for (String path : mFilter) {
+                if (mNewAlbums.contains(path)) {
+                    albums.add(path);
+                    mSelectedAlbums.add(path);
+                } else {
+                    String album = new File(path).getParent();
+                    if (album != null) {
+                        albums.add(album);
+                    }
+                }
+            }
+
+            StringBuilder selection = new StringBuilder("(");
+            if (!albums.isEmpty()) {
+                selection.append(MediaStore.Images.ImageColumns.BUCKET_ID).append(" IN (");
+                appendBucketIds(selection, albums);
+                selection.append(")");
+            } else {
+                // Nothing selected
+                selection.append("0");
+            }
+            return selection.append(")").toString();
+        }
+
+        /**
+         * Method that returns the number of rows of the content uri (just for measurement
+         * purpose)
+         *
+         * @param uri The content uri
+         * @return int The number of rows
+         */
+        private int countRows(Uri uri) {
+            Cursor c = mFinalContentResolver.query(uri,
+                    new String[]{MediaStore.Images.ImageColumns._ID}, WHERE_VALID, null, null);
+            if (c == null) {
+                return 0;
+            }
+            try {
+                return c.getCount();
+            } finally {
+                c.close();
+            }
+        }
+
+        /**
+         * Method that discovers the changes in the media store since the last indexed
+         * state. New and modified rows are found through the watermark. Deleted rows are
+         * detected comparing the number of rows, and only then the ids are compared.
+         *
+         * @param uri The content uri where to search
+         * @param watermark The watermark of the index
+         */
+        private void discoverChanges(Uri uri, MediaIndex.Watermark watermark) {
+            long start = System.currentTimeMillis();
+
+            // New and modified rows
+            List<MediaIndex.Entry> changed = new ArrayList<>();
+            int newRows = 0;
+            Cursor c = mFinalContentResolver.query(uri, INDEX_PROJECTION,
+                    WHERE_CHANGED + " AND " + mFilterSelection,
+                    new String[]{String.valueOf(watermark.mMaxId),
+                            String.valueOf(watermark.mMaxModified)}, null);
+            if (c != null) {
+                try {
+                    while (c.moveToNext()) {
+                        MediaIndex.Entry entry = toIndexEntry(c);
+                        int id = mPaths.intern(entry.mPath);
+                        mSequence.putMediaStoreId(id, entry.mId);
+                        changed.add(entry);
+                        if (entry.mId > watermark.mMaxId) {
+                            newRows++;
+                        }
+                        if (matchFilter(id)) {
+                            mAdded.add(id);
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            if (isCancelled()) {
+                return;
+            }
+
+            // Deleted rows
+            List<Long> deleted = new ArrayList<>();
+            c = mFinalContentResolver.query(uri, new String[]{MediaStore.Images.ImageColumns._ID},
+                    WHERE_VALID + " AND " + mFilterSelection, null,
+                    MediaStore.Images.ImageColumns._ID + " ASC");
+            if (c != null) {
+                try {
+                    if (c.getCount() != watermark.mCount + newRows) {
+                        // Both are sorted by id, so just walk them at the same time
+                        long[] indexed = mIndex.getIds();
+                        int i = 0;
+                        while (c.moveToNext() && i < indexed.length) {
+                            long id = c.getLong(0);
+                            while (i < indexed.length && indexed[i] < id) {
+                                deleted.add(indexed[i++]);
+                            }
+                            if (i < indexed.length && indexed[i] == id) {
+                                i++;
+                            }
+                        }
+                        while (i < indexed.length) {
+                            deleted.add(indexed[i++]);
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            if (isCancelled()) {
+                return;
+            }
+
+            mIndex.update(changed);
+            mRemoved = mIndex.delete(deleted);
+            mAlbums.update(mAdded.toArray(), mRemoved);
+
+            long end = System.currentTimeMillis();
+            if (DEBUG) Log.v(TAG, "Media changes discovered in " + (end - start)
+                    + " milliseconds: changed=" + changed.size() + ", deleted="
+                    + deleted.size());
+        }
+
+        /**
+         * Method that enumerates the pictures of the other sources (folders not indexed by
+         * the media store, remote folders, ...). The changes since the last enumeration are
+         * added to the delta.
+         *
+         * @return int[] The {@link PathTable} ids of all the pictures found
+         */
+        private int[] discoverSources() {
+            IntArray all = new IntArray();
+            int index = 0;
+            for (ImageSource source : mSources.getDiscoverableSources()) {
+                int[] last = mSourcePictures.get(source);
+                if (last == null) {
+                    last = new int[0];
+                }
+                int[] found = new int[0];
+                if (source.isEnabled() && mSources.getSuspendedTime(source) > 0) {
+                    // The source couldn't be reached a moment ago. Keep the pictures of
+                    // the last time
+                    found = last;
+                } else if (source.isEnabled()) {
+                    try {
+                        found = source.enumerate();
+                        Arrays.sort(found);
+                        mSources.onSourceSucceeded(source);
+                    } catch (IOException ex) {
+                        // Keep the pictures of the last time (the source could be offline)
+                        Log.w(TAG, "Can't enumerate the pictures of " + source, ex);
+                        mSources.onSourceFailed(source);
+                        found = last;
+                    }
+                }
+                if (isCancelled()) {
+                    return all.toArray();
+                }
+
+                // Diff with the last enumeration (both are sorted)
+                IntArray removed = new IntArray();
+                int i = 0, j = 0;
+                while (i < found.length || j < last.length) {
+                    if (j >= last.length || (i < found.length && found[i] < last[j])) {
+                        mAdded.add(found[i++]);
+                    } else if (i >= found.length || found[i] > last[j]) {
+                        removed.add(last[j++]);
+                    } else {
+                        i++;
+                        j++;
+                    }
+                }
+                mRemoved = merge(mRemoved, removed.toArray());
+                mSourcePictures.put(source, found);
+                for (int id : found) {
+                    mSequence.putSourcePicture(id, index);
+                    all.add(id);
+                }
+                index++;
+            }
+            return all.toArray();
+        }
+
+        /**
+         * Method that returns the indexed pictures that match the filter
+         *
+         * @return int[] The {@link PathTable} ids of the pictures, in the order of the
+         * media store
+         */
+        private int[] loadIndex() {
+            IntArray indexed = new IntArray();
+            for (int id : mIndex.load()) {
+                if (matchFilter(id)) {
+                    indexed.add(id);
+                }
+            }
+            return indexed.toArray();
+        }
+
+        /**
+         * Method that concatenates two arrays of pictures
+         *
+         * @param a The first pictures
+         * @param b The second pictures
+         * @return int[] All the pictures
+         */
+        private int[] merge(int[] a, int[] b) {
+            if (b.length == 0) {
+                return a;
+            }
+            int[] merged = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            return merged;
+        }
+
+        /**
+         * Method that creates an index entry from the current row of a media store cursor
+         * (queried with {@link #INDEX_PROJECTION})
+         *
+         * @param c The cursor
+         * @return MediaIndex.Entry The index entry
+         */
+        private MediaIndex.Entry toIndexEntry(Cursor c) {
+            MediaIndex.Entry entry = new MediaIndex.Entry();
+            entry.mId = c.getLong(0);
+            entry.mPath = c.getString(1);
+            entry.mBucket = c.getString(2);
+            entry.mSize = c.getLong(3);
+            entry.mModified = c.getLong(4);
+            entry.mOrientation = c.getInt(5);
+            if (c.getColumnCount() > 7) {
+                entry.mWidth = c.getInt(6);
+                entry.mHeight = c.getInt(7);
+            }
+            return entry;
         }
 
         /**
          * Method that checks if the picture match the preferences filter
          *
-         * @param picture The picture to check
+         * @param picture The {@link PathTable} id of the picture to check
          * @return boolean whether the picture match the filter
          */
-        private boolean matchFilter(File picture) {
-            return mFilter.contains(picture.getAbsolutePath()) ||
-                    mFilter.contains(picture.getParentFile().getAbsolutePath());
+        private boolean matchFilter(int picture) {
+            return mFilter.contains(mPaths.getAlbum(picture)) ||
+                    mFilter.contains(mPaths.getPath(picture));
         }
 
         /**
@@ -265,8 +758,14 @@ public class MediaPictureDiscoverer {
     }
 
     private final Context mContext;
+    private final MediaIndex mIndex;
+    private final AlbumIndex mAlbums;
+    private final SelectionStore mSelection;
+    private final ImageSources mSources;
+    private final Map<ImageSource, int[]> mSourcePictures;
 
     private AsyncDiscoverTask mTask;
+    private Set<String> mPublishedFilter;
 
     /**
      * Constructor of <code>MediaPictureDiscoverer</code>.
@@ -276,6 +775,41 @@ public class MediaPictureDiscoverer {
     public MediaPictureDiscoverer(Context ctx) {
         super();
         mContext = ctx;
+        mIndex = MediaIndex.getInstance(ctx);
+        mAlbums = AlbumIndex.getInstance();
+        mSelection = SelectionStore.getInstance(ctx);
+        mSources = ImageSources.getInstance(ctx);
+        mSourcePictures = new HashMap<>();
+    }
+
+    /**
+     * Method that appends the media store bucket ids of the passed albums
+     *
+     * @param sb The builder where to append the ids
+     * @param albums The album paths
+     * @return StringBuilder The same builder
+     */
+    private static StringBuilder appendBucketIds(StringBuilder sb, Iterable<String> albums) {
+        boolean first = true;
+        for (String album : albums) {
+            if (!first) {
+                sb.append(",");
+            }
+            sb.append(getBucketId(album));
+            first = false;
+        }
+        return sb;
+    }
+
+    /**
+     * Method that returns the media store bucket id of an album. The media store computes
+     * it from the hash of the lower case path of the album (independent of the locale).
+     *
+     * @param album The album path
+     * @return String The bucket id
+     */
+    public static String getBucketId(String album) {
+        return String.valueOf(album.toLowerCase(Locale.ROOT).hashCode());
     }
 
     /**
@@ -289,6 +823,7 @@ public class MediaPictureDiscoverer {
                 !mTask.isCancelled()) {
             mTask.cancel(true);
             mTask = null;
+            mPublishedFilter = null;
         }
 
         if (AndroidHelper.hasReadExternalStoragePermissionGranted(mContext)) {
@@ -296,47 +831,42 @@ public class MediaPictureDiscoverer {
             mTask.execute();
         } else {
             // Notify that we don't have any files
-            cb.onEndMediaDiscovered(new File[0], userRequest);
+            cb.onEndMediaDiscovered(new int[0], userRequest);
         }
     }
 
     /**
-     * Method that request a synchronous reload of the media store picture data.
+     * Method that returns synchronously the pictures of an album and its subalbums.
      *
-     * @param album The parent album or null
-     * @return all the images found
+     * @param album The album
+     * @return all the images found, sorted by path
      */
     public List<File> obtain(File album) {
+        return obtain(album, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method that returns synchronously a page of the pictures of an album and its
+     * subalbums. Pictures are looked up in the {@link AlbumIndex}, so the cost depends on
+     * the size of the folder and not on the size of the library.
+     *
+     * @param album The album
+     * @param offset The index of the first picture to return
+     * @param limit The maximum number of pictures to return
+     * @return the images found, sorted by path
+     */
+    public List<File> obtain(File album, int offset, int limit) {
         if (AndroidHelper.hasReadExternalStoragePermissionGranted(mContext)) {
-            ContentResolver cr = mContext.getContentResolver();
             long start = System.currentTimeMillis();
-            // Query external content
-            Cursor c = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    PROJECTION, null, null, null);
-            List<File> images = new ArrayList<>();
-            if (c != null) {
-                try {
-                    while (c.moveToNext()) {
-                        // Only valid files (those i can read)
-                        String p = c.getString(0);
-                        if (p != null) {
-                            File f = new File(p);
-                            if (f.getAbsolutePath().contains(album.getAbsolutePath())) {
-                                images.add(f);
-                            }
-                        }
-                    }
-                } finally {
-                    try {
-                        c.close();
-                    } catch (Exception e) {
-                        // Ignore: handle exception
-                    }
-                }
-                long end = System.currentTimeMillis();
-                if (DEBUG) Log.v(TAG, "Media loaded in " + (end - start) + " milliseconds");
+            int[] ids = mAlbums.getPictures(mContext.getContentResolver(),
+                    album.getAbsolutePath(), offset, limit);
+            List<File> images = new ArrayList<>(ids.length);
+            PathTable paths = PathTable.getInstance();
+            for (int id : ids) {
+                images.add(paths.getFile(id));
             }
-            Collections.sort(images);
+            long end = System.currentTimeMillis();
+            if (DEBUG) Log.v(TAG, "Media loaded in " + (end - start) + " milliseconds");
             return images;
         }
         return null;
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.util.Log;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact table of the picture paths known by the process. Every path is split into its
+ * directory (stored once in a prefix table) and its file name (stored as UTF-8 bytes in a
+ * shared buffer), and is referenced everywhere by an int id. Ids are stable for the life
+ * of the process; pictures are never removed from the table.
+ */
+public class PathTable {
+
+    private static final String TAG = "PathTable";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static PathTable sInstance;
+
+    private final List<String> mDirs;
+    private final Map<String, Integer> mDirIds;
+
+    private byte[] mNames;
+    private int mNamesLength;
+    private int[] mEntryDir;
+    private int[] mEntryName;
+    private int mSize;
+
+    // Open addressing hash of the entries (id + 1, 0 means an empty bucket)
+    private int[] mHash;
+
+    /**
+     * Method that returns the path table of the process
+     *
+     * @return PathTable The path table
+     */
+    public synchronized static PathTable getInstance() {
+        if (sInstance == null) {
+            sInstance = new PathTable();
+        }
+        return sInstance;
+    }
+
+    PathTable() {
+        super();
+        mDirs = new ArrayList<>();
+        mDirIds = new HashMap<>();
+        mNames = new byte[INITIAL_CAPACITY * 16];
+        mEntryDir = new int[INITIAL_CAPACITY];
+        mEntryName = new int[INITIAL_CAPACITY + 1];
+        mHash = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * Method that returns the id of a path, adding it to the table if needed
+     *
+     * @param path The absolute path
+     * @return int The id of the path
+     */
+    public synchronized int intern(String path) {
+        int sep = path.lastIndexOf(File.separatorChar);
+        int dir = sep <= 0 ? -1 : internDir(path.substring(0, sep));
+        byte[] name = path.substring(sep + 1).getBytes(UTF8);
+        int bucket = findBucket(dir, name);
+        if (mHash[bucket] != 0) {
+            return mHash[bucket] - 1;
+        }
+
+        // A new entry
+        ensureCapacity(name.length);
+        int id = mSize;
+        System.arraycopy(name, 0, mNames, mNamesLength, name.length);
+        mEntryDir[id] = dir;
+        mEntryName[id] = mNamesLength;
+        mNamesLength += name.length;
+        mEntryName[id + 1] = mNamesLength;
+        mSize++;
+        mHash[bucket] = id + 1;
+        if (mSize * 2 > mHash.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Method that returns the id of a file, adding it to the table if needed
+     *
+     * @param file The file
+     * @return int The id of the file
+     */
+    public int intern(File file) {
+        return intern(file.getAbsolutePath());
+    }
+
+    /**
+     * Method that returns the id of a path
+     *
+     * @param path The absolute path
+     * @return int The id of the path or -1 if the path isn't in the table
+     */
+    public synchronized int find(String path) {
+        int sep = path.lastIndexOf(File.separatorChar);
+        int dir = -1;
+        if (sep > 0) {
+            Integer dirId = mDirIds.get(path.substring(0, sep));
+            if (dirId == null) {
+                return -1;
+            }
+            dir = dirId;
+        }
+        int bucket = findBucket(dir, path.substring(sep + 1).getBytes(UTF8));
+        return mHash[bucket] - 1;
+    }
+
+    /**
+     * Method that returns the path of an id
+     *
+     * @param id The id
+     * @return String The absolute path
+     */
+    public synchronized String getPath(int id) {
+        int offset = mEntryName[id];
+        String name = new String(mNames, offset, mEntryName[id + 1] - offset, UTF8);
+        int dir = mEntryDir[id];
+        return dir == -1 ? File.separator + name : mDirs.get(dir) + File.separator + name;
+    }
+
+    /**
+     * Method that returns the file of an id
+     *
+     * @param id The id
+     * @return File The file
+     */
+    public File getFile(int id) {
+        return new File(getPath(id));
+    }
+
+    /**
+     * Method that returns the album (the parent directory) of an id
+     *
+     * @param id The id
+     * @return String The absolute path of the album
+     */
+    public synchronized String getAlbum(int id) {
+        int dir = mEntryDir[id];
+        return dir == -1 ? File.separator : mDirs.get(dir);
+    }
+
+    /**
+     * Method that returns the number of paths of the table
+     *
+     * @return int The number of paths
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Method that returns an estimation of the heap used by the table
+     *
+     * @return long The bytes used
+     */
+    public synchronized long getMemoryUsage() {
+        long bytes = mNames.length + (mEntryDir.length + mEntryName.length + mHash.length) * 4L;
+        for (String dir : mDirs) {
+            // Chars, the string and its map entry
+            bytes += dir.length() * 2 + 80;
+        }
+        return bytes;
+    }
+
+    private int internDir(String dir) {
+        Integer id = mDirIds.get(dir);
+        if (id == null) {
+            id = mDirs.size();
+            mDirs.add(dir);
+            mDirIds.put(dir, id);
+        }
+        return id;
+    }
+
+    private int findBucket(int dir, byte[] name) {
+        int mask = mHash.length - 1;
+        int bucket = hash(dir, name, 0, name.length) & mask;
+        while (mHash[bucket] != 0) {
+            int id = mHash[bucket] - 1;
+            if (mEntryDir[id] == dir && equalsName(id, name)) {
+                break;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    private boolean equalsName(int id, byte[] name) {
+        int offset = mEntryName[id];
+        if (mEntryName[id + 1] - offset != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (mNames[offset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int dir, byte[] bytes, int offset, int length) {
+        int h = dir;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the bits, the table is a power of two
+        return h ^ (h >>> 16);
+    }
+
+    private void ensureCapacity(int nameLength) {
+        if (mSize + 1 >= mEntryDir.length) {
+            mEntryDir = Arrays.copyOf(mEntryDir, mEntryDir.length * 2);
+            mEntryName = Arrays.copyOf(mEntryName, mEntryDir.length + 1);
+        }
+        if (mNamesLength + nameLength > mNames.length) {
+            int capacity = Math.max(mNames.length * 2, mNamesLength + nameLength);
+            mNames = Arrays.copyOf(mNames, capacity);
+        }
+    }
+
+    private void rehash() {
+        mHash = new int[mHash.length * 2];
+        int mask = mHash.length - 1;
+        for (int id = 0; id < mSize; id++) {
+            int offset = mEntryName[id];
+            int bucket = hash(mEntryDir[id], mNames, offset, mEntryName[id + 1] - offset) & mask;
+            while (mHash[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            mHash[bucket] = id + 1;
+        }
+    }
+
+    /**
+     * Method that measures the heap used by a number of synthetic paths held as a list of
+     * files (as the discovery did) and in a path table. Only for debugging purpose; it
+     * allocates a lot of memory.
+     *
+     * @param count The number of paths
+     * @return String The summary of the benchmark
+     */
+    public static String benchmark(int count) {
+        final int albums = Math.max(1, count / 200);
+        Runtime rt = Runtime.getRuntime();
+
+        System.gc();
+        long base = rt.totalMemory() - rt.freeMemory();
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            files.add(new File("/storage/emulated/0/DCIM/Album" + (i % albums)
+                    + "/IMG_20160101_" + i + ".jpg"));
+        }
+        System.gc();
+        long filesHeap = rt.totalMemory() - rt.freeMemory() - base;
+        files.clear();
+        files = null;
+
+        System.gc();
+        base = rt.totalMemory() - rt.freeMemory();
+        long start = System.nanoTime();
+        PathTable table = new PathTable();
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = table.intern("/storage/emulated/0/DCIM/Album" + (i % albums)
+                    + "/IMG_20160101_" + i + ".jpg");
+        }
+        long internTime = (System.nanoTime() - start) / 1000000L;
+        System.gc();
+        long tableHeap = rt.totalMemory() - rt.freeMemory() - base;
+
+        String summary = "Path table benchmark (" + count + " paths): files="
+                + (filesHeap / 1024) + " KB, table=" + (tableHeap / 1024) + " KB (estimated "
+                + (table.getMemoryUsage() / 1024) + " KB, " + ids.length + " ids), intern="
+                + internTime + " ms";
+        Log.d(TAG, summary);
+        return summary;
+    }
+}
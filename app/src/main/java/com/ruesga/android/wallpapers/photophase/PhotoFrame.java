@@ -38,7 +38,7 @@ import java.nio.FloatBuffer;
 public class PhotoFrame implements TextureRequestor {
 
     // The default texture coordinates (fit to frame)
-    private static final float[] DEFAULT_TEXTURE_COORDS = {
+    static final float[] DEFAULT_TEXTURE_COORDS = {
                                                             0.0f, 1.0f,
                                                             1.0f, 1.0f,
                                                             0.0f, 0.0f,
@@ -57,6 +57,10 @@ public class PhotoFrame implements TextureRequestor {
     private FloatBuffer mPositionBuffer;
     private FloatBuffer mTextureBuffer;
 
+    // The vertex buffer object with the geometry of the frame (if the frame is part of a world)
+    private final FrameGeometry mGeometry;
+    private final int mGeometrySlot;
+
     private GLESTextureInfo mTextureInfo;
 
     private final GLColor mBackgroundColor;
@@ -76,8 +80,26 @@ public class PhotoFrame implements TextureRequestor {
      */
     public PhotoFrame(Disposition disposition, TextureManager textureManager, float[] frameVertex,
             float[] photoVertex, GLColor color) {
+        this(disposition, textureManager, frameVertex, photoVertex, color, null, -1);
+    }
+
+    /**
+     * Constructor of <code>PhotoFrame</code>.
+     *
+     * @param disposition The associated disposition
+     * @param textureManager The texture manager
+     * @param frameVertex A 4 dimension array with the coordinates per vertex plus padding
+     * @param photoVertex A 4 dimension array with the coordinates per vertex without padding
+     * @param color Background color
+     * @param geometry The geometry of the world where the photo vertex are stored
+     * @param geometrySlot The slot of the frame in the geometry
+     */
+    public PhotoFrame(Disposition disposition, TextureManager textureManager, float[] frameVertex,
+            float[] photoVertex, GLColor color, FrameGeometry geometry, int geometrySlot) {
         super();
         mDisposition = disposition;
+        mGeometry = geometry;
+        mGeometrySlot = geometrySlot;
         mLoaded = false;
         mBackgroundColor = color;
         mTextureManager = textureManager;
@@ -151,8 +173,7 @@ public class PhotoFrame implements TextureRequestor {
                     Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                             + mTextureInfo.handle + "]");
                 }
-                GLES20.glDeleteTextures(1, textures, 0);
-                GLESUtil.glesCheckError("glDeleteTextures");
+                GLESUtil.glesGetState().deleteTextures(1, textures, 0);
             }
             if (mTextureInfo.bitmap != null) {
                 mTextureInfo.bitmap.recycle();
@@ -160,14 +181,16 @@ public class PhotoFrame implements TextureRequestor {
             }
         }
 
-        // Initialize vertex byte buffer for shape coordinates
-        ByteBuffer bb = ByteBuffer.allocateDirect(textureCoords.length * 4); // (# of coordinate values * 4 bytes per float)
-        bb.order(ByteOrder.nativeOrder());
+        // Initialize vertex byte buffer for shape coordinates (only once, the coordinates
+        // don't change between pictures)
         synchronized (mSync) {
-            // Swap buffers
-            mTextureBuffer = bb.asFloatBuffer();
-            mTextureBuffer.put(textureCoords);
-            mTextureBuffer.position(0);
+            if (mTextureBuffer == null) {
+                ByteBuffer bb = ByteBuffer.allocateDirect(textureCoords.length * 4); // (# of coordinate values * 4 bytes per float)
+                bb.order(ByteOrder.nativeOrder());
+                mTextureBuffer = bb.asFloatBuffer();
+                mTextureBuffer.put(textureCoords);
+                mTextureBuffer.position(0);
+            }
         }
         mTextureInfo = ti;
     }
@@ -228,6 +251,79 @@ public class PhotoFrame implements TextureRequestor {
         }
     }
 
+    /**
+     * Method that returns the geometry of the world where the frame is stored
+     *
+     * @return FrameGeometry The geometry or null if the frame is not part of a world
+     */
+    public FrameGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Method that returns the slot of the frame in the geometry of the world
+     *
+     * @return int The slot of the frame
+     */
+    public int getGeometrySlot() {
+        return mGeometrySlot;
+    }
+
+    /**
+     * Method that sets the photo vertex and texture coordinates of the frame as the source of
+     * the attributes of a program. It must be followed by a call to
+     * {@link #unbindGeometry(int, int)}.
+     *
+     * @param positionHandler The position attribute
+     * @param textureCoordHandler The texture coordinates attribute
+     */
+    public void bindGeometry(int positionHandler, int textureCoordHandler) {
+        if (mGeometry != null) {
+            mGeometry.bind(positionHandler, textureCoordHandler);
+            return;
+        }
+
+        // Texture
+        FloatBuffer textureBuffer = getTextureBuffer();
+        textureBuffer.position(0);
+        GLES20.glVertexAttribPointer(textureCoordHandler, 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(textureCoordHandler);
+
+        // Position
+        mPositionBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionHandler, 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
+        GLESUtil.glesCheckError("glVertexAttribPointer");
+        GLESUtil.glesGetState().enableVertexAttribArray(positionHandler);
+    }
+
+    /**
+     * Method that draws the photo vertex of the frame
+     */
+    public void drawGeometry() {
+        if (mGeometry != null) {
+            mGeometry.draw(mGeometrySlot);
+            return;
+        }
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLESUtil.glesCheckError("glDrawArrays");
+    }
+
+    /**
+     * Method that releases the attributes of a program
+     *
+     * @param positionHandler The position attribute
+     * @param textureCoordHandler The texture coordinates attribute
+     */
+    public void unbindGeometry(int positionHandler, int textureCoordHandler) {
+        if (mGeometry != null) {
+            mGeometry.unbind(positionHandler, textureCoordHandler);
+            return;
+        }
+        GLESUtil.glesGetState().disableVertexAttribArray(positionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(textureCoordHandler);
+    }
+
     /**
      * Method that returns the texture handle
      *
@@ -277,8 +373,7 @@ public class PhotoFrame implements TextureRequestor {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                         + mTextureInfo.handle + "]");
             }
-            GLES20.glDeleteTextures(1, textures, 0);
-            GLESUtil.glesCheckError("glDeleteTextures");
+            GLESUtil.glesGetState().deleteTextures(1, textures, 0);
         }
         if (mTextureInfo != null && mTextureInfo.bitmap != null
                 && !mTextureInfo.bitmap.isRecycled()) {
@@ -27,8 +27,10 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.res.Configuration;
 import android.content.res.Resources.NotFoundException;
+import android.database.ContentObserver;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.media.effect.EffectContext;
 import android.net.Uri;
 import android.opengl.GLES20;
@@ -37,7 +39,10 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.util.Log;
 
 import com.ruesga.android.wallpapers.photophase.cast.CastService;
@@ -47,15 +52,17 @@ import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
 import com.ruesga.android.wallpapers.photophase.preferences.TouchAction;
 import com.ruesga.android.wallpapers.photophase.providers.TemporaryContentAccessProvider;
-import com.ruesga.android.wallpapers.photophase.shapes.ColorShape;
 import com.ruesga.android.wallpapers.photophase.shapes.OopsShape;
 import com.ruesga.android.wallpapers.photophase.textures.PhotoPhaseTextureManager;
 import com.ruesga.android.wallpapers.photophase.transitions.Transition;
+import com.ruesga.android.wallpapers.photophase.utils.FrameStats;
+import com.ruesga.android.wallpapers.photophase.utils.GLESState;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLColor;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLESTextureInfo;
 
 import java.io.File;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -71,6 +78,10 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
 
     private static final boolean DEBUG = false;
 
+    // Log the frame times (cpu + gpu, since it waits for the gpu to finish every frame)
+    private static final boolean DEBUG_FRAME_STATS = false;
+    private static final int FRAME_STATS_WINDOW = 120;
+
     private final long mInstance;
     private static long sInstances;
 
@@ -89,21 +100,42 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
     private PendingIntent mRecreateDispositionPendingIntent;
 
     private PhotoPhaseWallpaperWorld mWorld;
-    private ColorShape mOverlay;
+
+    // The settings used while drawing (swapped as a whole when the settings change)
+    private volatile RenderConfig mConfig;
+    private CompositeCache mComposite;
+    private float mCompositeDim;
+    private volatile boolean mCompositeDirty;
+    private List<RectF> mRunningBounds;
     private OopsShape mOopsShape;
 
     private boolean mManualTransition;
     private long mLastRunningTransition;
     private long mLastTransition;
+    private int mTimelineTransitions;
 
     private long mLastTouchTime;
     private static final long TOUCH_BARRIER_TIME = 1000L;
 
+    // The media scanner notifies the changes in bursts. Wait until it settles down
+    private static final long MEDIA_CHANGES_DELAY = 5000L;
+
     private int mWidth = -1;
     private int mHeight = -1;
     private int mStatusBarHeight = 0;
     private int mMeasuredHeight  = -1;
 
+    // The surface is drawn at a fraction of the size of the screen and upscaled by the
+    // compositor. The scale is chosen by the quality governor (or the user)
+    private final QualityGovernor mGovernor;
+
+    // Requests the renders while animating (aligned to vsync and capped to a frame rate)
+    private final FrameClock mFrameClock;
+    private int mRenderScale = 100;
+    private int mScreenWidth = -1;
+    private int mScreenHeight = -1;
+    private volatile float mSurfaceScale = 1f;
+
     private final float[] mMVPMatrix = new float[16];
     private final float[] mProjMatrix = new float[16];
     private final float[] mVMatrix = new float[16];
@@ -111,8 +143,17 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
     private final Object mDrawing = new Object();
     private boolean mRecycle;
 
+    private final FrameStats mFrameStats = new FrameStats(TAG, FRAME_STATS_WINDOW);
+    private int mGlStateFrames;
+
+    // The shadow copy of the GLES state of the context of this renderer
+    private final GLESState mGlState = new GLESState();
+
     private final Object mMediaSync = new Object();
     private PendingIntent mMediaScanIntent;
+    private final ContentObserver mMediaObserver;
+    private boolean mMediaObserverRegistered;
+    private boolean mMediaObserverSuspended;
 
     private ICastService mCastService;
     private boolean mCastConnecting;
@@ -122,6 +163,10 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (action.equals(PreferencesProvider.ACTION_SETTINGS_CHANGED)) {
+                // Take a new snapshot of the settings used while drawing
+                mConfig = RenderConfig.create(mContext);
+                mDispatcher.dispatch(mUpdateQuality);
+
                 // Check what flags are been requested
                 boolean recreateWorld = intent.getBooleanExtra(
                         PreferencesProvider.EXTRA_FLAG_RECREATE_WORLD, false);
@@ -157,6 +202,7 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                 // Media scan interval was changed. Reschedule
                 if (mediaIntervalChanged) {
                     scheduleOrCancelMediaScan();
+                    updateMediaObserver();
                 }
 
                 // Media scan interval was changed. Reschedule
@@ -171,6 +217,9 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
 
                 // Performs a redraw?
                 if (redraw) {
+                    // Colors could be changed, draw the static frames again
+                    mCompositeDirty = true;
+                    updateFrameStatsLabel();
                     forceRedraw();
                 }
 
@@ -183,6 +232,17 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         }
     };
 
+    private final Runnable mMediaChangesReload = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mMediaSync) {
+                if (mTextureManager != null) {
+                    mTextureManager.reloadMedia(false);
+                }
+            }
+        }
+    };
+
     private final Runnable mTransitionThread = new Runnable() {
         @Override
         public void run() {
@@ -192,10 +252,10 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                 public void run() {
                     try {
                         if (!mIsPaused) {
-                            // Select a new transition
-                            mWorld.selectRandomTransition();
-                            mLastRunningTransition = System.currentTimeMillis();
-                            mLastTransition = System.currentTimeMillis();
+                            // Schedule a new timeline of transitions
+                            mTimelineTransitions = mWorld.scheduleRandomTransitions();
+                            mLastRunningTransition = SystemClock.elapsedRealtime();
+                            mLastTransition = SystemClock.elapsedRealtime();
 
                             // Now force continuously render while transition is applied
                             mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -208,6 +268,36 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         }
     };
 
+    private final Runnable mUpdateQuality = new Runnable() {
+        @Override
+        public void run() {
+            // Run in GLES's thread
+            updateQuality();
+        }
+    };
+
+    private final BroadcastReceiver mPowerStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // The power save mode changes don't have the state of the battery
+            final Intent battery = Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())
+                    ? intent
+                    : mContext.registerReceiver(
+                            null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+            updatePowerState(battery);
+        }
+    };
+
+    private final Runnable mPowerStateUpdate = new Runnable() {
+        @Override
+        public void run() {
+            // The thermal status changed, or the power level can be relaxed
+            updatePowerState(null);
+        }
+    };
+    private Object mThermalStatusListener;
+
     private final Runnable mEGLContextWatchDog = new Runnable() {
         @Override
         public void run() {
@@ -257,7 +347,20 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         mIsPaused = true;
         mRecreateWorld = false;
         sInstances++;
+        mConfig = RenderConfig.create(ctx);
+        mFrameClock = new FrameClock(dispatcher);
+        mFrameClock.setFrameRateCap(mConfig.frameRateCap);
+        mDispatcher.setFrameClock(mFrameClock);
+        mGovernor = new QualityGovernor(ctx, mFrameClock);
         mAlarmManager = (AlarmManager)ctx.getSystemService(Context.ALARM_SERVICE);
+        mMediaObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Apply the changes once the media store settles down
+                mHandler.removeCallbacks(mMediaChangesReload);
+                mHandler.postDelayed(mMediaChangesReload, MEDIA_CHANGES_DELAY);
+            }
+        };
     }
 
     /**
@@ -305,6 +408,17 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         filter.addAction(CastService.ACTION_CONNECTIVITY_CHANGED);
         mContext.registerReceiver(mSettingsChangedReceiver, filter);
 
+        // Register a receiver to follow the power of the device (the battery changes are
+        // sticky, so the current state is received at once)
+        IntentFilter powerFilter = new IntentFilter();
+        powerFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
+        if (AndroidHelper.isLollipopOrGreater()) {
+            powerFilter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        }
+        mContext.registerReceiver(mPowerStateReceiver, powerFilter);
+        mThermalStatusListener =
+                QualityGovernor.registerThermalStatusListener(mContext, mPowerStateUpdate);
+
         // Check whether the media scan is active
         int interval = Preferences.Media.getRefreshFrequency(mContext);
         if (interval != Preferences.Media.MEDIA_RELOAD_DISABLED) {
@@ -326,10 +440,16 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
     public void onDestroy() {
         if (DEBUG) Log.d(TAG, "onDestroy [" + mInstance + "]");
         mIsDestroyed = true;
+        mFrameClock.stop();
 
-        // Register a receiver to listen for media reload request
+        // Stop observing the media store
+        updateMediaObserver();
         unbindFromCastService();
         mContext.unregisterReceiver(mSettingsChangedReceiver);
+        mContext.unregisterReceiver(mPowerStateReceiver);
+        QualityGovernor.unregisterThermalStatusListener(mContext, mThermalStatusListener);
+        mThermalStatusListener = null;
+        mHandler.removeCallbacks(mPowerStateUpdate);
         recycle();
         if (mEffectContext != null) {
             mEffectContext.release();
@@ -356,6 +476,8 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         if (DEBUG) Log.d(TAG, "onPause [" + mInstance + "]");
         mIsPaused = true;
         mHandler.removeCallbacks(mTransitionThread);
+        mFrameClock.stop();
+        updateMediaObserver();
         if (mTextureManager != null) {
             mTextureManager.setPause(true);
         }
@@ -370,6 +492,7 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
             mTextureManager.setPause(false);
         }
         mIsPaused = false;
+        updateMediaObserver();
         if (mRecreateWorld) {
             recreateWorld();
         } else {
@@ -382,6 +505,25 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * Method called when the configuration of the device changed
+     *
+     * @param newConfig The new configuration
+     */
+    public void onConfigurationChanged(Configuration newConfig) {
+        final boolean landscape = newConfig.orientation == Configuration.ORIENTATION_LANDSCAPE;
+        mDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                // A scaled surface doesn't follow the rotation of the screen. Draw at the size
+                // of the screen until the new size is known, and scale it again
+                if (mRenderScale != 100 && (mScreenWidth > mScreenHeight) != landscape) {
+                    setRenderScale(100);
+                }
+            }
+        });
+    }
+
     /**
      * Method called when the renderer should process a touch event over the screen
      *
@@ -401,8 +543,10 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                     return;
                 }
 
-                // Retrieve the photo frame for its coordinates
-                final PhotoFrame frame = mWorld.getFrameFromCoordinates(new PointF(x, y));
+                // Retrieve the photo frame for its coordinates (in the scaled surface)
+                final float scale = mSurfaceScale;
+                final PhotoFrame frame =
+                        mWorld.getFrameFromCoordinates(new PointF(x * scale, y * scale));
                 if (frame == null) {
                     Log.w(TAG, "No frame from coordenates");
                     return;
@@ -428,8 +572,9 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                                 // Select a new transition
                                 deselectCurrentTransition();
                                 mWorld.selectTransition(frame);
-                                mLastRunningTransition = System.currentTimeMillis();
+                                mLastRunningTransition = SystemClock.elapsedRealtime();
                                 mManualTransition = true;
+                                mTimelineTransitions = 1;
 
                                 // Now force continuously render while transition is applied
                                 mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -568,6 +713,57 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * Method that updates the state of the power of the device in the governor, and
+     * schedules the next update if the power level is waiting to be relaxed
+     *
+     * @param battery The last state of the battery, or null to keep the known one
+     */
+    private void updatePowerState(final Intent battery) {
+        // Run in GLES's thread
+        mDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (mGovernor.updatePowerState(mContext, battery)) {
+                    updateQuality();
+                }
+
+                mHandler.removeCallbacks(mPowerStateUpdate);
+                long relaxTime = mGovernor.getPowerRelaxTime();
+                if (relaxTime > 0 && !mIsDestroyed) {
+                    mHandler.postDelayed(mPowerStateUpdate,
+                            Math.max(0, relaxTime - SystemClock.elapsedRealtime()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Method that registers the media observer while the wallpaper is visible, and
+     * unregisters it otherwise
+     */
+    private void updateMediaObserver() {
+        boolean observe = !mIsPaused && !mIsDestroyed && Preferences.Media.isLiveUpdates(mContext);
+        if (observe && !mMediaObserverRegistered) {
+            mContext.getContentResolver().registerContentObserver(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mMediaObserver);
+            mMediaObserverRegistered = true;
+
+            // Changes while the wallpaper was hidden weren't observed. Check them in the
+            // background: the discovery only fetches the rows beyond the media index watermark
+            // (and reports nothing if the media store didn't change meanwhile)
+            if (mMediaObserverSuspended) {
+                mMediaObserver.onChange(false);
+            }
+            mMediaObserverSuspended = false;
+        } else if (!observe && mMediaObserverRegistered) {
+            mContext.getContentResolver().unregisterContentObserver(mMediaObserver);
+            mHandler.removeCallbacks(mMediaChangesReload);
+            mMediaObserverRegistered = false;
+            mMediaObserverSuspended = true;
+        }
+    }
+
     /**
      * Method that schedules a new media scan
      *
@@ -692,11 +888,10 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
             mRecycle = true;
             if (mWorld != null) mWorld.recycle();
             if (mTextureManager != null) mTextureManager.recycle();
-            if (mOverlay != null) mOverlay.recycle();
             if (mOopsShape != null) mOopsShape.recycle();
+            recycleComposite();
             mWorld = null;
             mTextureManager = null;
-            mOverlay = null;
             mOopsShape = null;
         }
     }
@@ -713,20 +908,20 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         mMeasuredHeight = -1;
         mStatusBarHeight = 0;
 
-        mLastTransition = System.currentTimeMillis();
-
-        // We have a 2d (fake) scenario, disable all unnecessary tests. Deep are
-        // necessary for some 3d effects
-        GLES20.glDisable(GL10.GL_DITHER);
-        GLESUtil.glesCheckError("glDisable");
-        GLES20.glDisable(GL10.GL_CULL_FACE);
-        GLESUtil.glesCheckError("glDisable");
-        GLES20.glEnable(GL10.GL_DEPTH_TEST);
-        GLESUtil.glesCheckError("glEnable");
-        GLES20.glDepthMask(false);
-        GLESUtil.glesCheckError("glDepthMask");
-        GLES20.glDepthFunc(GLES20.GL_LEQUAL);
-        GLESUtil.glesCheckError("glDepthFunc");
+        mLastTransition = SystemClock.elapsedRealtime();
+
+        // A new context, so nothing is known about its state
+        mGlState.invalidate();
+        GLESUtil.glesSetState(mGlState);
+
+        // We have a 2d (fake) scenario drawn in painter's order, disable all unnecessary
+        // tests (the surface hasn't a depth buffer)
+        GLESUtil.glesGetState().disable(GL10.GL_DITHER);
+        GLESUtil.glesGetState().disable(GL10.GL_CULL_FACE);
+        GLESUtil.glesGetState().disable(GL10.GL_DEPTH_TEST);
+
+        // The composite belongs to the previous context
+        recycleComposite();
 
         // Create an effect context
         if (mEffectContext != null) {
@@ -775,7 +970,16 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         // Save the width and height to avoid recreate the world
         mWidth = width;
         mHeight = height;
-        mStatusBarHeight = AndroidHelper.calculateStatusBarHeight(mContext);
+
+        // The surface has the size of the screen while it isn't scaled
+        if (mRenderScale == 100) {
+            mScreenWidth = width;
+            mScreenHeight = height;
+            mGovernor.setScreenSize(width, height);
+        }
+        mSurfaceScale = width / (float) mScreenWidth;
+        mStatusBarHeight = Math.round(
+                AndroidHelper.calculateStatusBarHeight(mContext) * mSurfaceScale);
         mMeasuredHeight = mHeight + mStatusBarHeight;
 
         // Calculate a better fixed size for the pictures
@@ -792,22 +996,16 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
         }
         mWorld = new PhotoPhaseWallpaperWorld(mContext, mTextureManager);
 
-        // Create the overlay shape
-        final float[] vertex = {
-                                -1.0f, -1.0f,
-                                 1.0f, -1.0f,
-                                -1.0f,  1.0f,
-                                 1.0f,  1.0f
-                               };
-        mOverlay = new ColorShape(mContext, vertex, Colors.getInstance(mContext).getOverlay());
+        // The composite of the static frames has the size of the surface
+        recycleComposite();
 
         // Create the Oops shape
         mOopsShape = new OopsShape(mContext);
 
         // Set the viewport and the fustrum
-        GLES20.glViewport(0, AndroidHelper.isKitKatOrGreater() ? 0 : -mStatusBarHeight, mWidth,
+        GLESUtil.glesGetState().viewport(0,
+                AndroidHelper.isKitKatOrGreater() ? 0 : -mStatusBarHeight, mWidth,
                 AndroidHelper.isKitKatOrGreater() ? mHeight + mStatusBarHeight : mHeight);
-        GLESUtil.glesCheckError("glViewport");
         Matrix.frustumM(mProjMatrix, 0, 1.0f, -1.0f, -1.0f, 1.0f, 1.0f, 2.0f);
 
         // Recreate the wallpaper world
@@ -819,8 +1017,12 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
 
         // Force an immediate redraw of the screen (draw thread could be in dirty mode only)
         deselectCurrentTransition();
+        updateFrameStatsLabel();
         mRecycle = false;
         mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+
+        // Scale the surface if the screen is too big (or the device needs to save power)
+        updateQuality();
     }
 
     /**
@@ -842,8 +1044,17 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
             mHandler.removeCallbacks(mEGLContextWatchDog);
         }
 
+        if (DEBUG_FRAME_STATS) {
+            mFrameStats.begin();
+        }
+
+        // The whole frame is drawn with the same snapshot of the settings, and at the time
+        // of the vsync it was requested for
+        final RenderConfig config = mConfig;
+        final long frameTime = mFrameClock.getFrameTime();
+
         // Set the projection, view and model
-        GLES20.glViewport(0, -mStatusBarHeight, mWidth, mHeight);
+        GLESUtil.glesGetState().viewport(0, -mStatusBarHeight, mWidth, mHeight);
         Matrix.setLookAtM(mVMatrix, 0, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
         Matrix.multiplyMM(mMVPMatrix, 0, mProjMatrix, 0, mVMatrix, 0);
 
@@ -854,26 +1065,39 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                 mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 
             } else {
-                // Draw the background
-                drawBackground();
-
                 if (!mIsPaused && mWorld != null) {
-                    // Now draw the world (all the photo frames with effects)
-                    mWorld.draw(mMVPMatrix);
+                    // Start the due transitions of the timeline (the timeout counts from
+                    // the last one), and now draw the world (all the photo frames with
+                    // effects)
+                    if (mWorld.updateTimeline(frameTime)) {
+                        mLastRunningTransition = SystemClock.elapsedRealtime();
+                    }
+                    drawWorld(config, frameTime);
+                    if (mWorld.hasRunningTransition()) {
+                        mGovernor.onTransitionFrame(frameTime);
+                    }
 
                     // Check if we have some pending transition or transition has
                     // exceed its timeout
                     synchronized (mDrawing) {
-                        final int interval = Preferences.General.Transitions.getTransitionInterval(mContext);
+                        final int interval = mGovernor.getTransitionInterval(config);
                         if (mManualTransition || interval > 0) {
                             if (!mWorld.hasRunningTransition() || isTransitionTimeoutFired()) {
                                 mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
                                 mManualTransition = false;
 
+                                // The frame times of the transition could change the scale
+                                if (mGovernor.onTransitionEnd()) {
+                                    updateRenderScale();
+                                }
+
                                 // Now start a delayed thread to generate the next effect
+                                // (a timeline changed several frames at once, so the next
+                                // one waits for all of them to keep the rate of changes)
                                 deselectCurrentTransition();
-                                long diff = System.currentTimeMillis() - mLastTransition;
-                                long delay = Math.max(200, interval - diff);
+                                long diff = SystemClock.elapsedRealtime() - mLastTransition;
+                                long timeline = (long) interval * Math.max(1, mTimelineTransitions);
+                                long delay = Math.max(200, timeline - diff);
                                 mHandler.postDelayed(mTransitionThread, delay);
                             }
                         } else {
@@ -886,47 +1110,189 @@ public class PhotoPhaseRenderer implements GLSurfaceView.Renderer {
                 } else {
                     if (mWorld != null) {
                         // Just draw the world before notify GLView to goto sleep
-                        mWorld.draw(mMVPMatrix);
+                        drawWorld(config, frameTime);
+                    } else {
+                        drawBackground(config);
+                        mRunningBounds = null;
                     }
                     mDispatcher.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
                 }
+            }
+        }
+
+        // Check the errors of the whole frame at once (if that's the policy of the build)
+        GLESUtil.glesCheckFrameErrors("onDrawFrame");
 
-                // Draw the overlay
-                drawOverlay();
+        if (DEBUG_FRAME_STATS) {
+            GLES20.glFinish();
+            mFrameStats.end();
+            if (++mGlStateFrames == FRAME_STATS_WINDOW) {
+                mGlState.dumpStats(TAG);
+                mGlStateFrames = 0;
             }
         }
     }
 
+    /**
+     * Method that labels the frame stats with the settings that affects to the frame time
+     */
+    private void updateFrameStatsLabel() {
+        if (DEBUG_FRAME_STATS) {
+            // The GLES error checks policy is part of the label, to measure its cost
+            mFrameStats.setLabel((mConfig.mipmaps ? "mipmaps" : "nearest")
+                    + ", scale=" + mRenderScale + "%"
+                    + ", fps-cap=" + mGovernor.getFrameRateCap(mConfig)
+                    + ", power=" + mGovernor.getPowerLevel()
+                    + ", gl-checks=" + GLESUtil.GL_ERROR_CHECK
+                    + (GLESUtil.DEBUG_GL_TRACE ? ", gl-trace" : ""));
+        }
+    }
+
+    /**
+     * Method that applies the quality chosen by the governor (for the settings and the power
+     * of the device) to the frame clock, the textures and the surface
+     */
+    private void updateQuality() {
+        mFrameClock.setFrameRateCap(mGovernor.getFrameRateCap(mConfig));
+        if (mTextureManager != null) {
+            mTextureManager.setTextureScale(mGovernor.getTextureScale());
+            mTextureManager.setEffectsAllowed(mGovernor.areEffectsAllowed());
+        }
+        updateRenderScale();
+        updateFrameStatsLabel();
+    }
+
+    /**
+     * Method that scales the surface to the render scale of the settings or the governor
+     */
+    private void updateRenderScale() {
+        if (mScreenWidth > 0) {
+            setRenderScale(mGovernor.getRenderScale(mConfig));
+        }
+    }
+
+    /**
+     * Method that scales the surface. The world is recreated once the surface changes
+     *
+     * @param scale The render scale in percent
+     */
+    private void setRenderScale(int scale) {
+        if (scale == mRenderScale) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "Render scale: " + mRenderScale + "% -> " + scale + "%");
+        mRenderScale = scale;
+        final int width = scale == 100 ? 0 : Math.round(mScreenWidth * scale / 100f);
+        final int height = scale == 100 ? 0 : Math.round(mScreenHeight * scale / 100f);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.setSurfaceSize(width, height);
+            }
+        });
+    }
+
     /**
      * Check whether the transition has exceed the timeout
      *
      * @return boolean if the transition has exceed the timeout
      */
     private boolean isTransitionTimeoutFired() {
-        long now = System.currentTimeMillis();
+        long now = SystemClock.elapsedRealtime();
         long diff = now - mLastRunningTransition;
         return mLastRunningTransition != 0 && diff > Transition.MAX_TRANSTION_TIME;
     }
 
     /**
-     * Method that draws the background of the wallpaper
+     * Method that draws the world. The frames that are not being transitioned are drawn
+     * from the composite, which is only redrawn when they change; the frames being
+     * transitioned are drawn every frame.
+     *
+     * @param config The settings of the frame
+     * @param frameTime The time of the frame (in nanoseconds of {@link System#nanoTime()})
      */
-    private void drawBackground() {
-        GLColor bg = Colors.getInstance(mContext).getBackground();
-        GLES20.glClearColor(bg.r, bg.g, bg.b, bg.a);
-        GLESUtil.glesCheckError("glClearColor");
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        GLESUtil.glesCheckError("glClear");
+    private void drawWorld(RenderConfig config, long frameTime) {
+        // The frames are dimmed by their programs
+        mWorld.setDim(config.wallpaperDim);
+        mWorld.setFrameTime(frameTime);
+        mWorld.setTransitionDurationScale(mGovernor.getTransitionDurationScale());
+        mWorld.setLightTransitionsOnly(mGovernor.isLightTransitionsOnly());
+
+        if (mComposite == null) {
+            mComposite = new CompositeCache(mContext, mWidth, mHeight);
+        }
+        if (!mComposite.isAvailable()) {
+            drawBackground(config);
+            mWorld.draw(mMVPMatrix);
+            mRunningBounds = null;
+            return;
+        }
+
+        // Redraw the composite if the static frames or the dim changed
+        float dim = config.wallpaperDim;
+        boolean staticChanges = mWorld.hasStaticChanges();
+        if (staticChanges || mCompositeDirty || !mComposite.isValid() || dim != mCompositeDim) {
+            mCompositeDirty = false;
+            mCompositeDim = dim;
+            mComposite.begin();
+            drawBackground(config);
+            mWorld.drawStatic(mMVPMatrix);
+            mComposite.end();
+            GLESUtil.glesGetState().viewport(0, -mStatusBarHeight, mWidth, mHeight);
+        }
+        mComposite.draw(mMVPMatrix);
+
+        // Clean the area of the frames being transitioned (the composite has the background
+        // there), and draw them
+        mRunningBounds = mWorld.getRunningBounds();
+        if (!mRunningBounds.isEmpty()) {
+            GLESUtil.glesGetState().enable(GLES20.GL_SCISSOR_TEST);
+            for (RectF bounds : mRunningBounds) {
+                scissor(bounds);
+                drawBackground(config);
+            }
+            GLESUtil.glesGetState().disable(GLES20.GL_SCISSOR_TEST);
+            mWorld.drawRunning(mMVPMatrix);
+        }
+    }
+
+    /**
+     * Method that restricts the drawing to the area of a frame
+     *
+     * @param bounds The bounds of the frame in GLES coordinates
+     */
+    private void scissor(RectF bounds) {
+        int left = (int) Math.floor((bounds.left + 1) / 2 * mWidth);
+        int right = (int) Math.ceil((bounds.right + 1) / 2 * mWidth);
+        int bottom = (int) Math.floor((bounds.bottom + 1) / 2 * mHeight);
+        int top = (int) Math.ceil((bounds.top + 1) / 2 * mHeight);
+        GLES20.glScissor(left, bottom - mStatusBarHeight, right - left, top - bottom);
+        GLESUtil.glesCheckError("glScissor");
     }
 
     /**
-     * Method that draws the overlay of the wallpaper
+     * Method that destroys the composite of the static frames
      */
-    private void drawOverlay() {
-        if (mOverlay != null) {
-            mOverlay.setAlpha(Preferences.General.getWallpaperDim(mContext) / 100.0f);
-            mOverlay.draw(mMVPMatrix);
+    private void recycleComposite() {
+        if (mComposite != null) {
+            mComposite.recycle();
+            mComposite = null;
         }
+        mRunningBounds = null;
+    }
+
+    /**
+     * Method that draws the background of the wallpaper (dimmed like the photo frames)
+     *
+     * @param config The settings of the frame
+     */
+    private void drawBackground(RenderConfig config) {
+        GLColor bg = config.background;
+        float brightness = 1.0f - config.wallpaperDim;
+        GLES20.glClearColor(bg.r * brightness, bg.g * brightness, bg.b * brightness, bg.a);
+        GLESUtil.glesCheckError("glClearColor");
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLESUtil.glesCheckError("glClear");
     }
 
     /**
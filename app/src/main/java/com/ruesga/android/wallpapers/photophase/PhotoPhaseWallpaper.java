@@ -21,6 +21,7 @@ import android.app.ActivityManager.RunningTaskInfo;
 import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.opengl.GLSurfaceView;
@@ -85,6 +86,17 @@ public class PhotoPhaseWallpaper
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        for (Renderer renderer : mRenderers) {
+            ((PhotoPhaseRenderer) renderer).onConfigurationChanged(newConfig);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
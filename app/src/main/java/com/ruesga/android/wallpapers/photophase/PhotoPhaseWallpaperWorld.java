@@ -30,9 +30,11 @@ import com.ruesga.android.wallpapers.photophase.transitions.Transition;
 import com.ruesga.android.wallpapers.photophase.transitions.Transitions;
 import com.ruesga.android.wallpapers.photophase.transitions.Transitions.TRANSITIONS;
 import com.ruesga.android.wallpapers.photophase.utils.DispositionUtil;
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
 import com.ruesga.android.wallpapers.photophase.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -47,22 +49,49 @@ public class PhotoPhaseWallpaperWorld {
     // The frame padding
     private static final int PHOTO_FRAME_PADDING = 2;
 
+    // The budget of a timeline of transitions: the transitions and the area of the screen
+    // they cover (the fill rate of a transition of a frame as big as the screen)
+    private static final int TIMELINE_MAX_TRANSITIONS = 3;
+    private static final float TIMELINE_AREA_BUDGET = 1.0f;
+
+    // The time between the starts of the transitions of a timeline, and the time a
+    // transition waits for its picture to be ready after its start (in milliseconds)
+    private static final long TIMELINE_STAGGER = 350L;
+    private static final long TIMELINE_MAX_WAIT = 1000L;
+
     private final Context mContext;
     private final PhotoPhaseTextureManager mTextureManager;
 
     private List<PhotoFrame> mPhotoFrames;
+    private FrameGeometry mGeometry;
+    private FrameAtlas mAtlas;
+    private final IntArray mAtlasSlots = new IntArray();
     private List<Transition> mTransitions;
     private final List<Transition> mUnusedTransitions;
 
     private List<Integer> mTransitionsQueue;
     private List<Integer> mUsedTransitionsQueue;
-    private int mCurrent;
+    private boolean[] mSelected;
+    private final IntArray mTimeline = new IntArray();
+    private final List<Transition> mTimelineTransitions = new ArrayList<>();
+    private int mTimelineNext;
+    private long mTimelineStart;
+    private float mDim;
+    private long mFrameTime;
+    private float mTransitionDurationScale = 1.0f;
+    private boolean mLightTransitionsOnly;
 
     private int mWidth;
     private int mHeight;
 
     private boolean mRecycled;
 
+    // The frames drawn in the composite of the static frames
+    private Object[] mStaticState;
+    private Object[] mStaticStateScratch;
+    private final List<RectF> mRunningBounds = new ArrayList<>();
+    private final List<RectF> mRunningBoundsPool = new ArrayList<>();
+
     private final String[] mPortraitDispositions;
     private final String[] mLandscapeDispositions;
 
@@ -77,7 +106,6 @@ public class PhotoPhaseWallpaperWorld {
         super();
         mContext = ctx;
         mTextureManager = textureManager;
-        mCurrent = -1;
         mUnusedTransitions = new ArrayList<>();
         mRecycled = false;
 
@@ -128,23 +156,96 @@ public class PhotoPhaseWallpaperWorld {
     }
 
     /**
-     * Method that selects a transition and assign it to a random photo frame.
+     * Method that schedules a timeline of transitions for random photo frames. The
+     * transitions of the timeline run at the same time, but they start one after another
+     * (as {@link #updateTimeline(long)} is called), and all of them together stay under the
+     * budget of the gpu, so big dispositions change several frames with a single stretch
+     * of continuous rendering.
+     *
+     * @return int The number of transitions of the timeline
      */
-    public void selectRandomTransition() {
+    public int scheduleRandomTransitions() {
+        discardTimeline();
+        mTimelineStart = 0;
+
         // Ensure queue
         ensureTransitionsQueue();
-        if (mTransitionsQueue.isEmpty()) {
-            return;
+
+        // Get random frames to apply the transitions to, while they fit in the budget
+        float area = 0;
+        while (mTimeline.size() < TIMELINE_MAX_TRANSITIONS && !mTransitionsQueue.isEmpty()) {
+            int item = Utils.getNextRandom(0, mTransitionsQueue.size() - 1);
+            int pos = mTransitionsQueue.get(item);
+            float frameArea = getFrameArea(mPhotoFrames.get(pos));
+            if (mTimeline.size() > 0 && area + frameArea > TIMELINE_AREA_BUDGET) {
+                break;
+            }
+            mTransitionsQueue.remove(item);
+            mUsedTransitionsQueue.add(pos);
+            mTimeline.add(pos);
+            area += frameArea;
         }
 
-        // Get a random frame to apply the transition to
-        int item = Utils.getNextRandom(0, mTransitionsQueue.size() - 1);
-        int pos = mTransitionsQueue.remove(item);
-        mUsedTransitionsQueue.add(pos);
-        PhotoFrame frame = mPhotoFrames.get(pos);
+        // Select the transitions now, so the draw loop only has to start them (and their
+        // pictures are requested in advance)
+        int count = mTimeline.size();
+        for (int i = 0; i < count; i++) {
+            int pos = mTimeline.get(i);
+            mTimelineTransitions.add(createTransition(mPhotoFrames.get(pos)));
+        }
+        if (DEBUG) Log.d(TAG, "Timeline of " + mTimeline.size() + " transitions ("
+                + Math.round(area * 100) + "% of the screen)");
+        return mTimeline.size();
+    }
 
-        // Select the transition
-        selectTransition(frame, pos);
+    /**
+     * Method that updates the timeline of transitions for the frame to draw: it ends the
+     * transitions that finished and starts the ones that are due. A transition is due once
+     * its stagger passed and its picture is loaded (or it waited too long). The transitions
+     * were already selected by {@link #scheduleRandomTransitions()}, so this doesn't read
+     * the preferences or allocate new frames.
+     *
+     * @param frameTime The time (in nanoseconds of {@link System#nanoTime()})
+     * @return boolean If a transition was started
+     */
+    public boolean updateTimeline(long frameTime) {
+        if (mTransitions == null) {
+            return false;
+        }
+
+        // End the finished transitions (the next draw shows their final frames as static)
+        int count = mTransitions.size();
+        for (int i = 0; i < count; i++) {
+            if (mSelected[i] && !mTransitions.get(i).isRunning()) {
+                deselectTransition(i);
+            }
+        }
+
+        // Start the next transition of the timeline
+        if (mTimelineNext >= mTimeline.size()) {
+            return false;
+        }
+        if (mTimelineStart == 0) {
+            mTimelineStart = frameTime;
+        }
+        Transition transition = mTimelineTransitions.get(mTimelineNext);
+        long due = mTimelineStart + (mTimelineNext * TIMELINE_STAGGER * 1000000L);
+        if (frameTime < due || (frameTime < due + TIMELINE_MAX_WAIT * 1000000L
+                && mTimelineNext > 0 && !isLoaded(transition))) {
+            return false;
+        }
+        int pos = mTimeline.get(mTimelineNext);
+        mTimelineTransitions.set(mTimelineNext, null);
+        if (!mSelected[pos] && transition.getTarget() == mPhotoFrames.get(pos)) {
+            startTransition(transition, pos);
+        } else {
+            // The frame changed since the transition was selected
+            releaseTransition(transition);
+        }
+        // The stagger of the next transition counts from this one
+        mTimelineStart = frameTime - (mTimelineNext * TIMELINE_STAGGER * 1000000L);
+        mTimelineNext++;
+        return true;
     }
 
     /**
@@ -165,22 +266,26 @@ public class PhotoPhaseWallpaperWorld {
         mUsedTransitionsQueue.add(pos);
 
         // Select the transition
-        selectTransition(frame, pos);
+        startTransition(createTransition(frame), pos);
     }
 
     /**
-     * Method that selects a transition and assign it to a photo frame.
+     * Method that selects a transition for a photo frame. The transition doesn't run until
+     * it's started.
      *
      * @param frame The frame to select
-     * @param pos The position
+     * @return Transition The selected transition
      */
-    private void selectTransition(PhotoFrame frame, int pos) {
+    private Transition createTransition(PhotoFrame frame) {
         // Create or use a transition
         Transition transition = null;
         boolean isSelectable = false;
         while (transition == null || !isSelectable) {
             boolean isRandom = Preferences.General.Transitions.getSelectedTransitions(mContext).isEmpty();
             TRANSITIONS type = Transitions.getNextTypeOfTransition(mContext);
+            if (mLightTransitionsOnly && !Transitions.isLightTransition(type)) {
+                type = TRANSITIONS.FADE;
+            }
             transition = getOrCreateTransition(type);
             isSelectable = transition.isSelectable(frame);
             if (!isSelectable) {
@@ -193,39 +298,117 @@ public class PhotoPhaseWallpaperWorld {
                 }
             }
         }
-        mTransitions.set(pos, transition);
         transition.select(frame);
-        mCurrent = pos;
+        return transition;
+    }
+
+    /**
+     * Method that starts a selected transition in its photo frame.
+     *
+     * @param transition The selected transition
+     * @param pos The position
+     */
+    private void startTransition(Transition transition, int pos) {
+        mTransitions.set(pos, transition);
+        transition.setDurationScale(mTransitionDurationScale);
+        mSelected[pos] = true;
     }
 
     /**
-     * Method that deselect the current transition.
+     * Method that returns if the picture of a selected transition is loaded
+     *
+     * @param transition The selected transition
+     * @return boolean If the picture of the transition is loaded
+     */
+    private static boolean isLoaded(Transition transition) {
+        PhotoFrame target = transition.getTransitionTarget();
+        return target == null || target.isLoaded();
+    }
+
+    /**
+     * Method that releases a selected transition that won't be started, and the frame it
+     * requested a picture for
+     *
+     * @param transition The selected transition
+     */
+    private void releaseTransition(Transition transition) {
+        PhotoFrame target = transition.getTransitionTarget();
+        if (target != null) {
+            mTextureManager.cancelRequest(target);
+            target.recycle();
+        }
+        mUnusedTransitions.add(transition);
+    }
+
+    /**
+     * Method that discards the transitions of the timeline that weren't started
+     */
+    private void discardTimeline() {
+        int count = mTimelineTransitions.size();
+        for (int i = mTimelineNext; i < count; i++) {
+            Transition transition = mTimelineTransitions.get(i);
+            if (transition != null) {
+                releaseTransition(transition);
+            }
+        }
+        mTimelineTransitions.clear();
+        mTimeline.clear();
+        mTimelineNext = 0;
+    }
+
+    /**
+     * Method that deselect the current transitions and discards the rest of the timeline.
      *
      * @param matrix The model-view-projection matrix
      */
     public void deselectTransition(float[] matrix) {
-        if (mCurrent != -1 && mCurrent < mTransitions.size()) {
-            // Retrieve the finally target
-            Transition currentTransition = mTransitions.get(mCurrent);
-            PhotoFrame currentTarget = currentTransition.getTarget();
-            PhotoFrame finalTarget = currentTransition.getTransitionTarget();
-            mUnusedTransitions.add(currentTransition);
-
-            if (finalTarget != null) {
-                Transition transition = getOrCreateTransition(TRANSITIONS.NO_TRANSITION);
-                mTransitions.set(mCurrent, transition);
-
-                currentTarget.recycle();
-                mPhotoFrames.set(mCurrent, finalTarget);
-                transition.select(finalTarget);
-
-                // Draw the transition once
-                transition.apply(matrix);
+        discardTimeline();
+        if (mTransitions == null) {
+            return;
+        }
+        int count = mTransitions.size();
+        for (int i = 0; i < count; i++) {
+            if (mSelected[i]) {
+                Transition transition = deselectTransition(i);
+                if (transition != null) {
+                    // Draw the transition once
+                    transition.setDim(mDim);
+                    transition.setFrameTime(mFrameTime);
+                    transition.apply(matrix);
+                }
             }
-            mCurrent = -1;
         }
     }
 
+    /**
+     * Method that deselect the transition of a photo frame, which is replaced by its final
+     * target.
+     *
+     * @param pos The position
+     * @return Transition The transition that draws the final target, or null if there
+     * isn't a final target
+     */
+    private Transition deselectTransition(int pos) {
+        mSelected[pos] = false;
+
+        // Retrieve the finally target
+        Transition currentTransition = mTransitions.get(pos);
+        PhotoFrame currentTarget = currentTransition.getTarget();
+        PhotoFrame finalTarget = currentTransition.getTransitionTarget();
+        if (finalTarget == null) {
+            return null;
+        }
+        mUnusedTransitions.add(currentTransition);
+
+        Transition transition = getOrCreateTransition(TRANSITIONS.NO_TRANSITION);
+        mTransitions.set(pos, transition);
+
+        currentTarget.recycle();
+        mPhotoFrames.set(pos, finalTarget);
+        transition.select(finalTarget);
+        return transition;
+    }
+
     /**
      * Method that removes all internal references.
      */
@@ -239,7 +422,7 @@ public class PhotoPhaseWallpaperWorld {
                 mTransitions.remove(i);
             }
         }
-        mCurrent = -1;
+        discardTimeline();
         if (mUnusedTransitions != null) {
             int cc = mUnusedTransitions.size() - 1;
             for (int i = cc; i >= 0; i--) {
@@ -254,17 +437,31 @@ public class PhotoPhaseWallpaperWorld {
         if (mUsedTransitionsQueue != null) {
             mUsedTransitionsQueue.clear();
         }
+        if (mGeometry != null) {
+            mGeometry.recycle();
+            mGeometry = null;
+        }
+        if (mAtlas != null) {
+            mAtlas.recycle();
+            mAtlas = null;
+        }
         mRecycled = true;
     }
 
     /**
-     * Method that returns if there are any transition running in the world.
+     * Method that returns if there are any transition running in the world (or waiting to
+     * start in the timeline).
      *
      * @return boolean If there are any transition running in the world
      */
     public boolean hasRunningTransition() {
+        if (mTimelineNext < mTimeline.size()) {
+            return true;
+        }
         if (mTransitions != null) {
-            for (Transition transition : mTransitions) {
+            int count = mTransitions.size();
+            for (int i = 0; i < count; i++) {
+                Transition transition = mTransitions.get(i);
                 if (transition.isRunning()) {
                     return true;
                 }
@@ -310,20 +507,51 @@ public class PhotoPhaseWallpaperWorld {
         mTransitions = new ArrayList<>(dispositions.size());
         mTransitionsQueue = new ArrayList<>(dispositions.size());
         mUsedTransitionsQueue = new ArrayList<>(dispositions.size());
-        int i = 0;
         int count = dispositions.size();
+        mSelected = new boolean[count];
+        discardTimeline();
+        List<float[]> frameVertices = new ArrayList<>(count);
+        List<float[]> photoVertices = new ArrayList<>(count);
+        for (Disposition disposition : dispositions) {
+            float[] vertices = getVerticesFromDisposition(disposition, cellw, cellh);
+            frameVertices.add(vertices);
+            photoVertices.add(getFramePadding(vertices,
+                    portrait ? w : h, portrait ? h : w, count > 1));
+        }
+
+        // Upload the geometry of all the frames once (the frames don't move until the world
+        // is recreated)
+        if (mGeometry != null) {
+            mGeometry.recycle();
+        }
+        mGeometry = new FrameGeometry(photoVertices, PhotoFrame.DEFAULT_TEXTURE_COORDS);
+
+        // Dense dispositions draw their small static frames from an atlas in one draw call
+        if (mAtlas != null) {
+            mAtlas.recycle();
+            mAtlas = null;
+        }
+        if (count >= FrameAtlas.MIN_FRAMES) {
+            FrameAtlas atlas = new FrameAtlas(mContext, photoVertices, w, h);
+            if (atlas.isAvailable()) {
+                mAtlas = atlas;
+            } else {
+                atlas.recycle();
+            }
+        }
+
+        int i = 0;
         for (Disposition disposition : dispositions) {
             // Create the photo frame
-            float[] frameVertices = getVerticesFromDisposition(disposition, cellw, cellh);
-            float[] photoVertices = getFramePadding(frameVertices,
-                    portrait ? w : h, portrait ? h : w, count > 1);
             PhotoFrame frame =
                     new PhotoFrame(
                             disposition,
                             mTextureManager,
-                            frameVertices,
-                            photoVertices,
-                            Colors.getInstance(mContext).getBackground());
+                            frameVertices.get(i),
+                            photoVertices.get(i),
+                            Colors.getInstance(mContext).getBackground(),
+                            mGeometry,
+                            i);
             mPhotoFrames.add(frame);
 
             // Assign a null transition to the photo frame
@@ -360,38 +588,192 @@ public class PhotoPhaseWallpaperWorld {
         return null;
     }
 
+    /**
+     * Method that sets the dim of the wallpaper, which is applied to the photo frames
+     * when they are drawn
+     *
+     * @param dim The dim (0 to 1)
+     */
+    public void setDim(float dim) {
+        mDim = dim;
+    }
+
+    /**
+     * Method that sets the time of the frame to draw, which gives the progress of the
+     * transitions
+     *
+     * @param frameTime The time (in nanoseconds of {@link System#nanoTime()})
+     */
+    public void setFrameTime(long frameTime) {
+        mFrameTime = frameTime;
+    }
+
+    /**
+     * Method that sets the scale of the time of the transitions selected from now on
+     *
+     * @param scale The scale of the time (less than 1 to shorten them)
+     */
+    public void setTransitionDurationScale(float scale) {
+        mTransitionDurationScale = scale;
+    }
+
+    /**
+     * Method that sets if only the transitions that are light to draw are selected from now
+     * on (the rest are replaced by a fade)
+     *
+     * @param lightOnly If only light transitions are selected
+     */
+    public void setLightTransitionsOnly(boolean lightOnly) {
+        mLightTransitionsOnly = lightOnly;
+    }
+
     /**
      * Method that draws all the photo frames.
      *
      * @param matrix The model-view-projection matrix
      */
     public void draw(float[] matrix) {
-        // Apply every transition
+        // First draw the non-running transitions; then the active ones
+        drawStatic(matrix);
+        drawRunning(matrix);
+    }
+
+    /**
+     * Method that draws the photo frames that are not being transitioned.
+     *
+     * @param matrix The model-view-projection matrix
+     */
+    public void drawStatic(float[] matrix) {
         if (mTransitions != null) {
-            // First draw the non-running transitions; then the active ones
-            for (Transition transition : mTransitions) {
+            mAtlasSlots.clear();
+            int frames = 0;
+            int count = mTransitions.size();
+            for (int i = 0; i < count; i++) {
+                Transition transition = mTransitions.get(i);
                 // Don't draw frames with no background flagged
                 if (!transition.getTarget().getDisposition().hasFlag(Disposition.BACKGROUND_FLAG)) {
                     continue;
                 }
 
                 if (!transition.isRunning()) {
+                    // Idle small frames are batched in the atlas; the rest are drawn by
+                    // their transition
+                    PhotoFrame target = transition.getTarget();
+                    int slot = target.getGeometrySlot();
+                    if (mAtlas != null && transition.getType() == TRANSITIONS.NO_TRANSITION
+                            && slot != -1 && mAtlas.contains(slot)
+                            && mAtlas.update(slot, target)) {
+                        mAtlasSlots.add(slot);
+                        continue;
+                    }
+                    transition.setDim(mDim);
+                    transition.setFrameTime(mFrameTime);
                     transition.apply(matrix);
+                    frames++;
                 }
             }
-            for (Transition transition : mTransitions) {
+            int drawCalls = frames;
+            if (mAtlasSlots.size() > 0) {
+                mAtlas.draw(mAtlasSlots, matrix, mDim);
+                drawCalls++;
+            }
+            if (DEBUG) Log.d(TAG, "Static frames: " + (frames + mAtlasSlots.size())
+                    + "; draw calls: " + drawCalls);
+        }
+    }
+
+    /**
+     * Method that draws the photo frames that are being transitioned.
+     *
+     * @param matrix The model-view-projection matrix
+     */
+    public void drawRunning(float[] matrix) {
+        if (mTransitions != null) {
+            int count = mTransitions.size();
+            for (int i = 0; i < count; i++) {
+                Transition transition = mTransitions.get(i);
                 // Don't draw frames with no background flagged
                 if (!transition.getTarget().getDisposition().hasFlag(Disposition.BACKGROUND_FLAG)) {
                     continue;
                 }
 
                 if (transition.isRunning()) {
+                    transition.setDim(mDim);
+                    transition.setFrameTime(mFrameTime);
                     transition.apply(matrix);
                 }
             }
         }
     }
 
+    /**
+     * Method that returns the bounds of the photo frames that are being transitioned. The
+     * list and its bounds are reused by the next call (nothing is allocated per frame).
+     *
+     * @return List<RectF> The bounds in GLES coordinates
+     */
+    public List<RectF> getRunningBounds() {
+        mRunningBounds.clear();
+        if (mTransitions != null) {
+            int count = mTransitions.size();
+            for (int i = 0; i < count; i++) {
+                Transition transition = mTransitions.get(i);
+                if (transition.getTarget().getDisposition().hasFlag(Disposition.BACKGROUND_FLAG)
+                        && transition.isRunning()) {
+                    int n = mRunningBounds.size();
+                    if (n == mRunningBoundsPool.size()) {
+                        mRunningBoundsPool.add(new RectF());
+                    }
+                    RectF rect = mRunningBoundsPool.get(n);
+                    float[] vertex = transition.getTarget().getFrameVertex();
+                    rect.set(vertex[0], vertex[7], vertex[6], vertex[1]);
+                    mRunningBounds.add(rect);
+                }
+            }
+        }
+        return mRunningBounds;
+    }
+
+    /**
+     * Method that returns if the photo frames that are not being transitioned changed since
+     * the last call (a frame was swapped, started or ended a transition, or got a new picture).
+     *
+     * @return boolean If the static photo frames changed
+     */
+    public boolean hasStaticChanges() {
+        int count = mTransitions != null ? mTransitions.size() : 0;
+        Object[] state = mStaticStateScratch;
+        if (state == null || state.length != count * 3) {
+            state = new Object[count * 3];
+        }
+        for (int i = 0; i < count; i++) {
+            Transition transition = mTransitions.get(i);
+            PhotoFrame target = transition.getTarget();
+            boolean isStatic = !transition.isRunning() && target != null;
+            state[i * 3] = isStatic ? transition : null;
+            state[i * 3 + 1] = isStatic ? target : null;
+            state[i * 3 + 2] = isStatic ? target.getTextureInfo() : null;
+        }
+        if (mStaticState != null && Arrays.equals(state, mStaticState)) {
+            mStaticStateScratch = state;
+            return false;
+        }
+        mStaticStateScratch = mStaticState;
+        mStaticState = state;
+        return true;
+    }
+
+    /**
+     * Method that returns the fraction of the screen covered by a photo frame
+     *
+     * @param frame The photo frame
+     * @return float The fraction of the screen (0 to 1)
+     */
+    private static float getFrameArea(PhotoFrame frame) {
+        // The screen is 2x2 in GLES coordinates
+        return Math.abs(frame.getFrameWidth() * frame.getFrameHeight()) / 4.0f;
+    }
+
     /**
      * Method that returns a coordinates per vertex array from a disposition
      *
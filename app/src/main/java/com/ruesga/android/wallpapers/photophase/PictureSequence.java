@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import com.ruesga.android.wallpapers.photophase.textures.ShuffleBag;
+
+import java.util.Arrays;
+
+/**
+ * The position of the pictures in the sequence of the slideshow, which is the order of a
+ * whole discovery: the media store pictures by id, followed by the pictures of the other
+ * sources. The positions are recorded by the discoveries, so the pictures found by an
+ * incremental discovery are inserted in the sequence where a whole discovery would put them.
+ */
+public class PictureSequence implements ShuffleBag.Sequence {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The pictures without a known position go to the end of the sequence
+    private static final long UNKNOWN = Long.MAX_VALUE;
+
+    // The pictures of the other sources follow the media store ids
+    private static final long SOURCES_BASE = 1L << 48;
+
+    private static PictureSequence sInstance;
+
+    private long[] mKeys;
+
+    /**
+     * Method that returns the picture sequence of the process
+     *
+     * @return PictureSequence The picture sequence
+     */
+    public synchronized static PictureSequence getInstance() {
+        if (sInstance == null) {
+            sInstance = new PictureSequence();
+        }
+        return sInstance;
+    }
+
+    private PictureSequence() {
+        super();
+        mKeys = new long[INITIAL_CAPACITY];
+        Arrays.fill(mKeys, UNKNOWN);
+    }
+
+    /**
+     * Method that records the position of a media store picture
+     *
+     * @param picture The {@link PathTable} id of the picture
+     * @param id The media store id of the picture
+     */
+    public synchronized void putMediaStoreId(int picture, long id) {
+        put(picture, id);
+    }
+
+    /**
+     * Method that records the position of a picture of other source
+     *
+     * @param picture The {@link PathTable} id of the picture
+     * @param source The index of the source in the enumeration of the sources
+     */
+    public synchronized void putSourcePicture(int picture, int source) {
+        put(picture, SOURCES_BASE + ((long) source << 32) + picture);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getKey(int picture) {
+        return picture < mKeys.length ? mKeys[picture] : UNKNOWN;
+    }
+
+    private void put(int picture, long key) {
+        if (picture >= mKeys.length) {
+            int oldCapacity = mKeys.length;
+            mKeys = Arrays.copyOf(mKeys, Math.max(picture + 1, oldCapacity * 2));
+            Arrays.fill(mKeys, oldCapacity, mKeys.length, UNKNOWN);
+        }
+        mKeys[picture] = key;
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.WindowManager;
+
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A governor that chooses the quality the wallpaper is drawn with. The render scale starts
+ * from the number of pixels of the screen and follows the frame times of the transitions:
+ * it's lowered when the transitions can't keep up with the display and raised again when
+ * they are smooth. Every change recreates the surface, so it needs several transitions in
+ * a row to change, and it never goes back to a scale that was too slow.
+ * <p/>
+ * The governor also follows the power of the device (the power save mode, the battery and
+ * the thermal status, or the temperature of the battery before Android Q) and chooses a
+ * power level that shortens and simplifies the transitions, spaces them, and lowers the
+ * frame rate, the render scale and the size of the textures. A level is entered at once
+ * but left only after its conditions are clearly gone for a while. It isn't thread safe;
+ * it's used from the GLThread.
+ */
+public class QualityGovernor {
+
+    private static final String TAG = "QualityGovernor";
+
+    // Log the frames of every transition and their smoothness
+    private static final boolean DEBUG_TRANSITION_STATS = false;
+
+    /**
+     * The render scales (in percent) the governor chooses between, from the best quality
+     */
+    public static final int[] RENDER_SCALES = {100, 75, 50};
+
+    // The pixels a gpu is expected to fill at full frame rate (a 1080p screen plus a margin)
+    private static final int PIXEL_BUDGET = 2500000;
+
+    // A transition is slow if its average frame time exceeds the target frame time (the
+    // refresh period of the display or the frame rate cap) by this factor, and smooth if it
+    // doesn't exceed this other one. A frame is janky if it exceeds the slow factor
+    private static final float SLOW_FRAME_FACTOR = 1.5f;
+    private static final float SMOOTH_FRAME_FACTOR = 1.15f;
+
+    // The consecutive slow (or smooth) transitions needed to lower (or raise) the scale
+    private static final int SLOW_TRANSITIONS = 2;
+    private static final int SMOOTH_TRANSITIONS = 8;
+
+    // Transitions with less frames don't tell anything about the frame times
+    private static final int MIN_TRANSITION_FRAMES = 10;
+
+    /**
+     * The power levels: normal, saving (power save mode, low battery or a warm device) and
+     * critical (very low battery or a hot device)
+     */
+    public static final int POWER_NORMAL = 0;
+    public static final int POWER_SAVING = 1;
+    public static final int POWER_CRITICAL = 2;
+    private static final String[] POWER_LEVEL_NAMES = {"normal", "saving", "critical"};
+
+    // What every power level allows: the maximum render scale and frame rate (0 for no
+    // limit), the factor of the interval between transitions, the scale of the time of the
+    // transitions and of the textures
+    private static final int[] POWER_RENDER_SCALES = {100, 75, 50};
+    private static final int[] POWER_FRAME_RATE_CAPS = {0, 30, 24};
+    private static final int[] POWER_INTERVAL_FACTORS = {1, 2, 3};
+    private static final float[] POWER_DURATION_SCALES = {1.0f, 0.75f, 0.5f};
+    private static final float[] POWER_TEXTURE_SCALES = {1.0f, 1.0f, 0.75f};
+
+    // The battery levels (in percent, while not charging) that enter a power level, and the
+    // ones above which it's left
+    private static final int BATTERY_SAVING_ENTER = 20;
+    private static final int BATTERY_SAVING_LEAVE = 25;
+    private static final int BATTERY_CRITICAL_ENTER = 10;
+    private static final int BATTERY_CRITICAL_LEAVE = 15;
+
+    // The thermal statuses (of PowerManager) that enter a power level, and the ones below
+    // which it's left: moderate and light for saving, severe and moderate for critical
+    private static final int THERMAL_SAVING_ENTER = 2;
+    private static final int THERMAL_SAVING_LEAVE = 1;
+    private static final int THERMAL_CRITICAL_ENTER = 3;
+    private static final int THERMAL_CRITICAL_LEAVE = 2;
+
+    // The temperatures of the battery (in tenths of degree) that enter and leave a power
+    // level, used instead of the thermal status before Android Q
+    private static final int TEMPERATURE_SAVING_ENTER = 410;
+    private static final int TEMPERATURE_SAVING_LEAVE = 380;
+    private static final int TEMPERATURE_CRITICAL_ENTER = 450;
+    private static final int TEMPERATURE_CRITICAL_LEAVE = 420;
+
+    // The time a power level is kept at least before relaxing it (in milliseconds)
+    private static final long POWER_RELAX_DELAY = 60000L;
+
+    // The api level of Android Q, which has the thermal status
+    private static final int ANDROID_Q = 29;
+
+    private final long mRefreshPeriod;
+    private final FrameClock mFrameClock;
+
+    private int mLevel;
+    private int mCeiling;
+    private int mPixels;
+
+    private long mLastFrame;
+    private long mFramesTime;
+    private long mMaxFrameTime;
+    private int mFrames;
+    private int mJankyFrames;
+    private int mSlowTransitions;
+    private int mSmoothTransitions;
+
+    private int mPowerLevel;
+    private long mPowerLevelTime;
+    private long mPowerRelaxTime;
+    private boolean mPowerSaveMode;
+    private int mBatteryLevel = -1;
+    private boolean mCharging;
+    private int mTemperature = -1;
+    private int mThermalStatus = -1;
+    private Method mThermalStatusMethod;
+    private boolean mThermalStatusResolved;
+
+    /**
+     * Constructor of <code>QualityGovernor</code>
+     *
+     * @param ctx The current context
+     * @param clock The clock of the frames
+     */
+    public QualityGovernor(Context ctx, FrameClock clock) {
+        super();
+        mFrameClock = clock;
+        WindowManager wm = (WindowManager) ctx.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        mRefreshPeriod = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60f));
+    }
+
+    /**
+     * Method that sets the size of the screen, which gives the initial render scale
+     *
+     * @param width The width of the screen in pixels
+     * @param height The height of the screen in pixels
+     */
+    public void setScreenSize(int width, int height) {
+        int pixels = width * height;
+        if (pixels == mPixels) {
+            return;
+        }
+        mPixels = pixels;
+
+        // The best scale whose pixels fit in the budget (the pixels decrease with the
+        // square of the scale)
+        int level = 0;
+        while (level < RENDER_SCALES.length - 1
+                && pixels * square(RENDER_SCALES[level] / 100f) > PIXEL_BUDGET) {
+            level++;
+        }
+        mLevel = Math.max(level, mCeiling);
+        mSlowTransitions = 0;
+        mSmoothTransitions = 0;
+        Log.i(TAG, "Screen of " + width + "x" + height + ": render scale "
+                + RENDER_SCALES[mLevel] + "%");
+    }
+
+    /**
+     * Method that returns the render scale to draw with
+     *
+     * @param config The settings of the wallpaper
+     * @return int The render scale in percent
+     */
+    public int getRenderScale(RenderConfig config) {
+        int scale = config.renderScale != Preferences.General.RENDER_SCALE_AUTO
+                ? config.renderScale : RENDER_SCALES[mLevel];
+        return Math.min(scale, POWER_RENDER_SCALES[mPowerLevel]);
+    }
+
+    /**
+     * Method that returns the maximum frame rate of the animations
+     *
+     * @param config The settings of the wallpaper
+     * @return int The maximum frames per second (0 for the rate of the display)
+     */
+    public int getFrameRateCap(RenderConfig config) {
+        int cap = POWER_FRAME_RATE_CAPS[mPowerLevel];
+        if (cap == 0) {
+            return config.frameRateCap;
+        }
+        return config.frameRateCap == 0 ? cap : Math.min(config.frameRateCap, cap);
+    }
+
+    /**
+     * Method that returns the interval between transitions
+     *
+     * @param config The settings of the wallpaper
+     * @return int The interval in milliseconds (0 for no transitions)
+     */
+    public int getTransitionInterval(RenderConfig config) {
+        return config.transitionInterval * POWER_INTERVAL_FACTORS[mPowerLevel];
+    }
+
+    /**
+     * Method that returns the scale of the time of the transitions
+     *
+     * @return float The scale of the time
+     */
+    public float getTransitionDurationScale() {
+        return POWER_DURATION_SCALES[mPowerLevel];
+    }
+
+    /**
+     * Method that returns if only the transitions that are light to draw are allowed
+     *
+     * @return boolean If only light transitions are allowed
+     */
+    public boolean isLightTransitionsOnly() {
+        return mPowerLevel >= POWER_SAVING;
+    }
+
+    /**
+     * Method that returns if the effects of the pictures are allowed
+     *
+     * @return boolean If the effects are allowed
+     */
+    public boolean areEffectsAllowed() {
+        return mPowerLevel < POWER_CRITICAL;
+    }
+
+    /**
+     * Method that returns the scale of the textures
+     *
+     * @return float The scale of the textures (0 to 1)
+     */
+    public float getTextureScale() {
+        return POWER_TEXTURE_SCALES[mPowerLevel];
+    }
+
+    /**
+     * Method that returns the power level
+     *
+     * @return int The power level
+     */
+    public int getPowerLevel() {
+        return mPowerLevel;
+    }
+
+    /**
+     * Method that updates the state of the power of the device, and chooses the power level
+     *
+     * @param ctx The current context
+     * @param battery The last state of the battery (an {@link Intent#ACTION_BATTERY_CHANGED}),
+     * or null if it isn't known
+     * @return boolean If the power level changed
+     */
+    public boolean updatePowerState(Context ctx, Intent battery) {
+        PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+        mPowerSaveMode = AndroidHelper.isLollipopOrGreater() && isPowerSaveMode(pm);
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            mBatteryLevel = level >= 0 && scale > 0 ? (level * 100) / scale : -1;
+            mCharging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            mTemperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1);
+        }
+        mThermalStatus = getThermalStatus(pm);
+
+        // Restrict at once, but relax (one level at a time) only after a while
+        int target = getTargetPowerLevel();
+        long now = SystemClock.elapsedRealtime();
+        mPowerRelaxTime = 0;
+        if (target == mPowerLevel) {
+            return false;
+        }
+        if (target < mPowerLevel && now - mPowerLevelTime < POWER_RELAX_DELAY) {
+            mPowerRelaxTime = mPowerLevelTime + POWER_RELAX_DELAY;
+            return false;
+        }
+        int level = target > mPowerLevel ? target : mPowerLevel - 1;
+        Log.i(TAG, "Power level " + POWER_LEVEL_NAMES[mPowerLevel] + " -> "
+                + POWER_LEVEL_NAMES[level] + " (power save mode " + mPowerSaveMode
+                + ", battery " + mBatteryLevel + "%" + (mCharging ? " charging" : "")
+                + ", thermal status " + mThermalStatus
+                + ", temperature " + (mTemperature / 10f) + "C)");
+        mPowerLevel = level;
+        mPowerLevelTime = now;
+        if (target < level) {
+            mPowerRelaxTime = now + POWER_RELAX_DELAY;
+        }
+        return true;
+    }
+
+    /**
+     * Method that returns when the power state must be updated again to relax the power
+     * level. The conditions of the level could be gone without any other change of the
+     * state of the power, so nothing else would update it.
+     *
+     * @return long The time (in milliseconds of {@link SystemClock#elapsedRealtime()}), or
+     * 0 if the power level isn't waiting to be relaxed
+     */
+    public long getPowerRelaxTime() {
+        return mPowerRelaxTime;
+    }
+
+    /**
+     * Method that registers a listener of the changes of the thermal status of the device
+     * (Android Q or greater). The listener is called in the main thread.
+     *
+     * @param ctx The current context
+     * @param listener The listener to call when the thermal status changes
+     * @return Object The registration, to unregister it, or null if the thermal status
+     * isn't available
+     */
+    public static Object registerThermalStatusListener(Context ctx, final Runnable listener) {
+        if (Build.VERSION.SDK_INT < ANDROID_Q) {
+            return null;
+        }
+
+        // PowerManager.OnThermalStatusChangedListener is newer than the sdk the app is built
+        // with, so implement it with a proxy
+        try {
+            Class<?> type = Class.forName(
+                    "android.os.PowerManager$OnThermalStatusChangedListener");
+            Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "onThermalStatusChanged":
+                                    listener.run();
+                                    return null;
+                                case "equals":
+                                    return proxy == args[0];
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                case "toString":
+                                    return "ThermalStatusListener";
+                                default:
+                                    return null;
+                            }
+                        }
+                    });
+            PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+            PowerManager.class.getMethod("addThermalStatusListener", type).invoke(pm, proxy);
+            return proxy;
+        } catch (Exception ex) {
+            Log.w(TAG, "Can't listen to the thermal status", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Method that unregisters a listener of the changes of the thermal status
+     *
+     * @param ctx The current context
+     * @param registration The registration returned by
+     * {@link #registerThermalStatusListener(Context, Runnable)}
+     */
+    public static void unregisterThermalStatusListener(Context ctx, Object registration) {
+        if (registration == null) {
+            return;
+        }
+        try {
+            Class<?> type = registration.getClass().getInterfaces()[0];
+            PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+            PowerManager.class.getMethod("removeThermalStatusListener", type)
+                    .invoke(pm, registration);
+        } catch (Exception ex) {
+            Log.w(TAG, "Can't stop listening to the thermal status", ex);
+        }
+    }
+
+    private int getTargetPowerLevel() {
+        // The thresholds to leave the current level are less strict than the ones to enter it
+        boolean critical = mPowerLevel >= POWER_CRITICAL;
+        boolean saving = mPowerLevel >= POWER_SAVING;
+        int level = mPowerSaveMode ? POWER_SAVING : POWER_NORMAL;
+        if (!mCharging && mBatteryLevel >= 0) {
+            level = Math.max(level, toPowerLevel(-mBatteryLevel,
+                    -(saving ? BATTERY_SAVING_LEAVE : BATTERY_SAVING_ENTER),
+                    -(critical ? BATTERY_CRITICAL_LEAVE : BATTERY_CRITICAL_ENTER)));
+        }
+        if (mThermalStatus >= 0) {
+            level = Math.max(level, toPowerLevel(mThermalStatus,
+                    saving ? THERMAL_SAVING_LEAVE : THERMAL_SAVING_ENTER,
+                    critical ? THERMAL_CRITICAL_LEAVE : THERMAL_CRITICAL_ENTER));
+        } else if (mTemperature > 0) {
+            level = Math.max(level, toPowerLevel(mTemperature,
+                    saving ? TEMPERATURE_SAVING_LEAVE : TEMPERATURE_SAVING_ENTER,
+                    critical ? TEMPERATURE_CRITICAL_LEAVE : TEMPERATURE_CRITICAL_ENTER));
+        }
+        return level;
+    }
+
+    private static int toPowerLevel(int value, int saving, int critical) {
+        if (value >= critical) {
+            return POWER_CRITICAL;
+        }
+        return value >= saving ? POWER_SAVING : POWER_NORMAL;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean isPowerSaveMode(PowerManager pm) {
+        return pm.isPowerSaveMode();
+    }
+
+    private int getThermalStatus(PowerManager pm) {
+        // PowerManager.getCurrentThermalStatus() is newer than the sdk the app is built with
+        if (!mThermalStatusResolved) {
+            mThermalStatusResolved = true;
+            if (Build.VERSION.SDK_INT >= ANDROID_Q) {
+                try {
+                    mThermalStatusMethod = PowerManager.class.getMethod("getCurrentThermalStatus");
+                } catch (NoSuchMethodException ex) {
+                    Log.w(TAG, "The thermal status isn't available", ex);
+                }
+            }
+        }
+        if (mThermalStatusMethod != null) {
+            try {
+                return (Integer) mThermalStatusMethod.invoke(pm);
+            } catch (Exception ex) {
+                Log.w(TAG, "Cannot read the thermal status", ex);
+                mThermalStatusMethod = null;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method that records a frame drawn while a transition is running
+     *
+     * @param now The time of the frame (in nanoseconds of {@link System#nanoTime()})
+     */
+    public void onTransitionFrame(long now) {
+        if (mLastFrame != 0) {
+            long frameTime = now - mLastFrame;
+            mFramesTime += frameTime;
+            mMaxFrameTime = Math.max(mMaxFrameTime, frameTime);
+            if (frameTime > getTargetFrameTime() * SLOW_FRAME_FACTOR) {
+                mJankyFrames++;
+            }
+            mFrames++;
+        }
+        mLastFrame = now;
+    }
+
+    /**
+     * Method that evaluates the frame times of a transition once it ended
+     *
+     * @return boolean If the render scale changed
+     */
+    public boolean onTransitionEnd() {
+        long frames = mFrames;
+        long framesTime = mFramesTime;
+        long maxFrameTime = mMaxFrameTime;
+        int jankyFrames = mJankyFrames;
+        mLastFrame = 0;
+        mFramesTime = 0;
+        mMaxFrameTime = 0;
+        mFrames = 0;
+        mJankyFrames = 0;
+        if (frames < MIN_TRANSITION_FRAMES) {
+            return false;
+        }
+
+        long average = framesTime / frames;
+        long target = getTargetFrameTime();
+        if (DEBUG_TRANSITION_STATS) {
+            Log.d(TAG, "Transition of " + (frames + 1) + " frames in " + (framesTime / 1000000)
+                    + "ms: " + (average / 1000) + "us per frame (target " + (target / 1000)
+                    + "us), max " + (maxFrameTime / 1000) + "us, " + jankyFrames + " janky");
+        }
+        if (average > target * SLOW_FRAME_FACTOR) {
+            mSmoothTransitions = 0;
+            if (++mSlowTransitions >= SLOW_TRANSITIONS && mLevel < RENDER_SCALES.length - 1) {
+                // Never go back to this scale
+                mLevel++;
+                mCeiling = mLevel;
+                mSlowTransitions = 0;
+                Log.i(TAG, "Transitions are slow (" + (average / 1000) + "us per frame): "
+                        + "render scale lowered to " + RENDER_SCALES[mLevel] + "%");
+                return true;
+            }
+        } else if (average <= target * SMOOTH_FRAME_FACTOR) {
+            mSlowTransitions = 0;
+            if (++mSmoothTransitions >= SMOOTH_TRANSITIONS && mLevel > mCeiling) {
+                mLevel--;
+                mSmoothTransitions = 0;
+                Log.i(TAG, "Transitions are smooth (" + (average / 1000) + "us per frame): "
+                        + "render scale raised to " + RENDER_SCALES[mLevel] + "%");
+                return true;
+            }
+        } else {
+            mSlowTransitions = 0;
+            mSmoothTransitions = 0;
+        }
+        return false;
+    }
+
+    private long getTargetFrameTime() {
+        return Math.max(mRefreshPeriod, mFrameClock.getFrameInterval());
+    }
+
+    private static float square(float v) {
+        return v * v;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.Context;
+
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLColor;
+
+/**
+ * An immutable snapshot of the settings used by the renderer while drawing. It's built once
+ * every time the settings change (outside the GLThread), so drawing a frame doesn't read the
+ * preferences nor the resources.
+ */
+public final class RenderConfig {
+
+    /**
+     * The interval between transitions in milliseconds (0 for no transitions)
+     */
+    public final int transitionInterval;
+    /**
+     * The dim of the wallpaper (0 to 1)
+     */
+    public final float wallpaperDim;
+    /**
+     * The background color of the wallpaper
+     */
+    public final GLColor background;
+    /**
+     * If the pictures have mipmaps
+     */
+    public final boolean mipmaps;
+    /**
+     * The render scale in percent ({@link Preferences.General#RENDER_SCALE_AUTO} to let
+     * the quality governor choose it)
+     */
+    public final int renderScale;
+    /**
+     * The maximum frame rate of the animations (0 for the rate of the display)
+     */
+    public final int frameRateCap;
+
+    RenderConfig(int transitionInterval, float wallpaperDim, GLColor background,
+            boolean mipmaps, int renderScale, int frameRateCap) {
+        super();
+        this.transitionInterval = transitionInterval;
+        this.wallpaperDim = wallpaperDim;
+        this.background = background;
+        this.mipmaps = mipmaps;
+        this.renderScale = renderScale;
+        this.frameRateCap = frameRateCap;
+    }
+
+    /**
+     * Method that reads a snapshot of the current settings
+     *
+     * @param ctx The current context
+     * @return RenderConfig The snapshot of the settings
+     */
+    public static RenderConfig create(Context ctx) {
+        return new RenderConfig(
+                Preferences.General.Transitions.getTransitionInterval(ctx),
+                Preferences.General.getWallpaperDim(ctx) / 100.0f,
+                new GLColor(Colors.getInstance(ctx).getBackground()),
+                Preferences.General.isMipmaps(ctx),
+                Preferences.General.getRenderScale(ctx),
+                Preferences.General.getFrameRateCap(ctx));
+    }
+}
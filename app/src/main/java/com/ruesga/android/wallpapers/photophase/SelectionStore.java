@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent store of the albums and pictures selected by the user (and of the albums
+ * seen by the last media discovery). The store is mirrored in memory, so membership checks
+ * are O(1). Only the changed paths are written, batched in a single transaction in
+ * background, and listeners are notified of the changes.
+ */
+public class SelectionStore {
+
+    private static final String TAG = "SelectionStore";
+
+    private static final boolean DEBUG = false;
+
+    private static final String DATABASE_NAME = "selection.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_SELECTION = "selection";
+    private static final String COLUMN_KIND = "kind";
+    private static final String COLUMN_PATH = "path";
+
+    private static final int KIND_SELECTED_MEDIA = 0;
+    private static final int KIND_DISCOVERED_ALBUMS = 1;
+
+    // The legacy preferences where the sets were stored
+    private static final String PREF_SELECTED_MEDIA = "media_selected_media";
+    private static final String PREF_DISCOVERED_ALBUMS = "media_last_discovered_albums";
+
+    /**
+     * An interface that is called when the selection changed
+     */
+    public interface OnSelectionChangedListener {
+        /**
+         * Called (in the main thread) when the selected albums and pictures changed
+         *
+         * @param added The paths selected
+         * @param removed The paths deselected
+         */
+        void onSelectionChanged(Set<String> added, Set<String> removed);
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        private final Context mContext;
+
+        public DatabaseHelper(Context ctx) {
+            super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
+            mContext = ctx;
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_SELECTION + " ("
+                    + COLUMN_KIND + " INTEGER NOT NULL, "
+                    + COLUMN_PATH + " TEXT NOT NULL, "
+                    + "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_PATH + "))");
+
+            // Import the sets stored in the preferences
+            SharedPreferences preferences = mContext.getSharedPreferences(
+                    PreferencesProvider.PREFERENCES_FILE, Context.MODE_PRIVATE);
+            importSet(db, KIND_SELECTED_MEDIA,
+                    preferences.getStringSet(PREF_SELECTED_MEDIA, null));
+            importSet(db, KIND_DISCOVERED_ALBUMS,
+                    preferences.getStringSet(PREF_DISCOVERED_ALBUMS, null));
+            preferences.edit()
+                    .remove(PREF_SELECTED_MEDIA)
+                    .remove(PREF_DISCOVERED_ALBUMS)
+                    .apply();
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Nothing to upgrade yet
+        }
+
+        private static void importSet(SQLiteDatabase db, int kind, Set<String> paths) {
+            if (paths == null) {
+                return;
+            }
+            for (String path : paths) {
+                ContentValues values = new ContentValues(2);
+                values.put(COLUMN_KIND, kind);
+                values.put(COLUMN_PATH, path);
+                db.insert(TABLE_SELECTION, null, values);
+            }
+        }
+    }
+
+    private static SelectionStore sInstance;
+
+    private final DatabaseHelper mHelper;
+    private final Handler mWriter;
+    private final Handler mMainHandler;
+
+    private final Set<String> mSelectedMedia;
+    private final Set<String> mDiscoveredAlbums;
+
+    // Pending writes by kind (path -> true if it must be stored, false if removed)
+    private final List<Map<String, Boolean>> mPending;
+    private boolean mFlushScheduled;
+
+    private final List<OnSelectionChangedListener> mListeners;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Method that returns the selection store
+     *
+     * @param ctx The current context
+     * @return SelectionStore The selection store
+     */
+    public synchronized static SelectionStore getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new SelectionStore(ctx.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SelectionStore(Context ctx) {
+        super();
+        mHelper = new DatabaseHelper(ctx);
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mWriter = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mSelectedMedia = new HashSet<>();
+        mDiscoveredAlbums = new HashSet<>();
+        mPending = new ArrayList<>(2);
+        mPending.add(new HashMap<String, Boolean>());
+        mPending.add(new HashMap<String, Boolean>());
+        mListeners = new ArrayList<>();
+        load();
+    }
+
+    /**
+     * Method that returns the albums and pictures to be displayed
+     *
+     * @return Set<String> A copy of the albums and pictures to be displayed
+     */
+    public synchronized Set<String> getSelectedMedia() {
+        return new HashSet<>(mSelectedMedia);
+    }
+
+    /**
+     * Method that returns if an album or a picture is selected
+     *
+     * @param path The path of the album or picture
+     * @return boolean If the album or picture is selected
+     */
+    public synchronized boolean isSelected(String path) {
+        return mSelectedMedia.contains(path);
+    }
+
+    /**
+     * Method that sets the albums and pictures to be displayed. Only the differences with
+     * the current selection are written.
+     *
+     * @param selection The new albums and pictures to be displayed
+     */
+    public void setSelectedMedia(Set<String> selection) {
+        final Set<String> added = new HashSet<>();
+        final Set<String> removed = new HashSet<>();
+        synchronized (this) {
+            diff(KIND_SELECTED_MEDIA, mSelectedMedia, selection, added, removed);
+        }
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifySelectionChanged(added, removed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Method that returns the albums seen by the last media discovery
+     *
+     * @return Set<String> A copy of the albums seen by the last media discovery
+     */
+    public synchronized Set<String> getDiscoveredAlbums() {
+        return new HashSet<>(mDiscoveredAlbums);
+    }
+
+    /**
+     * Method that sets the albums seen by the last media discovery
+     *
+     * @param albums The albums seen by the last media discovery
+     */
+    public synchronized void setDiscoveredAlbums(Set<String> albums) {
+        diff(KIND_DISCOVERED_ALBUMS, mDiscoveredAlbums, albums,
+                new HashSet<String>(), new HashSet<String>());
+    }
+
+    /**
+     * Method that registers a listener of the selection changes
+     *
+     * @param listener The listener
+     */
+    public synchronized void addOnSelectionChangedListener(
+            OnSelectionChangedListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * Method that unregisters a listener of the selection changes
+     *
+     * @param listener The listener
+     */
+    public synchronized void removeOnSelectionChangedListener(
+            OnSelectionChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifySelectionChanged(Set<String> added, Set<String> removed) {
+        List<OnSelectionChangedListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(mListeners);
+        }
+        for (OnSelectionChangedListener listener : listeners) {
+            listener.onSelectionChanged(added, removed);
+        }
+    }
+
+    private void diff(int kind, Set<String> current, Set<String> target,
+            Set<String> added, Set<String> removed) {
+        for (String path : target) {
+            if (!current.contains(path)) {
+                added.add(path);
+            }
+        }
+        for (String path : current) {
+            if (!target.contains(path)) {
+                removed.add(path);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        current.addAll(added);
+        current.removeAll(removed);
+        Map<String, Boolean> pending = mPending.get(kind);
+        for (String path : added) {
+            pending.put(path, Boolean.TRUE);
+        }
+        for (String path : removed) {
+            pending.put(path, Boolean.FALSE);
+        }
+
+        // Changes made until the writer runs are written in the same transaction
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mWriter.post(mFlush);
+        }
+    }
+
+    private void load() {
+        try {
+            SQLiteDatabase db = mHelper.getReadableDatabase();
+            Cursor c = db.query(TABLE_SELECTION, new String[]{COLUMN_KIND, COLUMN_PATH},
+                    null, null, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    if (c.getInt(0) == KIND_SELECTED_MEDIA) {
+                        mSelectedMedia.add(c.getString(1));
+                    } else {
+                        mDiscoveredAlbums.add(c.getString(1));
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't load the selection", ex);
+        }
+    }
+
+    private void flush() {
+        List<Map<String, Boolean>> pending = new ArrayList<>(mPending.size());
+        synchronized (this) {
+            for (Map<String, Boolean> changes : mPending) {
+                pending.add(new HashMap<>(changes));
+                changes.clear();
+            }
+            mFlushScheduled = false;
+        }
+
+        int writes = 0;
+        try {
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO "
+                        + TABLE_SELECTION + " (" + COLUMN_KIND + ", " + COLUMN_PATH
+                        + ") VALUES (?, ?)");
+                SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_SELECTION
+                        + " WHERE " + COLUMN_KIND + " = ? AND " + COLUMN_PATH + " = ?");
+                for (int kind = 0; kind < pending.size(); kind++) {
+                    for (Map.Entry<String, Boolean> change : pending.get(kind).entrySet()) {
+                        SQLiteStatement statement = change.getValue() ? insert : delete;
+                        statement.bindLong(1, kind);
+                        statement.bindString(2, change.getKey());
+                        statement.execute();
+                        writes++;
+                    }
+                }
+                insert.close();
+                delete.close();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException ex) {
+            Log.w(TAG, "Can't save the selection", ex);
+        }
+        if (DEBUG) Log.v(TAG, "Selection saved: " + writes + " changes");
+    }
+}
@@ -23,6 +23,7 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import com.ruesga.android.wallpapers.photophase.utils.GLESState;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 
 import java.nio.ByteBuffer;
@@ -153,22 +154,21 @@ public abstract class Border extends Effect {
             if (GLESUtil.DEBUG_GL_MEMOBJS) {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_NEW_TAG, "glGenFramebuffers: " + fb[0]);
             }
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fb[0]);
-            GLESUtil.glesCheckError("glBindFramebuffer");
+            GLESUtil.glesGetState().bindFramebuffer(fb[0]);
 
             // Enable properties
-            GLES20.glEnable(GLES20.GL_BLEND);
-            GLESUtil.glesCheckError("glEnable");
-            GLES20.glBlendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-            GLESUtil.glesCheckError("glBlendFunc");
+            GLESUtil.glesGetState().enable(GLES20.GL_BLEND);
+            GLESUtil.glesGetState().blendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
             // Render on the whole framebuffer
-            GLES20.glViewport(0, 0, width, height);
-            GLESUtil.glesCheckError("glViewport");
+            GLESUtil.glesGetState().viewport(0, 0, width, height);
 
             // Create a new output texture (Use the MCA identity to clone the input to the output)
             mIdentityEffect.apply(inputTexId, width, height, outputTexId);
 
+            // The effects framework changes the state behind our back
+            GLESUtil.glesGetState().invalidate();
+
             // Create the framebuffer
             GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
                     GLES20. GL_TEXTURE_2D, outputTexId, 0);
@@ -191,8 +191,7 @@ public abstract class Border extends Effect {
 
         } finally {
             // Disable properties
-            GLES20.glDisable(GLES20.GL_BLEND);
-            GLESUtil.glesCheckError("glDisable");
+            GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
             // Restore the GLES state
             restoreGLState();
@@ -201,8 +200,7 @@ public abstract class Border extends Effect {
             if (GLESUtil.DEBUG_GL_MEMOBJS) {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteFramebuffers: " + fb[0]);
             }
-            GLES20.glDeleteFramebuffers(1, fb, 0);
-            GLESUtil.glesCheckError("glDeleteFramebuffers");
+            GLESUtil.glesGetState().deleteFramebuffers(1, fb, 0);
         }
 
     }
@@ -225,8 +223,7 @@ public abstract class Border extends Effect {
                 if (GLESUtil.DEBUG_GL_MEMOBJS) {
                     Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: " + program);
                 }
-                GLES20.glDeleteProgram(program);
-                GLESUtil.glesCheckError("glDeleteProgram");
+                GLESUtil.glesGetState().deleteProgram(program);
             }
         }
         mTexVertices = null;
@@ -241,22 +238,18 @@ public abstract class Border extends Effect {
      */
     void applyProgram(int index, int inputTexId, int width, int height) {
         // Use our shader program
-        GLES20.glUseProgram(mProgram[index]);
-        GLESUtil.glesCheckError("glUseProgram");
+        GLESUtil.glesGetState().useProgram(mProgram[index]);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Set the vertex attributes
         GLES20.glVertexAttribPointer(mTexCoordHandle[index], 2, GLES20.GL_FLOAT, false, 0, mTexVertices[index]);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTexCoordHandle[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTexCoordHandle[index]);
         GLES20.glVertexAttribPointer(mPosCoordHandle[index], 2, GLES20.GL_FLOAT, false, 0, mPosVertices[index]);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPosCoordHandle[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPosCoordHandle[index]);
 
         // Set parameters
         applyParameters(width, height);
@@ -270,10 +263,8 @@ public abstract class Border extends Effect {
         GLESUtil.glesCheckError("glDrawArrays");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mTexCoordHandle[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mPosCoordHandle[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mTexCoordHandle[index]);
+        GLESUtil.glesGetState().disableVertexAttribArray(mPosCoordHandle[index]);
     }
 
     /**
@@ -288,17 +279,20 @@ public abstract class Border extends Effect {
      * Save GL state
      */
     private void saveGLState() {
-        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mOldState, GL_STATE_FBO);
-        GLES20.glGetIntegerv(GLES20.GL_CURRENT_PROGRAM, mOldState, GL_STATE_PROGRAM);
-        GLES20.glGetIntegerv(GLES20.GL_ARRAY_BUFFER_BINDING, mOldState, GL_STATE_ARRAYBUFFER);
+        // Read from the shadow copy of the state (no round trip to the driver)
+        GLESState state = GLESUtil.glesGetState();
+        mOldState[GL_STATE_FBO] = state.getFramebuffer();
+        mOldState[GL_STATE_PROGRAM] = state.getProgram();
+        mOldState[GL_STATE_ARRAYBUFFER] = state.getArrayBuffer();
     }
 
     /**
      * Restore GL state
      */
     private void restoreGLState() {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mOldState[GL_STATE_FBO]);
-        GLES20.glUseProgram(mOldState[GL_STATE_PROGRAM]);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mOldState[GL_STATE_ARRAYBUFFER]);
+        GLESUtil.glesGetState().bindFramebuffer(mOldState[GL_STATE_FBO]);
+        GLESUtil.glesGetState().useProgram(mOldState[GL_STATE_PROGRAM]);
+        GLESUtil.glesGetState().bindBuffer(
+                GLES20.GL_ARRAY_BUFFER, mOldState[GL_STATE_ARRAYBUFFER]);
     }
 }
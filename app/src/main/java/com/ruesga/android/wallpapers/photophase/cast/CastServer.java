@@ -29,6 +29,7 @@ import com.ruesga.android.wallpapers.photophase.cast.CastDeviceMessages.OnNewTra
 import com.ruesga.android.wallpapers.photophase.cast.CastDeviceMessages.OnReadyMessage;
 import com.ruesga.android.wallpapers.photophase.cast.CastService.CastStatusInfo;
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
+import com.ruesga.android.wallpapers.photophase.sources.ImageSources;
 import com.ruesga.android.wallpapers.photophase.utils.BitmapUtils;
 
 import org.codehaus.jackson.map.ObjectMapper;
@@ -237,7 +238,8 @@ public class CastServer extends NanoHTTPD {
     }
 
     protected boolean send(String path) throws IOException {
-        File f = new File(path);
+        // Remote pictures are read from their cached copy
+        File f = ImageSources.getInstance(mContext).getFile(path);
         if (!f.isFile()) {
             throw new IOException("Argument is not a file");
         }
@@ -262,7 +264,7 @@ public class CastServer extends NanoHTTPD {
 
         String url = createAuthorizedUrl(token);
         String name = CastUtils.getTrackName(f);
-        String album = CastUtils.getAlbumName(f);
+        String album = CastUtils.getAlbumName(new File(path));
         CastMessages.Cast cast = new CastMessages.Cast(url, token, name, album, r.width(), r.height());
         printRequestMessage(cast);
         mChromecast.send(PHOTOPHASE_NAMESPACE, cast);
@@ -358,7 +360,14 @@ public class CastServer extends NanoHTTPD {
         if (!mRequests.containsKey(hash)) {
             return createFailureResponse(Response.Status.FORBIDDEN);
         }
-        File f = new File(mRequests.get(hash));
+        String path = mRequests.get(hash);
+        File f;
+        try {
+            f = ImageSources.getInstance(mContext).getFile(path);
+        } catch (IOException ex) {
+            Log.w(TAG, "Can't access the picture " + path, ex);
+            return createFailureResponse(Response.Status.NOT_FOUND);
+        }
         String mimeType = CastUtils.getTrackMimeType(f);
         if (TextUtils.isEmpty(mimeType)) {
             return createFailureResponse(Response.Status.FORBIDDEN);
@@ -46,8 +46,10 @@ import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import fi.iki.elonen.NanoHTTPD;
 import su.litvak.chromecast.api.v2.ChromeCast;
@@ -130,6 +132,8 @@ public class CastService extends Service implements CastServer.CastServerEventLi
 
     private List<String> mQueue = new ArrayList<>();
     private List<String> mShuffleQueue = new ArrayList<>();
+    // The pictures of the queue, to check the duplicates in constant time
+    private Set<String> mQueued = new HashSet<>();
     private int mQueuePointer;
     private Random mRandom;
 
@@ -516,7 +520,7 @@ public class CastService extends Service implements CastServer.CastServerEventLi
             // rest ones
             if (f.exists() && f.isDirectory()) {
                 List<File> pictures = mMediaDiscoverer.obtain(f);
-                if (pictures.isEmpty()) {
+                if (pictures == null || pictures.isEmpty()) {
                     return;
                 }
 
@@ -526,13 +530,8 @@ public class CastService extends Service implements CastServer.CastServerEventLi
                 // Enqueue and cast this
                 mQueue.clear();
                 mShuffleQueue.clear();
-                for (File pic : pictures) {
-                    String p = pic.getAbsolutePath();
-                    if (!mQueue.contains(p)) {
-                        mQueue.add(p);
-                        mShuffleQueue.add(p);
-                    }
-                }
+                mQueued.clear();
+                enqueue(pictures);
 
                 mCastStatusInfo.mCastMode = CAST_MODE_SLIDESHOW;
                 mServer.send(chooseNextPicture());
@@ -558,20 +557,13 @@ public class CastService extends Service implements CastServer.CastServerEventLi
         // rest ones
         if (f.exists() && f.isDirectory()) {
             List<File> pictures = mMediaDiscoverer.obtain(f);
-            if (pictures.isEmpty()) {
+            if (pictures == null || pictures.isEmpty()) {
                 return;
             }
-
-            for (File pic : pictures) {
-                String p = pic.getAbsolutePath();
-                if (!mQueue.contains(p)) {
-                    mQueue.add(p);
-                    mShuffleQueue.add(p);
-                }
-            }
+            enqueue(pictures);
         } else {
             String p = f.getAbsolutePath();
-            if (!mQueue.contains(p)) {
+            if (mQueued.add(p)) {
                 mQueue.add(p);
                 mShuffleQueue.add(p);
             }
@@ -594,6 +586,16 @@ public class CastService extends Service implements CastServer.CastServerEventLi
         LocalBroadcastManager.getInstance(this).sendBroadcast(i);
     }
 
+    private void enqueue(List<File> pictures) {
+        for (File pic : pictures) {
+            String p = pic.getAbsolutePath();
+            if (mQueued.add(p)) {
+                mQueue.add(p);
+                mShuffleQueue.add(p);
+            }
+        }
+    }
+
     private void performSendConfiguration() {
         Log.d(TAG, "Send configuration");
 
@@ -786,6 +788,7 @@ public class CastService extends Service implements CastServer.CastServerEventLi
         int pos = mQueue.indexOf(media);
         mQueue.remove(media);
         mShuffleQueue.remove(media);
+        mQueued.remove(media);
         if (pos >= 0 && current) {
             mQueuePointer--;
             Message.obtain(mBackgroundHandler, MESSAGE_SLIDESHOW_NEXT).sendToTarget();
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.decoder;
+
+import android.graphics.Bitmap;
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A helper class to share bitmap pixels between processes through ashmem regions.
+ */
+public final class AshmemRegion {
+
+    // Load the native library
+    static {
+        System.loadLibrary("photophase");
+    }
+
+    private AshmemRegion() {
+    }
+
+    /**
+     * Method that copies the pixels of a bitmap into a new shared memory region.
+     *
+     * @param name The name of the region
+     * @param bitmap The bitmap to share
+     * @return ParcelFileDescriptor The region or null if the region couldn't be created
+     */
+    public static ParcelFileDescriptor fromBitmap(String name, Bitmap bitmap) {
+        int size = bitmap.getRowBytes() * bitmap.getHeight();
+        int fd = nativeCreate(name, size);
+        if (fd < 0) {
+            return null;
+        }
+        ParcelFileDescriptor pfd = ParcelFileDescriptor.adoptFd(fd);
+        ByteBuffer buffer = nativeMap(fd, size, true);
+        if (buffer == null) {
+            closeQuietly(pfd);
+            return null;
+        }
+        try {
+            bitmap.copyPixelsToBuffer(buffer);
+        } finally {
+            nativeUnmap(buffer);
+        }
+        return pfd;
+    }
+
+    /**
+     * Method that creates a bitmap from the pixels of a shared memory region. The region
+     * is closed after this call.
+     *
+     * @param pfd The region
+     * @param width The width of the bitmap
+     * @param height The height of the bitmap
+     * @param rowBytes The row bytes of the bitmap
+     * @return Bitmap The bitmap or null if the region couldn't be read
+     */
+    public static Bitmap toBitmap(ParcelFileDescriptor pfd, int width, int height, int rowBytes) {
+        try {
+            ByteBuffer buffer = nativeMap(pfd.getFd(), rowBytes * height, false);
+            if (buffer == null) {
+                return null;
+            }
+            try {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                bitmap.copyPixelsFromBuffer(buffer);
+                return bitmap;
+            } finally {
+                nativeUnmap(buffer);
+            }
+        } finally {
+            closeQuietly(pfd);
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor pfd) {
+        try {
+            pfd.close();
+        } catch (IOException ex) {
+            // Ignore
+        }
+    }
+
+    @SuppressWarnings("JniMissingFunction")
+    private static native int nativeCreate(String name, int size);
+
+    @SuppressWarnings("JniMissingFunction")
+    private static native ByteBuffer nativeMap(int fd, int size, boolean writable);
+
+    @SuppressWarnings("JniMissingFunction")
+    private static native void nativeUnmap(ByteBuffer buffer);
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.decoder;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.IPictureDecoderService;
+import com.ruesga.android.wallpapers.photophase.utils.BitmapUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The client side of the {@link PictureDecoderService}. Pictures are decoded in the
+ * <code>:decoder</code> process when it is available, and in this process otherwise. When
+ * the decoder process dies it is restarted with an exponential backoff, and it is disabled
+ * (falling back to in-process decoding) if it keeps crashing.
+ */
+public class PictureDecoder {
+
+    private static final String TAG = "PictureDecoder";
+
+    private static final boolean DEBUG = false;
+
+    private static final long CONNECT_TIMEOUT = 2000L;
+    private static final long MIN_RESTART_DELAY = 1000L;
+    private static final long MAX_RESTART_DELAY = 60000L;
+    private static final int MAX_CRASHES = 5;
+    private static final long CRASHES_WINDOW = 600000L;
+    private static final int STATS_INTERVAL = 50;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    private final Object mSync = new Object();
+    private IPictureDecoderService mService;
+    private boolean mBound;
+    private boolean mReleased;
+    private boolean mRemoteDisabled;
+    private long mRestartDelay = MIN_RESTART_DELAY;
+    private final List<Long> mCrashes = new ArrayList<>();
+
+    // Counters
+    private long mRemoteDecodes;
+    private long mRemoteDecodeTime;
+    private long mRemoteBytes;
+    private long mLocalDecodes;
+    private long mLocalDecodeTime;
+    private long mFailures;
+    private long mRestarts;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            if (DEBUG) Log.d(TAG, "Decoder service connected");
+            synchronized (mSync) {
+                mService = IPictureDecoderService.Stub.asInterface(binder);
+                mSync.notifyAll();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // The decoder process died
+            synchronized (mSync) {
+                mService = null;
+                onDecoderDied();
+            }
+        }
+    };
+
+    private final Runnable mRestartDecoder = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mSync) {
+                if (!mReleased && !mRemoteDisabled) {
+                    mRestarts++;
+                    bind();
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor of <code>PictureDecoder</code>
+     *
+     * @param ctx The current context
+     */
+    public PictureDecoder(Context ctx) {
+        super();
+        mContext = ctx;
+        mHandler = new Handler(Looper.getMainLooper());
+        synchronized (mSync) {
+            bind();
+        }
+    }
+
+    /**
+     * Method that decodes, orients and scales a picture.
+     *
+     * @param file The picture to decode
+     * @param width The requested width
+     * @param height The requested height
+     * @return Bitmap The decoded bitmap or null if the picture couldn't be decoded
+     */
+    public Bitmap decode(File file, int width, int height) {
+        IPictureDecoderService service = awaitService();
+        if (service == null) {
+            return decodeLocal(file, width, height);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            int[] info = new int[3];
+            ParcelFileDescriptor pfd = service.decode(file.getAbsolutePath(), width, height, info);
+            Bitmap bitmap = null;
+            if (pfd != null) {
+                bitmap = AshmemRegion.toBitmap(pfd, info[0], info[1], info[2]);
+            }
+            synchronized (mSync) {
+                if (bitmap == null) {
+                    mFailures++;
+                } else {
+                    mRemoteDecodes++;
+                    mRemoteDecodeTime += SystemClock.elapsedRealtime() - start;
+                    mRemoteBytes += info[2] * info[1];
+                    mRestartDelay = MIN_RESTART_DELAY;
+                    if (DEBUG && mRemoteDecodes % STATS_INTERVAL == 0) {
+                        Log.d(TAG, getStatistics());
+                    }
+                }
+            }
+            return bitmap;
+
+        } catch (RemoteException ex) {
+            // The decoder process died while decoding this picture. Don't try it again
+            // in this process; just skip it
+            Log.w(TAG, "Decoder process died decoding " + file.getAbsolutePath());
+            synchronized (mSync) {
+                mFailures++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Method that destroy the references of this class
+     */
+    public void release() {
+        synchronized (mSync) {
+            mReleased = true;
+            mHandler.removeCallbacks(mRestartDecoder);
+            unbind();
+            Log.d(TAG, getStatistics());
+        }
+    }
+
+    /**
+     * Method that returns the latency and throughput counters of the decoder
+     *
+     * @return String The counters
+     */
+    public String getStatistics() {
+        synchronized (mSync) {
+            long remoteLatency = mRemoteDecodes == 0 ? 0 : mRemoteDecodeTime / mRemoteDecodes;
+            long localLatency = mLocalDecodes == 0 ? 0 : mLocalDecodeTime / mLocalDecodes;
+            long throughput = mRemoteDecodeTime == 0 ? 0 : mRemoteBytes / mRemoteDecodeTime;
+            return "Decoder stats: remote=" + mRemoteDecodes + " (" + remoteLatency + " ms, "
+                    + throughput + " KB/s), local=" + mLocalDecodes + " (" + localLatency
+                    + " ms), failures=" + mFailures + ", crashes=" + mCrashes.size()
+                    + ", restarts=" + mRestarts + ", disabled=" + mRemoteDisabled;
+        }
+    }
+
+    private Bitmap decodeLocal(File file, int width, int height) {
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap = BitmapUtils.decodeScaledBitmap(file, width, height);
+        synchronized (mSync) {
+            if (bitmap == null) {
+                mFailures++;
+            } else {
+                mLocalDecodes++;
+                mLocalDecodeTime += SystemClock.elapsedRealtime() - start;
+            }
+        }
+        return bitmap;
+    }
+
+    private IPictureDecoderService awaitService() {
+        synchronized (mSync) {
+            if (mRemoteDisabled || mReleased) {
+                return null;
+            }
+            if (mService == null && mBound) {
+                try {
+                    mSync.wait(CONNECT_TIMEOUT);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+            return mService;
+        }
+    }
+
+    private void onDecoderDied() {
+        // Forget the crashes out of the window
+        long now = SystemClock.elapsedRealtime();
+        mCrashes.add(now);
+        while (!mCrashes.isEmpty() && now - mCrashes.get(0) > CRASHES_WINDOW) {
+            mCrashes.remove(0);
+        }
+
+        // Don't let the system restart the process immediately. Apply our own policy
+        unbind();
+        if (mReleased) {
+            return;
+        }
+        if (mCrashes.size() >= MAX_CRASHES) {
+            Log.w(TAG, "Decoder process keeps crashing. Using in-process decoding");
+            mRemoteDisabled = true;
+            return;
+        }
+        Log.w(TAG, "Decoder process died. Restarting in " + mRestartDelay + " ms");
+        mHandler.postDelayed(mRestartDecoder, mRestartDelay);
+        mRestartDelay = Math.min(mRestartDelay * 2, MAX_RESTART_DELAY);
+    }
+
+    private void bind() {
+        if (mBound) {
+            return;
+        }
+        try {
+            Intent i = new Intent(mContext, PictureDecoderService.class);
+            mBound = mContext.bindService(i, mConnection, Context.BIND_AUTO_CREATE);
+        } catch (SecurityException se) {
+            Log.w(TAG, "Can't bind to PictureDecoderService", se);
+            mBound = false;
+        }
+        if (!mBound) {
+            mRemoteDisabled = true;
+        }
+    }
+
+    private void unbind() {
+        if (mBound) {
+            mBound = false;
+            mService = null;
+            try {
+                mContext.unbindService(mConnection);
+            } catch (IllegalArgumentException ex) {
+                // Ignore
+            }
+        }
+    }
+}
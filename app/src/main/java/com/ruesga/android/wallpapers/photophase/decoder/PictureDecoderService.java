@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.decoder;
+
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.ruesga.android.wallpapers.photophase.IPictureDecoderService;
+import com.ruesga.android.wallpapers.photophase.utils.BitmapUtils;
+
+import java.io.File;
+
+/**
+ * A service that runs in its own process (with its own heap) and decodes, orients and
+ * scales pictures on behalf of the wallpaper. The pixels are returned through an ashmem
+ * region, so an out of memory while decoding a huge picture never kills the wallpaper.
+ */
+public class PictureDecoderService extends Service {
+
+    private static final String TAG = "PictureDecoderService";
+
+    private static final boolean DEBUG = false;
+
+    private final IPictureDecoderService.Stub mBinder = new IPictureDecoderService.Stub() {
+        @Override
+        public ParcelFileDescriptor decode(String path, int width, int height, int[] info) {
+            Bitmap bitmap = null;
+            try {
+                bitmap = BitmapUtils.decodeScaledBitmap(new File(path), width, height);
+                if (bitmap == null) {
+                    return null;
+                }
+
+                ParcelFileDescriptor pfd = AshmemRegion.fromBitmap(TAG, bitmap);
+                if (pfd != null) {
+                    info[0] = bitmap.getWidth();
+                    info[1] = bitmap.getHeight();
+                    info[2] = bitmap.getRowBytes();
+                }
+                return pfd;
+
+            } catch (OutOfMemoryError oom) {
+                // The bitmap is released below, so the next decode starts with a clean heap
+                Log.e(TAG, "Out of memory decoding " + path);
+                return null;
+
+            } finally {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IBinder onBind(Intent intent) {
+        if (DEBUG) Log.d(TAG, "onBind");
+        return mBinder;
+    }
+}
@@ -63,12 +63,12 @@ import android.widget.Toast;
 import com.ruesga.android.wallpapers.photophase.AndroidHelper;
 import com.ruesga.android.wallpapers.photophase.ICastService;
 import com.ruesga.android.wallpapers.photophase.R;
+import com.ruesga.android.wallpapers.photophase.SelectionStore;
 import com.ruesga.android.wallpapers.photophase.adapters.AlbumCardUiAdapter;
 import com.ruesga.android.wallpapers.photophase.adapters.AlbumPictureAdapter;
 import com.ruesga.android.wallpapers.photophase.cast.CastService;
 import com.ruesga.android.wallpapers.photophase.model.Album;
 import com.ruesga.android.wallpapers.photophase.model.Picture;
-import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
 import com.ruesga.android.wallpapers.photophase.widgets.AlbumInfoView;
 import com.ruesga.android.wallpapers.photophase.widgets.PictureItemView;
 import com.ruesga.android.wallpapers.photophase.widgets.PictureItemView.CallbacksListener;
@@ -182,7 +182,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
             }
 
             if (mSelectAll) {
-                Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+                mSelection.setSelectedMedia(mSelectedAlbums);
             }
             return null;
         }
@@ -277,13 +277,8 @@ public class ChoosePicturesFragment extends PreferenceFragment
          */
         private boolean isSelectedItem(String item) {
             synchronized (mSelectedAlbums) {
-                for (String albumPath : mSelectedAlbums) {
-                    if (item.compareTo(albumPath) == 0) {
-                        return true;
-                    }
-                }
+                return mSelectedAlbums.contains(item);
             }
-            return false;
         }
     }
     private AlbumLoaderTask mTask;
@@ -322,6 +317,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
 
     private final Set<String> mSelectedAlbums = new HashSet<>();
     private final Set<String> mOriginalSelectedAlbums = new HashSet<>();
+    private SelectionStore mSelection;
 
     private ViewGroup mContainer;
 
@@ -376,8 +372,9 @@ public class ChoosePicturesFragment extends PreferenceFragment
         getPreferenceManager().setSharedPreferencesMode(Context.MODE_PRIVATE);
 
         // Load the albums user selection
+        mSelection = SelectionStore.getInstance(getActivity());
         mOriginalSelectedAlbums.addAll(removeObsoleteAlbumsData(
-                Preferences.Media.getSelectedMedia(getActivity())));
+                mSelection.getSelectedMedia()));
         mSelectedAlbums.addAll(mOriginalSelectedAlbums);
         mSelectionChanged = false;
 
@@ -669,7 +666,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
         mAlbumAdapter.notifyDataSetChanged();
 
         // Update settings
-        Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+        mSelection.setSelectedMedia(mSelectedAlbums);
         mSelectionChanged = true;
 
         if (!mShowingAlbums) {
@@ -700,7 +697,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
         mAlbumAdapter.notifyDataSetChanged();
 
         // Update settings
-        Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+        mSelection.setSelectedMedia(mSelectedAlbums);
         mSelectionChanged = true;
     }
 
@@ -729,7 +726,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
         synchronized (mSelectedAlbums) {
             mSelectedAlbums.addAll(album.getSelectedItems());
         }
-        Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+        mSelection.setSelectedMedia(mSelectedAlbums);
         mSelectionChanged = true;
     }
 
@@ -806,7 +803,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
             mAlbumAdapter.notifyDataSetChanged();
         }
 
-        Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+        mSelection.setSelectedMedia(mSelectedAlbums);
         mSelectionChanged = true;
     }
 
@@ -832,7 +829,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
         synchronized (mSelectedAlbums) {
             mSelectedAlbums.addAll(album.getSelectedItems());
         }
-        Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+        mSelection.setSelectedMedia(mSelectedAlbums);
         mSelectionChanged = true;
 
         // Notify pictures dataset changed
@@ -1099,7 +1096,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
             synchronized (mSelectedAlbums) {
                 mSelectedAlbums.addAll(mAlbum.getSelectedItems());
             }
-            Preferences.Media.setSelectedMedia(getActivity(), mSelectedAlbums);
+            mSelection.setSelectedMedia(mSelectedAlbums);
             mSelectionChanged = true;
         }
     }
@@ -1139,7 +1136,7 @@ public class ChoosePicturesFragment extends PreferenceFragment
             // Obsolete entries were removed
             data.clear();
             data.addAll(validDataList);
-            Preferences.Media.setSelectedMedia(getActivity(), mOriginalSelectedAlbums);
+            mSelection.setSelectedMedia(data);
         }
         return data;
     }
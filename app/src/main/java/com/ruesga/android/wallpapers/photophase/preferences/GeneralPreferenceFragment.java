@@ -57,6 +57,8 @@ public class GeneralPreferenceFragment extends PreferenceFragment {
 
     private Preference mSetAsWallpaper;
     private CheckBoxPreference mFixAspectRatio;
+    private ListPreference mRenderScale;
+    private ListPreference mFrameRateCap;
     private ListPreference mTouchActions;
     private MultiSelectListPreference mTransitionsTypes;
     private DiscreteSeekBarProgressPreference mTransitionsInterval;
@@ -82,6 +84,15 @@ public class GeneralPreferenceFragment extends PreferenceFragment {
                 mRedrawFlag = true;
                 mEmptyTextureQueueFlag = true;
                 mFixAspectRatio.setEnabled(!((Boolean) newValue));
+            } else if (key.compareTo("ui_mipmaps") == 0) {
+                mRedrawFlag = true;
+                mEmptyTextureQueueFlag = true;
+            } else if (key.compareTo("ui_render_scale") == 0) {
+                mRedrawFlag = true;
+                updateRenderScaleSummary((String) newValue);
+            } else if (key.compareTo("ui_frame_rate_cap") == 0) {
+                mRedrawFlag = true;
+                updateFrameRateCapSummary((String) newValue);
             } else if (key.compareTo("ui_fix_aspect_ratio") == 0) {
                 mRedrawFlag = true;
                 mEmptyTextureQueueFlag = true;
@@ -252,6 +263,17 @@ public class GeneralPreferenceFragment extends PreferenceFragment {
         CheckBoxPreference powerOfTwo = (CheckBoxPreference) findPreference("ui_power_of_two");
         powerOfTwo.setOnPreferenceChangeListener(mOnChangeListener);
 
+        CheckBoxPreference mipmaps = (CheckBoxPreference) findPreference("ui_mipmaps");
+        mipmaps.setOnPreferenceChangeListener(mOnChangeListener);
+
+        mRenderScale = (ListPreference) findPreference("ui_render_scale");
+        mRenderScale.setOnPreferenceChangeListener(mOnChangeListener);
+        updateRenderScaleSummary(mRenderScale.getValue());
+
+        mFrameRateCap = (ListPreference) findPreference("ui_frame_rate_cap");
+        mFrameRateCap.setOnPreferenceChangeListener(mOnChangeListener);
+        updateFrameRateCapSummary(mFrameRateCap.getValue());
+
         mFixAspectRatio = (CheckBoxPreference) findPreference("ui_fix_aspect_ratio");
         mFixAspectRatio.setOnPreferenceChangeListener(mOnChangeListener);
         mFixAspectRatio.setEnabled(!Preferences.General.isPowerOfTwo(getActivity()));
@@ -332,6 +354,26 @@ public class GeneralPreferenceFragment extends PreferenceFragment {
         borderColor.setOnPreferenceChangeListener(mOnChangeListener);
     }
 
+    private void updateRenderScaleSummary(String value) {
+        if (Integer.valueOf(value) == Preferences.General.RENDER_SCALE_AUTO) {
+            mRenderScale.setSummary(R.string.pref_general_render_scale_auto_summary);
+        } else {
+            int selectionIndex = mRenderScale.findIndexOfValue(value);
+            mRenderScale.setSummary(getString(R.string.pref_general_render_scale_summary_format,
+                    mRenderScale.getEntries()[selectionIndex]));
+        }
+    }
+
+    private void updateFrameRateCapSummary(String value) {
+        if (Integer.valueOf(value) == 0) {
+            mFrameRateCap.setSummary(R.string.pref_general_frame_rate_cap_display_summary);
+        } else {
+            int selectionIndex = mFrameRateCap.findIndexOfValue(value);
+            mFrameRateCap.setSummary(getString(R.string.pref_general_frame_rate_cap_summary_format,
+                    mFrameRateCap.getEntries()[selectionIndex]));
+        }
+    }
+
     private void updateTouchActionSummary(String value) {
         int selectionIndex = mTouchActions.findIndexOfValue(value);
         String[] summaries = getResources().getStringArray(R.array.touch_actions_summaries);
@@ -42,6 +42,7 @@ public class MediaPreferenceFragment extends PreferenceFragment {
 
     private boolean mMediaIntevalChangedFlag;
     private boolean mEmptyTextureQueueFlag;
+    private boolean mMediaReloadFlag;
 
     private final OnPreferenceChangeListener mOnChangeListener = new OnPreferenceChangeListener() {
         @Override
@@ -51,8 +52,13 @@ public class MediaPreferenceFragment extends PreferenceFragment {
             if (key.compareTo("ui_media_refresh_interval") == 0) {
                 setRefreshIntervalSummary(Integer.valueOf(String.valueOf(newValue)));
                 mMediaIntevalChangedFlag = true;
+            } else if (key.compareTo("ui_media_live_updates") == 0) {
+                mMediaIntevalChangedFlag = true;
             } else if (key.compareTo("ui_media_random") == 0) {
                 mEmptyTextureQueueFlag = true;
+            } else if (key.compareTo("ui_media_scan_folders") == 0
+                    || key.compareTo("ui_media_remote_folder") == 0) {
+                mMediaReloadFlag = true;
             }
             return true;
         }
@@ -73,6 +79,9 @@ public class MediaPreferenceFragment extends PreferenceFragment {
         if (mEmptyTextureQueueFlag) {
             intent.putExtra(PreferencesProvider.EXTRA_FLAG_EMPTY_TEXTURE_QUEUE, Boolean.TRUE);
         }
+        if (mMediaReloadFlag) {
+            intent.putExtra(PreferencesProvider.EXTRA_FLAG_MEDIA_RELOAD, Boolean.TRUE);
+        }
         getActivity().sendBroadcast(intent);
     }
 
@@ -90,6 +99,9 @@ public class MediaPreferenceFragment extends PreferenceFragment {
         // Add the preferences
         addPreferencesFromResource(R.xml.preferences_media);
 
+        SwitchPreference liveUpdates = (SwitchPreference) findPreference("ui_media_live_updates");
+        liveUpdates.setOnPreferenceChangeListener(mOnChangeListener);
+
         mRefreshInterval = (ListPreference)findPreference("ui_media_refresh_interval");
         setRefreshIntervalSummary(Preferences.Media.getRefreshFrequency(getActivity()));
         mRefreshInterval.setOnPreferenceChangeListener(mOnChangeListener);
@@ -109,6 +121,12 @@ public class MediaPreferenceFragment extends PreferenceFragment {
 
         SwitchPreference random = (SwitchPreference) findPreference("ui_media_random");
         random.setOnPreferenceChangeListener(mOnChangeListener);
+
+        Preference scanFolders = findPreference("ui_media_scan_folders");
+        scanFolders.setOnPreferenceChangeListener(mOnChangeListener);
+
+        Preference remoteFolder = findPreference("ui_media_remote_folder");
+        remoteFolder.setOnPreferenceChangeListener(mOnChangeListener);
     }
 
     /**
@@ -30,6 +30,7 @@ import com.ruesga.android.wallpapers.photophase.transitions.Transitions.TRANSITI
 import com.ruesga.android.wallpapers.photophase.utils.DispositionUtil;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLColor;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -156,6 +157,42 @@ public final class PreferencesProvider {
                 return getSharedPreferences(context).getBoolean("ui_power_of_two", false);
             }
 
+            /**
+             * Return the current user preference about using mipmapped textures (with
+             * trilinear filtering) for the pictures.
+             *
+             * @return boolean Indicates if the textures should have mipmaps
+             */
+            public static boolean isMipmaps(Context context) {
+                return getSharedPreferences(context).getBoolean("ui_mipmaps", false);
+            }
+
+            /**
+             * The render scale is chosen by the quality governor
+             */
+            public static final int RENDER_SCALE_AUTO = 0;
+
+            /**
+             * Method that returns the resolution the wallpaper is rendered at (upscaled to
+             * the screen)
+             *
+             * @return int The render scale in percent (default {@link #RENDER_SCALE_AUTO})
+             */
+            public static int getRenderScale(Context context) {
+                return Integer.valueOf(getSharedPreferences(context).getString(
+                        "ui_render_scale", String.valueOf(RENDER_SCALE_AUTO)));
+            }
+
+            /**
+             * Method that returns the maximum frame rate of the animations
+             *
+             * @return int The frames per second (0 for the rate of the display; default 60)
+             */
+            public static int getFrameRateCap(Context context) {
+                return Integer.valueOf(getSharedPreferences(context).getString(
+                        "ui_frame_rate_cap", "60"));
+            }
+
             /**
              * Return the current user preference about fix or not fix the aspect ratio
              * of the image by cropping the image.
@@ -358,6 +395,16 @@ public final class PreferencesProvider {
                         "ui_media_refresh_interval", String.valueOf(MEDIA_RELOAD_DISABLED)));
             }
 
+            /**
+             * Method that returns if the media changes are observed while the wallpaper
+             * is visible
+             *
+             * @return boolean If the media changes are observed
+             */
+            public static boolean isLiveUpdates(Context context) {
+                return getSharedPreferences(context).getBoolean("ui_media_live_updates", true);
+            }
+
             /**
              * Method that returns if the photos are displaye randomly or sequentially
              *
@@ -376,58 +423,35 @@ public final class PreferencesProvider {
                 return getSharedPreferences(context).getBoolean("ui_media_auto_select_new", true);
             }
 
-            // Internal settings (non-UI)
             /**
-             * Method that returns the list of albums and pictures to be displayed
+             * Method that returns the folders scanned in the filesystem (besides the
+             * pictures of the media store)
              *
-             * @return Set<String> The list of albums and pictures to be displayed
-             */
-            public static Set<String> getSelectedMedia(Context context) {
-                Set<String> defaults = new HashSet<>();
-                return getSharedPreferences(context).getStringSet("media_selected_media", defaults);
-            }
-
-            /**
-            * Method that returns the list of albums and pictures to be displayed
-            *
-            * @param context The current context
-            * @param selection The new list of albums and pictures to be displayed
-            */
-           public static synchronized void setSelectedMedia(
-                   Context context, Set<String> selection) {
-               SharedPreferences preferences =
-                       context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
-               Editor editor = preferences.edit();
-               editor.putStringSet("media_selected_media", selection);
-               editor.apply();
-           }
-
-           /**
-            * Method that returns the list of the name of the albums seen by the
-            * last media discovery scan.
-            *
-            * @return Set<String> The list of albums and pictures to be displayed
-            */
-           public static Set<String> getLastDiscorevedAlbums(Context context) {
-               Set<String> defaults = new HashSet<>();
-               return getSharedPreferences(context).getStringSet("media_last_discovered_albums", defaults);
-           }
-
-           /**
-            * Method that sets the list of the name of the albums seen by the
-            * last media discovery scan.
-            *
-            * @param context The current context
-            * @param albums The albums seen by the last media discovery scan
-            */
-           public static synchronized void setLastDiscorevedAlbums(
-                   Context context, Set<String> albums) {
-               SharedPreferences preferences =
-                       context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
-               Editor editor = preferences.edit();
-               editor.putStringSet("media_last_discovered_albums", albums);
-               editor.apply();
-           }
+             * @return List<File> The folders to scan (one per line of the preference)
+             */
+            public static List<File> getScanFolders(Context context) {
+                String value = getSharedPreferences(context).getString("ui_media_scan_folders", "");
+                List<File> folders = new ArrayList<>();
+                for (String folder : value.split("\\n")) {
+                    folder = folder.trim();
+                    if (!folder.isEmpty()) {
+                        folders.add(new File(folder));
+                    }
+                }
+                return folders;
+            }
+
+            /**
+             * Method that returns the remote folder (WebDAV or http listing) whose pictures
+             * are displayed
+             *
+             * @return String The url of the remote folder or null if there isn't any
+             */
+            public static String getRemoteFolder(Context context) {
+                String value = getSharedPreferences(context).getString("ui_media_remote_folder", "");
+                value = value.trim();
+                return value.isEmpty() ? null : value;
+            }
         }
 
         /**
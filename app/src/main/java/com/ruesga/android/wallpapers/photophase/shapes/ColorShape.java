@@ -76,30 +76,25 @@ public class ColorShape implements DrawableShape {
      */
     @Override
     public void draw(float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         if (mColor.a == 0f) {
             return;
         }
 
         // Enable properties
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glEnable");
-        GLES20.glBlendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        GLESUtil.glesCheckError("glBlendFunc");
+        GLESUtil.glesGetState().enable(GLES20.GL_BLEND);
+        GLESUtil.glesGetState().blendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
         // Set the program and its attributes
-        GLES20.glUseProgram(mProgramHandler);
-        GLESUtil.glesCheckError("glUseProgram");
+        GLESUtil.glesGetState().useProgram(mProgramHandler);
 
         // Position
         mVertexBuffer.position(0);
         GLES20.glVertexAttribPointer(mPositionHandler, 2, GLES20.GL_FLOAT, false, 0, mVertexBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandler);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandler);
 
         // Color
         GLES20.glVertexAttrib4f(mColorHandler, mColor.r, mColor.g, mColor.b, mColor.a);
@@ -114,14 +109,11 @@ public class ColorShape implements DrawableShape {
         GLESUtil.glesCheckError("glDrawElements");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandler);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mColorHandler);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandler);
+        GLESUtil.glesGetState().disableVertexAttribArray(mColorHandler);
 
         // Disable properties
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
     }
 
     /**
@@ -141,8 +133,7 @@ public class ColorShape implements DrawableShape {
             if (GLESUtil.DEBUG_GL_MEMOBJS) {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: " + mProgramHandler);
             }
-            GLES20.glDeleteProgram(mProgramHandler);
-            GLESUtil.glesCheckError("glDeleteProgram");
+            GLESUtil.glesGetState().deleteProgram(mProgramHandler);
         }
         mProgramHandler = 0;
         mPositionHandler = 0;
@@ -166,21 +166,18 @@ public class OopsShape implements DrawableShape {
     @Override
     public void draw(float[] matrix) {
         // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        GLESUtil.glesGetState().bindFramebuffer(0);
 
         // Clear background
         GLColor bg = PreferencesProvider.Preferences.General.DEFAULT_BACKGROUND_COLOR;
         GLES20.glClearColor(bg.r, bg.g, bg.b, bg.a);
         GLESUtil.glesCheckError("glClearColor");
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         GLESUtil.glesCheckError("glClear");
 
         // Enable blend
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glEnable");
-        GLES20.glBlendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_COLOR);
-        GLESUtil.glesCheckError("glBlendFunc");
+        GLESUtil.glesGetState().enable(GLES20.GL_BLEND);
+        GLESUtil.glesGetState().blendFunc(GLES20.GL_SRC_COLOR, GLES20.GL_ONE_MINUS_SRC_COLOR);
 
         // Draw the textures
         drawTexture(matrix, 0, mOopsImageTexture.handle);
@@ -191,8 +188,7 @@ public class OopsShape implements DrawableShape {
         }
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
     }
 
     /**
@@ -204,8 +200,7 @@ public class OopsShape implements DrawableShape {
      */
     private void drawTexture(float[] matrix, int index, int texture) {
         // Use our shader program
-        GLES20.glUseProgram(mProgramHandlers[index]);
-        GLESUtil.glesCheckError("glUseProgram()");
+        GLESUtil.glesGetState().useProgram(mProgramHandlers[index]);
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandlers[index], 1, false, matrix, 0);
@@ -214,20 +209,16 @@ public class OopsShape implements DrawableShape {
         // Texture
         GLES20.glVertexAttribPointer(mTextureCoordHandlers[index], 2, GLES20.GL_FLOAT, false, 0, mTextureBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandlers[index]);
 
         // Position
         GLES20.glVertexAttribPointer(mPositionHandlers[index], 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandlers[index]);
 
         // Set the input textures
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(texture);
         GLES20.glUniform1i(mTextureHandlers[index], 0);
         GLESUtil.glesCheckError("glUniform1i");
 
@@ -236,10 +227,8 @@ public class OopsShape implements DrawableShape {
         GLESUtil.glesCheckError("glDrawElements");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandlers[index]);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandlers[index]);
     }
 
     /**
@@ -253,8 +242,7 @@ public class OopsShape implements DrawableShape {
                         + mOopsImageTexture.handle + "]");
             }
             int[] textures = new int[]{mOopsImageTexture.handle};
-            GLES20.glDeleteTextures(1, textures, 0);
-            GLESUtil.glesCheckError("glDeleteTextures");
+            GLESUtil.glesGetState().deleteTextures(1, textures, 0);
         }
         mOopsImageTexture = null;
         if (mOopsTextTexture != null && mOopsTextTexture.handle != 0) {
@@ -263,8 +251,7 @@ public class OopsShape implements DrawableShape {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                         + mOopsTextTexture.handle + "]");
             }
-            GLES20.glDeleteTextures(1, textures, 0);
-            GLESUtil.glesCheckError("glDeleteTextures");
+            GLESUtil.glesGetState().deleteTextures(1, textures, 0);
         }
         mOopsTextTexture = null;
         if (mNoPermissionTextTexture != null && mNoPermissionTextTexture.handle != 0) {
@@ -273,8 +260,7 @@ public class OopsShape implements DrawableShape {
                 Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                         + mNoPermissionTextTexture.handle + "]");
             }
-            GLES20.glDeleteTextures(1, textures, 0);
-            GLESUtil.glesCheckError("glDeleteTextures");
+            GLESUtil.glesGetState().deleteTextures(1, textures, 0);
         }
         mNoPermissionTextTexture = null;
 
@@ -294,8 +280,7 @@ public class OopsShape implements DrawableShape {
                     Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: "
                             + mProgramHandlers[i]);
                 }
-                GLES20.glDeleteProgram(mProgramHandlers[i]);
-                GLESUtil.glesCheckError("glDeleteProgram(" + i + ")");
+                GLESUtil.glesGetState().deleteProgram(mProgramHandlers[i]);
             }
             mProgramHandlers[i] = 0;
             mTextureHandlers[i] = 0;
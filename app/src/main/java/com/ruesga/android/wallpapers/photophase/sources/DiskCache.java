@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A size bounded cache of files in the disk. The least recently used files are evicted
+ * when the cache exceeds its size. Every file has metadata for its conditional revalidation.
+ */
+public class DiskCache {
+
+    private static final String TAG = "DiskCache";
+
+    private static final String META_EXTENSION = ".meta";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * The metadata of a cached file
+     */
+    public static class Meta {
+        public String mETag;
+        public String mLastModified;
+        public long mValidated;
+    }
+
+    private final File mDir;
+    private final long mMaxSize;
+
+    /**
+     * Constructor of <code>DiskCache</code>
+     *
+     * @param dir The folder of the cache
+     * @param maxSize The maximum size in bytes of the cache
+     */
+    public DiskCache(File dir, long maxSize) {
+        super();
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Method that returns the file of an entry of the cache (it may not exist)
+     *
+     * @param key The key of the entry
+     * @return File The file of the entry
+     */
+    public File getFile(String key) {
+        // The extension is kept, so the type of the entry can still be guessed by its name
+        return new File(mDir, hash(key) + getExtension(key));
+    }
+
+    /**
+     * Method that returns a temporary file where to write a new version of an entry
+     *
+     * @param key The key of the entry
+     * @return File The temporary file
+     * @throws IOException If the cache folder can't be created
+     */
+    public File getTempFile(String key) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create the cache folder " + mDir);
+        }
+        return new File(mDir, getFile(key).getName() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Method that replaces an entry with its new version, and evicts the least recently
+     * used entries if the cache exceeds its size
+     *
+     * @param key The key of the entry
+     * @param temp The temporary file with the new version
+     * @param meta The metadata of the new version
+     * @return File The file of the entry
+     * @throws IOException If the entry can't be replaced
+     */
+    public synchronized File commit(String key, File temp, Meta meta) throws IOException {
+        File file = getFile(key);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't write the cache entry " + file);
+        }
+        putMeta(key, meta);
+        trim();
+        return file;
+    }
+
+    /**
+     * Method that returns the metadata of an entry
+     *
+     * @param key The key of the entry
+     * @return Meta The metadata or null if the entry has no metadata
+     */
+    public Meta getMeta(String key) {
+        File file = new File(mDir, getFile(key).getName() + META_EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            Meta meta = new Meta();
+            meta.mETag = emptyToNull(reader.readLine());
+            meta.mLastModified = emptyToNull(reader.readLine());
+            meta.mValidated = Long.parseLong(reader.readLine());
+            return meta;
+        } catch (IOException | NumberFormatException ex) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that sets the metadata of an entry
+     *
+     * @param key The key of the entry
+     * @param meta The metadata
+     */
+    public void putMeta(String key, Meta meta) {
+        File file = new File(mDir, getFile(key).getName() + META_EXTENSION);
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write((meta.mETag == null ? "" : meta.mETag) + "\n"
+                    + (meta.mLastModified == null ? "" : meta.mLastModified) + "\n"
+                    + meta.mValidated + "\n");
+        } catch (IOException ex) {
+            Log.w(TAG, "Can't write the metadata of " + key, ex);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that marks an entry as recently used
+     *
+     * @param file The file of the entry
+     */
+    public void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        long size = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(META_EXTENSION) && !name.endsWith(TEMP_EXTENSION)) {
+                entries.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= mMaxSize) {
+            return;
+        }
+
+        // Evict the least recently used entries
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : entries) {
+            if (size <= mMaxSize) {
+                break;
+            }
+            size -= file.length();
+            file.delete();
+            new File(mDir, file.getName() + META_EXTENSION).delete();
+        }
+    }
+
+    private static String getExtension(String key) {
+        int pos = key.lastIndexOf('.');
+        if (pos == -1 || key.length() - pos > 5 || key.indexOf('/', pos) != -1) {
+            return "";
+        }
+        return key.substring(pos).toLowerCase(Locale.US);
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException ex) {
+            // Every platform has MD5 and UTF-8
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
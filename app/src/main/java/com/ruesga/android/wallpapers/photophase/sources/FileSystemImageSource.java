@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.content.Context;
+
+import com.ruesga.android.wallpapers.photophase.FileSystemPictureScanner;
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The pictures of the folders (configured by the user) scanned in the filesystem
+ */
+public class FileSystemImageSource extends LocalImageSource {
+
+    private final Context mContext;
+    private final FileSystemPictureScanner mScanner;
+
+    /**
+     * Constructor of <code>FileSystemImageSource</code>
+     *
+     * @param ctx The current context
+     */
+    public FileSystemImageSource(Context ctx) {
+        super();
+        mContext = ctx;
+        mScanner = new FileSystemPictureScanner();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled() {
+        return !Preferences.Media.getScanFolders(mContext).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accepts(String path) {
+        for (File folder : Preferences.Media.getScanFolders(mContext)) {
+            if (path.startsWith(folder.getAbsolutePath() + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int[] enumerate() throws IOException {
+        return mScanner.scan(Preferences.Media.getScanFolders(mContext)).mPictures;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Xml;
+
+import com.ruesga.android.wallpapers.photophase.PathTable;
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * The pictures of a folder shared in the local network through WebDAV (or a plain http
+ * directory listing). Pictures are downloaded to a size bounded disk cache, and revalidated
+ * with conditional requests (ETag / Last-Modified).
+ */
+public class HttpImageSource implements ImageSource {
+
+    private static final String TAG = "HttpImageSource";
+
+    private static final boolean DEBUG = false;
+
+    private static final String CACHE_DIR = "remote_pictures";
+    private static final long CACHE_SIZE = 64 * 1024 * 1024;
+
+    // Cached pictures are trusted for a while without asking the server
+    private static final long REVALIDATE_INTERVAL = 60 * 60 * 1000L;
+
+    private static final int CONNECT_TIMEOUT = 10;
+    private static final int READ_TIMEOUT = 30;
+
+    // Locks of the downloads (by url hash), so a picture is downloaded only once
+    private static final int DOWNLOAD_LOCKS = 16;
+
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".bmp", ".webp"};
+
+    private static final String PROPFIND_BODY = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<D:propfind xmlns:D=\"DAV:\"><D:prop><D:resourcetype/></D:prop></D:propfind>";
+
+    private static final Pattern HTML_LINK =
+            Pattern.compile("href\\s*=\\s*\"([^\"]+)\"", Pattern.CASE_INSENSITIVE);
+
+    private final Context mContext;
+    private final DiskCache mCache;
+    private OkHttpClient mClient;
+    private ExecutorService mPrefetcher;
+    private final Set<String> mPrefetching;
+    private final Object[] mLocks;
+
+    /**
+     * Constructor of <code>HttpImageSource</code>
+     *
+     * @param ctx The current context
+     */
+    public HttpImageSource(Context ctx) {
+        super();
+        mContext = ctx;
+        mCache = new DiskCache(new File(ctx.getCacheDir(), CACHE_DIR), CACHE_SIZE);
+        mPrefetching = new HashSet<>();
+        mLocks = new Object[DOWNLOAD_LOCKS];
+        for (int i = 0; i < mLocks.length; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled() {
+        return getFolder() != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accepts(String path) {
+        return path.startsWith("http://") || path.startsWith("https://");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] enumerate() throws IOException {
+        HttpUrl folder = getFolder();
+        if (folder == null) {
+            return new int[0];
+        }
+        long start = System.currentTimeMillis();
+
+        // Ask for the contents of the folder through WebDAV, or read the html listing
+        Set<String> links = new LinkedHashSet<>();
+        Request request = newRequest(folder)
+                .method("PROPFIND", RequestBody.create(
+                        MediaType.parse("application/xml; charset=utf-8"), PROPFIND_BODY))
+                .header("Depth", "1")
+                .build();
+        Response response = getClient().newCall(request).execute();
+        try {
+            if (response.code() == 207) {
+                parseMultiStatus(response.body(), links);
+            } else {
+                response.body().close();
+                response = getClient().newCall(newRequest(folder).build()).execute();
+                if (!response.isSuccessful()) {
+                    throw new IOException("Can't list " + strip(folder) + ": " + response.code());
+                }
+                Matcher m = HTML_LINK.matcher(response.body().string());
+                while (m.find()) {
+                    links.add(m.group(1));
+                }
+            }
+        } finally {
+            response.body().close();
+        }
+
+        PathTable paths = PathTable.getInstance();
+        IntArray pictures = new IntArray();
+        for (String link : links) {
+            HttpUrl url = folder.resolve(link);
+            if (url != null && url.host().equals(folder.host()) && isPicture(url)) {
+                pictures.add(paths.intern(strip(url).toString()));
+            }
+        }
+
+        long end = System.currentTimeMillis();
+        if (DEBUG) Log.v(TAG, "Listed " + pictures.size() + " pictures of " + strip(folder)
+                + " in " + (end - start) + " milliseconds");
+        return pictures.toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new FileInputStream(getFile(path));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stat stat(String path) throws IOException {
+        Response response = getClient().newCall(newRequest(HttpUrl.parse(path)).head().build())
+                .execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Can't access " + path + ": " + response.code());
+            }
+            Stat stat = new Stat();
+            String length = response.header("Content-Length");
+            stat.mSize = length == null ? -1 : Long.parseLong(length);
+            Date modified = response.headers().getDate("Last-Modified");
+            stat.mModified = modified == null ? 0 : modified.getTime();
+            return stat;
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid length of " + path);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public File getFile(String path) throws IOException {
+        synchronized (mLocks[(path.hashCode() & 0x7fffffff) % mLocks.length]) {
+            File file = mCache.getFile(path);
+            DiskCache.Meta meta = file.isFile() ? mCache.getMeta(path) : null;
+            long now = System.currentTimeMillis();
+            if (meta != null && now - meta.mValidated < REVALIDATE_INTERVAL) {
+                mCache.touch(file);
+                return file;
+            }
+
+            // Only download the picture if it changed
+            Request.Builder builder = newRequest(HttpUrl.parse(path));
+            if (meta != null && meta.mETag != null) {
+                builder.header("If-None-Match", meta.mETag);
+            }
+            if (meta != null && meta.mLastModified != null) {
+                builder.header("If-Modified-Since", meta.mLastModified);
+            }
+            Response response;
+            try {
+                response = getClient().newCall(builder.build()).execute();
+            } catch (IOException ex) {
+                if (meta != null) {
+                    // The server is not reachable. Use the cached version meanwhile
+                    Log.w(TAG, "Can't revalidate " + path + ". Using the cached picture");
+                    return file;
+                }
+                throw ex;
+            }
+            try {
+                if (response.code() == 304 && meta != null) {
+                    if (DEBUG) Log.v(TAG, "Not modified: " + path);
+                    meta.mValidated = now;
+                    mCache.putMeta(path, meta);
+                    mCache.touch(file);
+                    return file;
+                }
+                if (response.code() == 404 || response.code() == 410) {
+                    // Only this picture is gone; the server is fine
+                    throw new FileNotFoundException("Can't download " + path + ": "
+                            + response.code());
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Can't download " + path + ": " + response.code());
+                }
+
+                File temp = mCache.getTempFile(path);
+                BufferedSink sink = Okio.buffer(Okio.sink(temp));
+                try {
+                    sink.writeAll(response.body().source());
+                } finally {
+                    sink.close();
+                }
+                DiskCache.Meta newMeta = new DiskCache.Meta();
+                newMeta.mETag = response.header("ETag");
+                newMeta.mLastModified = response.header("Last-Modified");
+                newMeta.mValidated = now;
+                if (DEBUG) Log.v(TAG, "Downloaded " + path + " (" + temp.length() + " bytes)");
+                return mCache.commit(path, temp, newMeta);
+            } finally {
+                response.body().close();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prefetch(List<String> paths) {
+        for (final String path : paths) {
+            synchronized (mPrefetching) {
+                if (!mPrefetching.add(path)) {
+                    continue;
+                }
+            }
+            getPrefetcher().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getFile(path);
+                    } catch (IOException ex) {
+                        // Reported (and the source suspended) when the picture is loaded
+                        if (DEBUG) Log.v(TAG, "Can't prefetch " + path, ex);
+                    } finally {
+                        synchronized (mPrefetching) {
+                            mPrefetching.remove(path);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        HttpUrl folder = getFolder();
+        return "HttpImageSource [folder: " + (folder == null ? null : strip(folder)) + "]";
+    }
+
+    private synchronized OkHttpClient getClient() {
+        // Created the first time a remote folder is accessed
+        if (mClient == null) {
+            mClient = new OkHttpClient.Builder()
+                    .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                    .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+                    .build();
+        }
+        return mClient;
+    }
+
+    private synchronized ExecutorService getPrefetcher() {
+        if (mPrefetcher == null) {
+            mPrefetcher = Executors.newSingleThreadExecutor();
+        }
+        return mPrefetcher;
+    }
+
+    private HttpUrl getFolder() {
+        String folder = Preferences.Media.getRemoteFolder(mContext);
+        if (TextUtils.isEmpty(folder)) {
+            return null;
+        }
+        if (!folder.endsWith("/")) {
+            // So the links of the listing are resolved inside the folder
+            folder += "/";
+        }
+        return HttpUrl.parse(folder);
+    }
+
+    private Request.Builder newRequest(HttpUrl url) throws IOException {
+        if (url == null) {
+            throw new IOException("Invalid url");
+        }
+        Request.Builder builder = new Request.Builder().url(strip(url));
+        HttpUrl folder = getFolder();
+        if (folder != null && !folder.username().isEmpty()
+                && folder.host().equals(url.host())) {
+            builder.header("Authorization",
+                    Credentials.basic(folder.username(), folder.password()));
+        }
+        return builder;
+    }
+
+    private void parseMultiStatus(ResponseBody body, Set<String> links) throws IOException {
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(body.byteStream(), null);
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG && "href".equals(parser.getName())) {
+                    String href = parser.nextText();
+                    if (href != null) {
+                        links.add(href.trim());
+                    }
+                }
+            }
+        } catch (XmlPullParserException ex) {
+            throw new IOException("Invalid WebDAV response", ex);
+        }
+    }
+
+    private static boolean isPicture(HttpUrl url) {
+        String path = url.encodedPath().toLowerCase(Locale.US);
+        for (String ext : EXTENSIONS) {
+            if (path.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HttpUrl strip(HttpUrl url) {
+        // Credentials never leave the preference (paths are logged and displayed)
+        return url.newBuilder().username("").password("").build();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A source of pictures. Pictures are identified by their path (an absolute file path or an
+ * url), and are interned in the {@link com.ruesga.android.wallpapers.photophase.PathTable}
+ * like any other picture.
+ */
+public interface ImageSource {
+
+    /**
+     * The metadata of a picture
+     */
+    class Stat {
+        public long mSize;
+        public long mModified;
+    }
+
+    /**
+     * Method that returns if the source is configured and must be enumerated
+     *
+     * @return boolean If the source is enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Method that returns if the pictures of the source are local files
+     *
+     * @return boolean If the pictures are local files
+     */
+    boolean isLocal();
+
+    /**
+     * Method that returns if a picture belongs to this source
+     *
+     * @param path The path of the picture
+     * @return boolean If the picture belongs to this source
+     */
+    boolean accepts(String path);
+
+    /**
+     * Method that enumerates all the pictures of the source
+     *
+     * @return int[] The {@link com.ruesga.android.wallpapers.photophase.PathTable} ids of
+     *         the pictures
+     * @throws IOException If the pictures can't be enumerated
+     */
+    int[] enumerate() throws IOException;
+
+    /**
+     * Method that opens a picture
+     *
+     * @param path The path of the picture
+     * @return InputStream The stream of the picture
+     * @throws IOException If the picture can't be opened
+     */
+    InputStream open(String path) throws IOException;
+
+    /**
+     * Method that returns the metadata of a picture
+     *
+     * @param path The path of the picture
+     * @return Stat The metadata of the picture
+     * @throws IOException If the picture can't be accessed
+     */
+    Stat stat(String path) throws IOException;
+
+    /**
+     * Method that returns a local file with the contents of a picture (the picture itself
+     * or a cached copy), so it can be decoded like any other picture
+     *
+     * @param path The path of the picture
+     * @return File The local file
+     * @throws IOException If the picture can't be accessed
+     */
+    File getFile(String path) throws IOException;
+
+    /**
+     * Method that requests the pictures that will be displayed soon, in background
+     *
+     * @param paths The paths of the pictures
+     */
+    void prefetch(List<String> paths);
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registry of the sources of pictures. Pictures are routed to their source by path.
+ * A remote source that can't be reached is suspended for a while (longer every time it
+ * fails again), so its pictures are skipped instead of retried against an offline server.
+ */
+public class ImageSources {
+
+    private static final String TAG = "ImageSources";
+
+    // The time a failing source is suspended the first time, and at most (in milliseconds)
+    private static final long MIN_SUSPEND_TIME = 30000L;
+    private static final long MAX_SUSPEND_TIME = 30 * 60000L;
+
+    /**
+     * The suspension of a failing source
+     */
+    private static class Suspension {
+        long mUntil;
+        long mTime;
+    }
+
+    private static ImageSources sInstance;
+
+    private final MediaStoreImageSource mMediaStore;
+    private final FileSystemImageSource mFileSystem;
+    private final HttpImageSource mHttp;
+
+    // In routing order (the media store accepts any local path)
+    private final List<ImageSource> mSources;
+
+    private final Map<ImageSource, Suspension> mSuspensions = new HashMap<>();
+
+    /**
+     * Method that returns the registry of sources
+     *
+     * @param ctx The current context
+     * @return ImageSources The registry of sources
+     */
+    public synchronized static ImageSources getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new ImageSources(ctx.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageSources(Context ctx) {
+        super();
+        mMediaStore = new MediaStoreImageSource(ctx);
+        mFileSystem = new FileSystemImageSource(ctx);
+        mHttp = new HttpImageSource(ctx);
+        mSources = Arrays.<ImageSource>asList(mHttp, mFileSystem, mMediaStore);
+    }
+
+    /**
+     * Method that returns the sources enumerated by the discovery besides the media store
+     * (whose pictures are selected by album)
+     *
+     * @return List<ImageSource> The sources
+     */
+    public List<ImageSource> getDiscoverableSources() {
+        List<ImageSource> sources = new ArrayList<>(2);
+        sources.add(mFileSystem);
+        sources.add(mHttp);
+        return sources;
+    }
+
+    /**
+     * Method that returns the source of a picture
+     *
+     * @param path The path of the picture
+     * @return ImageSource The source of the picture
+     * @throws IOException If no source accepts the picture
+     */
+    public ImageSource getSource(String path) throws IOException {
+        for (ImageSource source : mSources) {
+            if (source.accepts(path)) {
+                return source;
+            }
+        }
+        throw new IOException("No source for " + path);
+    }
+
+    /**
+     * Method that returns if a picture is provided by a discoverable source, so it doesn't
+     * depend on the selection of albums and pictures
+     *
+     * @param path The path of the picture
+     * @return boolean If the picture is provided by a discoverable source
+     */
+    public boolean isDiscoverablePicture(String path) {
+        for (ImageSource source : getDiscoverableSources()) {
+            if (source.accepts(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method that returns if a picture is a local file
+     *
+     * @param path The path of the picture
+     * @return boolean If the picture is a local file
+     */
+    public boolean isLocal(String path) {
+        try {
+            return getSource(path).isLocal();
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Method that returns a local file with the contents of a picture
+     *
+     * @param path The path of the picture
+     * @return File The local file
+     * @throws IOException If the picture can't be accessed
+     */
+    public File getFile(String path) throws IOException {
+        ImageSource source = getSource(path);
+        try {
+            File file = source.getFile(path);
+            onSourceSucceeded(source);
+            return file;
+        } catch (FileNotFoundException ex) {
+            // Only this picture is missing
+            throw ex;
+        } catch (IOException ex) {
+            onSourceFailed(source);
+            throw ex;
+        }
+    }
+
+    /**
+     * Method that returns the time the source of a picture is still suspended
+     *
+     * @param path The path of the picture
+     * @return long The remaining time in milliseconds (0 if the source isn't suspended)
+     */
+    public long getSuspendedTime(String path) {
+        try {
+            return getSuspendedTime(getSource(path));
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Method that returns the time a source is still suspended
+     *
+     * @param source The source
+     * @return long The remaining time in milliseconds (0 if the source isn't suspended)
+     */
+    public synchronized long getSuspendedTime(ImageSource source) {
+        Suspension suspension = mSuspensions.get(source);
+        if (suspension == null) {
+            return 0;
+        }
+        return Math.max(0, suspension.mUntil - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Method that records that a source can't be reached, and suspends it
+     *
+     * @param source The source
+     */
+    public synchronized void onSourceFailed(ImageSource source) {
+        if (source.isLocal()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        Suspension suspension = mSuspensions.get(source);
+        if (suspension == null) {
+            suspension = new Suspension();
+            mSuspensions.put(source, suspension);
+        } else if (now < suspension.mUntil) {
+            // Already suspended (a request that started before the suspension)
+            return;
+        }
+        suspension.mTime = suspension.mTime == 0
+                ? MIN_SUSPEND_TIME : Math.min(suspension.mTime * 2, MAX_SUSPEND_TIME);
+        suspension.mUntil = now + suspension.mTime;
+        Log.w(TAG, "Can't reach " + source + ". Suspended for "
+                + (suspension.mTime / 1000) + " seconds");
+    }
+
+    /**
+     * Method that records that a source was reached, and resumes it
+     *
+     * @param source The source
+     */
+    public synchronized void onSourceSucceeded(ImageSource source) {
+        if (mSuspensions.remove(source) != null) {
+            Log.i(TAG, "Resumed " + source);
+        }
+    }
+
+    /**
+     * Method that opens a picture
+     *
+     * @param path The path of the picture
+     * @return InputStream The stream of the picture
+     * @throws IOException If the picture can't be opened
+     */
+    public InputStream open(String path) throws IOException {
+        return getSource(path).open(path);
+    }
+
+    /**
+     * Method that requests the pictures that will be displayed soon to their sources
+     *
+     * @param paths The paths of the pictures
+     */
+    public void prefetch(List<String> paths) {
+        List<String> remote = new ArrayList<>(paths.size());
+        if (getSuspendedTime(mHttp) > 0) {
+            return;
+        }
+        for (String path : paths) {
+            if (mHttp.accepts(path)) {
+                remote.add(path);
+            }
+        }
+        if (!remote.isEmpty()) {
+            mHttp.prefetch(remote);
+        }
+    }
+}
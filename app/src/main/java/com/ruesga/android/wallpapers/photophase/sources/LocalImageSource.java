@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The base class of the sources of pictures stored in the device
+ */
+public abstract class LocalImageSource implements ImageSource {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new FileInputStream(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stat stat(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(path);
+        }
+        Stat stat = new Stat();
+        stat.mSize = file.length();
+        stat.mModified = file.lastModified();
+        return stat;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public File getFile(String path) throws IOException {
+        return new File(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prefetch(List<String> paths) {
+        // Local pictures are warmed by the read-ahead of the texture manager
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import com.ruesga.android.wallpapers.photophase.PathTable;
+import com.ruesga.android.wallpapers.photophase.utils.IntArray;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The pictures indexed by the media store. The selection of albums and pictures, and the
+ * incremental discovery, are handled by the
+ * {@link com.ruesga.android.wallpapers.photophase.MediaPictureDiscoverer}.
+ */
+public class MediaStoreImageSource extends LocalImageSource {
+
+    private final Context mContext;
+
+    /**
+     * Constructor of <code>MediaStoreImageSource</code>
+     *
+     * @param ctx The current context
+     */
+    public MediaStoreImageSource(Context ctx) {
+        super();
+        mContext = ctx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accepts(String path) {
+        return path.startsWith(File.separator);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] enumerate() throws IOException {
+        PathTable paths = PathTable.getInstance();
+        IntArray pictures = new IntArray();
+        Cursor c = mContext.getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Images.ImageColumns.DATA},
+                MediaStore.Images.ImageColumns.DATA + " IS NOT NULL", null, null);
+        if (c == null) {
+            throw new IOException("Media store is not available");
+        }
+        try {
+            while (c.moveToNext()) {
+                pictures.add(paths.intern(c.getString(0)));
+            }
+        } finally {
+            c.close();
+        }
+        return pictures.toArray();
+    }
+}
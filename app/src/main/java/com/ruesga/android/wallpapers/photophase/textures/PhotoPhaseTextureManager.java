@@ -23,40 +23,56 @@ import android.graphics.RectF;
 import android.media.effect.EffectContext;
 import android.opengl.GLES20;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.ruesga.android.wallpapers.photophase.FixedQueue;
 import com.ruesga.android.wallpapers.photophase.FixedQueue.EmptyQueueException;
 import com.ruesga.android.wallpapers.photophase.GLESSurfaceDispatcher;
+import com.ruesga.android.wallpapers.photophase.MediaIndex;
 import com.ruesga.android.wallpapers.photophase.MediaPictureDiscoverer;
 import com.ruesga.android.wallpapers.photophase.MediaPictureDiscoverer.OnMediaPictureDiscoveredListener;
+import com.ruesga.android.wallpapers.photophase.PathTable;
+import com.ruesga.android.wallpapers.photophase.PictureSequence;
 import com.ruesga.android.wallpapers.photophase.R;
+import com.ruesga.android.wallpapers.photophase.SelectionStore;
+import com.ruesga.android.wallpapers.photophase.SelectionStore.OnSelectionChangedListener;
 import com.ruesga.android.wallpapers.photophase.borders.Borders;
+import com.ruesga.android.wallpapers.photophase.decoder.PictureDecoder;
 import com.ruesga.android.wallpapers.photophase.effects.Effects;
 import com.ruesga.android.wallpapers.photophase.model.Disposition;
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+import com.ruesga.android.wallpapers.photophase.sources.ImageSources;
 import com.ruesga.android.wallpapers.photophase.utils.BitmapUtils;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLESTextureInfo;
-import com.ruesga.android.wallpapers.photophase.utils.Utils;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A class that manages the acquisition of new textures.
  */
 public class PhotoPhaseTextureManager extends TextureManager
-        implements OnMediaPictureDiscoveredListener {
+        implements OnMediaPictureDiscoveredListener, OnSelectionChangedListener {
 
     private static final String TAG = "TextureManager";
 
     private static final int QUEUE_SIZE = 1;
 
+    // The number of upcoming pictures to read ahead and the maximum bytes to read for them
+    private static final int READ_AHEAD_PICTURES = 3;
+    private static final long READ_AHEAD_BYTE_BUDGET = 24 * 1024 * 1024;
+
+    // Log the heap used by the paths of a big library when the manager is created
+    private static final boolean DEBUG_PATH_TABLE_BENCHMARK = false;
+    private static final int PATH_TABLE_BENCHMARK_ENTRIES = 200000;
+
     private final Context mContext;
     private final Handler mHandler;
     private final Object mEffectsSync = new Object();
@@ -67,9 +83,20 @@ public class PhotoPhaseTextureManager extends TextureManager
     private final FixedQueue<GLESTextureInfo> mQueue = new FixedQueue<>(QUEUE_SIZE);
     private BackgroundPictureLoaderThread mBackgroundTask;
     private final MediaPictureDiscoverer mPictureDiscoverer;
+    private final PathTable mPaths;
+    private final SelectionStore mSelection;
+    private final ImageSources mSources;
+
+    // Time to first photo
+    private final long mStartTime;
+    private boolean mFirstPictureApplied;
+    private final PictureReadAhead mReadAhead;
+    private final PictureDecoder mDecoder;
 
     private Rect mScreenDimensions;
-    private Rect mDimensions;
+    private volatile Rect mDimensions;
+    private volatile float mTextureScale = 1.0f;
+    private volatile boolean mEffectsAllowed = true;
 
     private final GLESSurfaceDispatcher mDispatcher;
 
@@ -80,7 +107,8 @@ public class PhotoPhaseTextureManager extends TextureManager
     private byte mStatus;
 
     /**
-     * A private runnable that will run in the GLThread
+     * A private runnable that will run in the GLThread. The picture is already decoded
+     * by the loader thread, so only the texture is handled here
      */
     private class PictureDispatcher implements Runnable {
         File mImage;
@@ -93,9 +121,6 @@ public class PhotoPhaseTextureManager extends TextureManager
         @Override
         public void run() {
             try {
-                // Load the bitmap and create a fake gles information
-                ti = GLESUtil.loadFadeTexture(mImage, mDimensions);
-
                 boolean enqueue;
                 synchronized (mSync) {
                     enqueue = mPendingRequests.size() == 0;
@@ -141,6 +166,7 @@ public class PhotoPhaseTextureManager extends TextureManager
             final EffectContext effectCtx, GLESSurfaceDispatcher dispatcher,
             int requestors, Rect screenDimensions) {
         super();
+        mStartTime = SystemClock.elapsedRealtime();
         mContext = ctx;
         mHandler = handler;
         mEffects = new Effects(ctx, effectCtx);
@@ -151,6 +177,17 @@ public class PhotoPhaseTextureManager extends TextureManager
         mSync = new Object();
         mPendingRequests = new ArrayList<>(requestors);
         mPictureDiscoverer = new MediaPictureDiscoverer(mContext);
+        mPaths = PathTable.getInstance();
+        mSelection = SelectionStore.getInstance(mContext);
+        mSelection.addOnSelectionChangedListener(this);
+        mSources = ImageSources.getInstance(mContext);
+        if (DEBUG_PATH_TABLE_BENCHMARK) {
+            PathTable.benchmark(PATH_TABLE_BENCHMARK_ENTRIES);
+        }
+        mReadAhead = ctx.getResources().getBoolean(R.bool.config_picture_read_ahead)
+                ? new PictureReadAhead(READ_AHEAD_BYTE_BUDGET) : null;
+        mDecoder = ctx.getResources().getBoolean(R.bool.config_out_of_process_decoder)
+                ? new PictureDecoder(ctx) : null;
 
         // Run the media discovery thread
         mBackgroundTask = new BackgroundPictureLoaderThread();
@@ -197,6 +234,25 @@ public class PhotoPhaseTextureManager extends TextureManager
         mScreenDimensions = dimensions;
     }
 
+    /**
+     * Method that allow to scale the textures loaded from now on (below the dimensions of
+     * the screen)
+     *
+     * @param scale The scale of the textures (0 to 1)
+     */
+    public void setTextureScale(float scale) {
+        mTextureScale = scale;
+    }
+
+    /**
+     * Method that allow to disable the effects of the pictures loaded from now on
+     *
+     * @param allowed If the effects are allowed
+     */
+    public void setEffectsAllowed(boolean allowed) {
+        mEffectsAllowed = allowed;
+    }
+
     /**
      * Method that returns if the texture manager is paused
      *
@@ -276,8 +332,7 @@ public class PhotoPhaseTextureManager extends TextureManager
                             Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                                     + info.handle + "]");
                         }
-                        GLES20.glDeleteTextures(1, textures, 0);
-                        GLESUtil.glesCheckError("glDeleteTextures");
+                        GLESUtil.glesGetState().deleteTextures(1, textures, 0);
                     }
                     // Return the bitmap
                     info.bitmap.recycle();
@@ -309,7 +364,6 @@ public class PhotoPhaseTextureManager extends TextureManager
      *
      * @param requestor The requestor of the texture
      */
-    @SuppressWarnings("unused")
     public void cancelRequest(TextureRequestor requestor) {
         synchronized (mSync) {
             if (mPendingRequests.contains(requestor)) {
@@ -326,7 +380,7 @@ public class PhotoPhaseTextureManager extends TextureManager
         // No images but thread should start here to received partial data
         this.mStatus = 0; // Loading
         if (mBackgroundTask != null) {
-            mBackgroundTask.setAvailableImages(new File[]{});
+            mBackgroundTask.setAvailableImages(new int[0]);
             if (!mBackgroundTask.mRun) {
                 mBackgroundTask.start();
             } else {
@@ -341,7 +395,7 @@ public class PhotoPhaseTextureManager extends TextureManager
      * {@inheritDoc}
      */
     @Override
-    public void onPartialMediaDiscovered(File[] images, boolean userRequest) {
+    public void onPartialMediaDiscovered(int[] images, boolean userRequest) {
         if (mBackgroundTask != null) {
             mBackgroundTask.setPartialAvailableImages(images);
         }
@@ -352,7 +406,7 @@ public class PhotoPhaseTextureManager extends TextureManager
      */
     @Override
     @SuppressWarnings("boxing")
-    public void onEndMediaDiscovered(File[] images, boolean userRequest) {
+    public void onEndMediaDiscovered(int[] images, boolean userRequest) {
         // Now we have the paths of the images to use. Notify to the thread to
         // load pictures in background
         if (mBackgroundTask != null) {
@@ -376,12 +430,49 @@ public class PhotoPhaseTextureManager extends TextureManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDeltaMediaDiscovered(int[] added, int[] removed, boolean userRequest) {
+        if (mBackgroundTask != null) {
+            mBackgroundTask.applyImagesChanges(added, removed);
+            synchronized (mBackgroundTask.mLoadSync) {
+                mBackgroundTask.mLoadSync.notify();
+            }
+            this.mStatus = 1; // Loaded
+
+            // Audit
+            Log.d(TAG, "Media picture data updated: " + added.length + " images added, "
+                    + removed.length + " images removed.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSelectionChanged(Set<String> added, Set<String> removed) {
+        // Added pictures must wait for the next discovery, but deselected ones can be
+        // skipped right now
+        if (mBackgroundTask != null && !removed.isEmpty()) {
+            mBackgroundTask.checkSelection();
+        }
+    }
+
     /**
      * Method that destroy the references of this class
      */
     public void recycle() {
         // Destroy the media discovery task
+        mSelection.removeOnSelectionChangedListener(this);
         mPictureDiscoverer.recycle();
+        if (mReadAhead != null) {
+            mReadAhead.release();
+        }
+        if (mDecoder != null) {
+            mDecoder.release();
+        }
         synchronized (mEffectsSync) {
             if (mEffects != null) {
                 mEffects.release();
@@ -432,17 +523,23 @@ public class PhotoPhaseTextureManager extends TextureManager
      * @param ti The original texture information (the one with the bitmap one)
      */
     private void applyToRequestor(TextureRequestor requestor, GLESTextureInfo ti) {
+        if (!mFirstPictureApplied && ti.path != null) {
+            mFirstPictureApplied = true;
+            Log.i(TAG, "Time to first photo: " + (SystemClock.elapsedRealtime() - mStartTime)
+                    + " ms");
+        }
+
         // Transform requestor dimensions to screen dimensions
         RectF dimens = requestor.getRequestorDimensions();
-        Rect pixels = new Rect(
+        Rect pixels = getScaledDimensions(new Rect(
                 0,
                 0,
                 (int)(mScreenDimensions.width() * dimens.width() / 2),
-                (int)(mScreenDimensions.height() * dimens.height() / 2));
+                (int)(mScreenDimensions.height() * dimens.height() / 2)));
 
         final Disposition disposition = requestor.getDisposition();
         synchronized (mEffectsSync) {
-            if (disposition.hasFlag(Disposition.EFFECT_FLAG)) {
+            if (disposition.hasFlag(Disposition.EFFECT_FLAG) && mEffectsAllowed) {
                 ti.effect = mEffects.getNextEffect();
             }
             if (disposition.hasFlag(Disposition.BORDER_FLAG)) {
@@ -493,6 +590,21 @@ public class PhotoPhaseTextureManager extends TextureManager
         }
     }
 
+    /**
+     * Method that applies the texture scale to some dimensions
+     *
+     * @param dimensions The dimensions
+     * @return Rect The scaled dimensions
+     */
+    private Rect getScaledDimensions(Rect dimensions) {
+        float scale = mTextureScale;
+        if (scale >= 1.0f) {
+            return dimensions;
+        }
+        return new Rect(0, 0, Math.max(1, Math.round(dimensions.width() * scale)),
+                Math.max(1, Math.round(dimensions.height() * scale)));
+    }
+
     /**
      * An internal thread to load pictures in background
      */
@@ -503,16 +615,22 @@ public class PhotoPhaseTextureManager extends TextureManager
         boolean mTaskPaused;
 
         boolean mEmpty;
-        private final List<File> mNewImages;
-        private final List<File> mUsedImages;
+        // The ids (of the PathTable) of the images
+        private final ShuffleBag mImages;
+        private final List<Integer> mUpcomingImages;
+        // Whether the images must be checked against the selection (until the next
+        // discovery)
+        private boolean mCheckSelection;
+        // The images skipped in a row because their source is suspended
+        private int mSkippedImages;
 
         /**
          * Constructor of <code>BackgroundPictureLoaderThread</code>.
          */
         public BackgroundPictureLoaderThread() {
             super();
-            mNewImages = new ArrayList<>();
-            mUsedImages = new ArrayList<>();
+            mImages = new ShuffleBag(PictureSequence.getInstance());
+            mUpcomingImages = new ArrayList<>(READ_AHEAD_PICTURES);
         }
 
         /**
@@ -520,48 +638,122 @@ public class PhotoPhaseTextureManager extends TextureManager
          *
          * @param images The current images
          */
-        public void setAvailableImages(File[] images) {
+        public void setAvailableImages(int[] images) {
             synchronized (mLoadSync) {
-                List<File> filtered = new ArrayList<>(Arrays.asList(images));
-                mUsedImages.retainAll(filtered);
-                filtered.removeAll(mUsedImages);
-                mNewImages.clear();
-                mNewImages.addAll(filtered);
-
-                // Retain used images
-                int count = mUsedImages.size() - 1;
-                for (int i = count; i >= 0; i--) {
-                    File image = mUsedImages.get(i);
-                    if (!mNewImages.contains(image)) {
-                        mUsedImages.remove(image);
-                    } else {
-                        mNewImages.remove(image);
-                    }
-                }
+                // Upcoming images weren't displayed yet. Return them to the bag
+                returnUpcomingImages();
 
+                // Retain used images, remove the deleted ones and add the new ones
+                mImages.reconcile(images);
                 mEmpty = images.length == 0;
+                mCheckSelection = false;
+            }
+        }
+
+        /**
+         * Method that checks the images against the current selection before displaying
+         * them, until the next discovery.
+         */
+        public void checkSelection() {
+            synchronized (mLoadSync) {
+                returnUpcomingImages();
+                mCheckSelection = true;
             }
         }
 
+        /**
+         * Method that returns if an image is still selected
+         *
+         * @param image The image
+         * @return boolean If the image or its album are selected
+         */
+        private boolean isSelected(int image) {
+            String path = mPaths.getPath(image);
+            // Pictures of other sources than the media store don't depend on the selection
+            return mSelection.isSelected(mPaths.getAlbum(image)) || mSelection.isSelected(path)
+                    || mSources.isDiscoverablePicture(path);
+        }
+
         /**
          * Method that adds some available images.
          *
          * @param images The current images
          */
-        public void setPartialAvailableImages(File[] images) {
+        public void setPartialAvailableImages(int[] images) {
             synchronized (mLoadSync) {
-                mNewImages.addAll(Arrays.asList(images));
+                for (int image : images) {
+                    mImages.add(image);
+                }
                 mEmpty = images.length == 0;
             }
         }
 
+        /**
+         * Method that applies the changes of the available images.
+         *
+         * @param added The added images
+         * @param removed The removed images
+         */
+        public void applyImagesChanges(int[] added, int[] removed) {
+            synchronized (mLoadSync) {
+                for (int image : removed) {
+                    mImages.remove(image);
+                    mUpcomingImages.remove(Integer.valueOf(image));
+                }
+                for (int image : added) {
+                    mImages.add(image);
+                }
+                mEmpty = mImages.size() == 0;
+            }
+        }
+
         /**
          * Method that reset the current available images queue.
          */
         public void resetAvailableImages() {
             synchronized (mLoadSync) {
-                mNewImages.addAll(mUsedImages);
-                mUsedImages.clear();
+                mUpcomingImages.clear();
+                mImages.rewind();
+            }
+        }
+
+        /**
+         * Method that returns the upcoming images to the bag, preserving its sequence. Must
+         * be called with the load lock held.
+         */
+        private void returnUpcomingImages() {
+            for (int i = mUpcomingImages.size() - 1; i >= 0; i--) {
+                mImages.putBack(mUpcomingImages.get(i));
+            }
+            mUpcomingImages.clear();
+        }
+
+        /**
+         * Method that fills the list of the next images to display. Must be called with
+         * the load lock held.
+         */
+        private void fillUpcomingImages() {
+            boolean random = Preferences.Media.isRandomSequence(mContext);
+            while (mUpcomingImages.size() < READ_AHEAD_PICTURES) {
+                // Extract a random or sequential image
+                int image = mImages.pick(random);
+                if (image == -1) {
+                    // Start a new round (but only when all the planned images were used)
+                    if (mUpcomingImages.size() > 0) {
+                        break;
+                    }
+                    mImages.rewind();
+                    image = mImages.pick(random);
+                }
+                if (image == -1) {
+                    break;
+                }
+                if (mCheckSelection && !isSelected(image)) {
+                    // Deselected since the last discovery
+                    mImages.remove(image);
+                    continue;
+                }
+                mUpcomingImages.add(image);
             }
         }
 
@@ -575,37 +767,85 @@ public class PhotoPhaseTextureManager extends TextureManager
                 // Check if we need to load more images
                 while (!mTaskPaused && PhotoPhaseTextureManager.this.mQueue.items() <
                         PhotoPhaseTextureManager.this.mQueue.size()) {
-                    File image;
+                    String path;
+                    List<String> upcoming;
+                    int images;
                     synchronized (mLoadSync) {
-                        // Swap arrays if needed
-                        if (mNewImages.size() == 0) {
-                            mNewImages.addAll(mUsedImages);
-                            mUsedImages.clear();
-                        }
-                        if (mNewImages.size() == 0) {
+                        fillUpcomingImages();
+                        if (mUpcomingImages.size() == 0) {
                             if (!mEmpty) {
                                 reloadMedia(false);
                             }
                             break;
                         }
 
-                        // Extract a random or sequential image
-                        int low = 0;
-                        int high = mNewImages.size() - 1;
-                        if (Preferences.Media.isRandomSequence(mContext)) {
-                            image = mNewImages.remove(Utils.getNextRandom(low, high));
-                        } else {
-                            image = mNewImages.remove(0);
+                        // Extract the next image (it was already picked from the bag)
+                        path = mPaths.getPath(mUpcomingImages.remove(0));
+                        images = mImages.size() + mUpcomingImages.size();
+
+                        // Plan the next ones
+                        fillUpcomingImages();
+                        upcoming = new ArrayList<>(mUpcomingImages.size());
+                        for (int id : mUpcomingImages) {
+                            upcoming.add(mPaths.getPath(id));
+                        }
+                    }
+
+                    // Skip the images of the sources that can't be reached. If none of the
+                    // images can be loaded, wait until the source is resumed
+                    long suspended = mSources.getSuspendedTime(path);
+                    if (suspended > 0) {
+                        if (++mSkippedImages > images) {
+                            mSkippedImages = 0;
+                            synchronized (mLoadSync) {
+                                try {
+                                    mLoadSync.wait(suspended);
+                                } catch (InterruptedException e) {
+                                    // Ignore
+                                }
+                            }
+                        }
+                        continue;
+                    }
+                    mSkippedImages = 0;
+
+                    // Fetch the remote images and warm the local ones while this one
+                    // is decoded
+                    mSources.prefetch(upcoming);
+                    if (mReadAhead != null) {
+                        List<File> local = new ArrayList<>(upcoming.size());
+                        for (String p : upcoming) {
+                            if (mSources.isLocal(p)) {
+                                local.add(new File(p));
+                            }
                         }
+                        mReadAhead.readAhead(local);
+                    }
 
-                        // Add to used images
-                        mUsedImages.add(image);
+                    // Remote images are decoded from their cached copy
+                    File image;
+                    try {
+                        image = mSources.getFile(path);
+                    } catch (IOException ex) {
+                        Log.w(TAG, "Can't access the picture " + path, ex);
+                        continue;
                     }
 
-                    // Run commands in the GLThread
+                    // Decode the picture in this thread (the decoder could wait for its
+                    // service) and create a fake gles information
                     if (!mRun) break;
                     PictureDispatcher pd = new PictureDispatcher();
                     pd.mImage = image;
+                    pd.ti = GLESUtil.loadFadeTexture(image, getScaledDimensions(mDimensions),
+                            mDecoder);
+
+                    // Run commands in the GLThread
+                    if (!mRun) {
+                        if (pd.ti.bitmap != null) {
+                            pd.ti.bitmap.recycle();
+                        }
+                        break;
+                    }
                     mDispatcher.dispatch(pd);
 
                     // Wait until the texture is loaded
@@ -616,6 +856,9 @@ public class PhotoPhaseTextureManager extends TextureManager
                     } catch (Exception e) {
                         // Ignore
                     }
+
+                    // Record it in the media index (it will be shown next)
+                    MediaIndex.getInstance(mContext).markShown(path);
                 }
 
                 // Wait for new request
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.textures;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that warms the next pictures to be displayed into the kernel page cache, so
+ * decoding them doesn't have to wait for slow storages (SD cards, old eMMC, ...). The files
+ * are read sequentially in low priority threads, within a byte budget. The number of
+ * concurrent reads adapts to the measured throughput of the storage.
+ */
+public class PictureReadAhead {
+
+    private static final String TAG = "PictureReadAhead";
+
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_CONCURRENCY = 3;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_WARMED_FILES = 32;
+
+    // Don't take decisions over tiny reads (they are served by the cache or are just noise)
+    private static final long MIN_SAMPLE_BYTES = 512 * 1024;
+    private static final float THROUGHPUT_THRESHOLD = 0.1f;
+
+    private final long mByteBudget;
+    private final ExecutorService mExecutor;
+    private final byte[][] mBuffers = new byte[MAX_CONCURRENCY][];
+
+    private final Object mSync = new Object();
+    private final Map<String, Long> mWarmed;
+    private List<File> mPending;
+    private boolean mBusy;
+    private boolean mReleased;
+
+    private int mConcurrency = 1;
+    private int mDirection = 1;
+    private double mLastThroughput;
+
+    /**
+     * Constructor of <code>PictureReadAhead</code>
+     *
+     * @param byteBudget The maximum number of bytes to read ahead in every request
+     */
+    public PictureReadAhead(long byteBudget) {
+        super();
+        mByteBudget = byteBudget;
+        mWarmed = new LinkedHashMap<String, Long>(MAX_WARMED_FILES, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_WARMED_FILES;
+            }
+        };
+        mExecutor = Executors.newFixedThreadPool(MAX_CONCURRENCY, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        r.run();
+                    }
+                }, TAG + "#" + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Method that requests to warm the passed pictures. If a previous request is still
+     * running, only the last request is kept and processed when it ends.
+     *
+     * @param pictures The next pictures to be displayed, in display order
+     */
+    public void readAhead(List<File> pictures) {
+        synchronized (mSync) {
+            if (mReleased) {
+                return;
+            }
+            if (mBusy) {
+                mPending = pictures;
+                return;
+            }
+            mBusy = true;
+        }
+        schedule(pictures);
+    }
+
+    /**
+     * Method that stops all the pending reads and destroy the references of this class
+     */
+    public void release() {
+        synchronized (mSync) {
+            mReleased = true;
+            mPending = null;
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void schedule(List<File> pictures) {
+        // Select the files to read, in order, within the byte budget
+        final List<File> files = new ArrayList<>();
+        long budget = mByteBudget;
+        synchronized (mSync) {
+            for (File f : pictures) {
+                long length = f.length();
+                Long lastModified = mWarmed.get(f.getAbsolutePath());
+                if (length <= 0 || (lastModified != null && lastModified == f.lastModified())) {
+                    continue;
+                }
+                if (length > budget) {
+                    break;
+                }
+                budget -= length;
+                files.add(f);
+            }
+        }
+        if (files.isEmpty()) {
+            onBatchFinished(0, 0);
+            return;
+        }
+
+        // Split the files between the workers
+        final int workers = Math.min(mConcurrency, files.size());
+        final AtomicInteger remaining = new AtomicInteger(workers);
+        final AtomicLong bytes = new AtomicLong();
+        final long start = System.nanoTime();
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int cc = files.size();
+                        for (int j = worker; j < cc; j += workers) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                break;
+                            }
+                            bytes.addAndGet(warm(files.get(j), worker));
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            onBatchFinished(bytes.get(), System.nanoTime() - start);
+                        }
+                    }
+                });
+            } catch (Exception ex) {
+                // The executor was shutdown
+                return;
+            }
+        }
+    }
+
+    private void onBatchFinished(long bytes, long elapsed) {
+        List<File> next;
+        boolean busy;
+        synchronized (mSync) {
+            adjustConcurrency(bytes, elapsed);
+            next = mPending;
+            mPending = null;
+            busy = mBusy = next != null && !mReleased;
+        }
+        if (busy) {
+            schedule(next);
+        }
+    }
+
+    /**
+     * Hill climbing over the number of concurrent reads. Keep moving in the same direction
+     * while the throughput improves; reverse when it gets worse.
+     */
+    private void adjustConcurrency(long bytes, long elapsed) {
+        if (bytes < MIN_SAMPLE_BYTES || elapsed <= 0) {
+            return;
+        }
+        double throughput = bytes / (double) elapsed;
+        if (mLastThroughput > 0) {
+            if (throughput < mLastThroughput * (1 - THROUGHPUT_THRESHOLD)) {
+                mDirection = -mDirection;
+            } else if (throughput < mLastThroughput * (1 + THROUGHPUT_THRESHOLD)) {
+                // No significant changes. Stay here
+                mLastThroughput = throughput;
+                return;
+            }
+        }
+        mLastThroughput = throughput;
+        int concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, mConcurrency + mDirection));
+        if (concurrency == mConcurrency) {
+            mDirection = -mDirection;
+        }
+        if (DEBUG) {
+            Log.v(TAG, "Read-ahead throughput: " + (long) (throughput * 1000000000L / 1024)
+                    + " KiB/s (concurrency: " + mConcurrency + " -> " + concurrency + ")");
+        }
+        mConcurrency = concurrency;
+    }
+
+    private long warm(File file, int worker) {
+        if (mBuffers[worker] == null) {
+            mBuffers[worker] = new byte[READ_BUFFER_SIZE];
+        }
+        byte[] buffer = mBuffers[worker];
+        long read = 0;
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                read += n;
+            }
+            synchronized (mSync) {
+                mWarmed.put(file.getAbsolutePath(), file.lastModified());
+            }
+        } catch (IOException ex) {
+            if (DEBUG) Log.w(TAG, "Failed to read ahead " + file, ex);
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (IOException ex) {
+                // Ignore
+            }
+        }
+        return read;
+    }
+}
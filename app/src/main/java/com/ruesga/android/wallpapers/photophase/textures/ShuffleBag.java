@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.textures;
+
+import com.ruesga.android.wallpapers.photophase.utils.Utils;
+
+import java.util.Arrays;
+
+/**
+ * A shuffle bag of item ids (non negative ints, like the ids of a
+ * {@link com.ruesga.android.wallpapers.photophase.PathTable}). Every item is picked once per
+ * round, randomly or in sequence: the order of the keys of a {@link Sequence}, or the order
+ * in which the items were added if the bag has no sequence.<br/>
+ * <br/>
+ * Items live in slots, and a permutation of the slots is split by a cursor: slots before the
+ * cursor were already picked in this round, and slots after it are still pending. Picks and
+ * removals are O(1) (removals leave a dead slot that is compacted later). Additions are O(1)
+ * once the bag is shuffled, and O(n) (O(log n) at the end) while the bag is in sequence.
+ * Reconciling the bag against a new set of items is O(n log n).
+ */
+public class ShuffleBag {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MIN_COMPACT_SIZE = 256;
+
+    private static final int DEAD = -1;
+    private static final int NO_SLOT = -1;
+
+    /**
+     * The position of the items in the sequence of the bag
+     */
+    public interface Sequence {
+        /**
+         * Method that returns the key of an item in the sequence
+         *
+         * @param item The item
+         * @return long The key of the item (items are picked in ascending order of keys)
+         */
+        long getKey(int item);
+    }
+
+    private final Sequence mSequence;
+    private int[] mItems;
+    private long[] mKeys;
+    private int[] mOrder;
+    private int[] mPositions;
+    private int[] mSeen;
+    private int[] mSlots;
+    private int mSize;
+    private int mCursor;
+    private int mDead;
+    private int mGeneration;
+    // The key of the next added item, if the bag has no sequence
+    private long mNextKey;
+    // Whether the slots are in the order of the sequence (until the next random pick)
+    private boolean mSorted;
+
+    /**
+     * Constructor of <code>ShuffleBag</code>
+     */
+    public ShuffleBag() {
+        this(null);
+    }
+
+    /**
+     * Constructor of <code>ShuffleBag</code>
+     *
+     * @param sequence The sequence of the items, or null to follow the order in which the
+     *                 items were added
+     */
+    public ShuffleBag(Sequence sequence) {
+        super();
+        mSequence = sequence;
+        mSorted = true;
+        mItems = new int[INITIAL_CAPACITY];
+        mKeys = new long[INITIAL_CAPACITY];
+        mOrder = new int[INITIAL_CAPACITY];
+        mPositions = new int[INITIAL_CAPACITY];
+        mSeen = new int[INITIAL_CAPACITY];
+        mSlots = new int[INITIAL_CAPACITY];
+        Arrays.fill(mSlots, NO_SLOT);
+    }
+
+    /**
+     * Method that returns the number of live items in the bag
+     *
+     * @return int The number of items
+     */
+    public int size() {
+        return mSize - mDead;
+    }
+
+    /**
+     * Method that adds an item to the bag (if it isn't already in the bag). While the bag is
+     * in sequence, the item is inserted at its position in the sequence (if the position was
+     * already passed in this round, the item is picked in the next one). Otherwise, the item
+     * is added to the end of the pending items of the current round.
+     *
+     * @param item The item to add
+     * @return boolean If the item was added
+     */
+    public boolean add(int item) {
+        if (getSlot(item) != NO_SLOT) {
+            return false;
+        }
+        int slot = append(item);
+        if (mSequence != null && mSorted) {
+            int position = upperBound(mKeys[slot], mSize - 1);
+            if (position < mSize - 1) {
+                System.arraycopy(mOrder, position, mOrder, position + 1, mSize - 1 - position);
+                mOrder[position] = slot;
+                for (int i = position; i < mSize; i++) {
+                    mPositions[mOrder[i]] = i;
+                }
+                if (position < mCursor) {
+                    mCursor++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that removes an item from the bag
+     *
+     * @param item The item to remove
+     * @return boolean If the item was removed
+     */
+    public boolean remove(int item) {
+        int slot = getSlot(item);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        // Just leave a dead slot, so the order of the rest of items is preserved
+        kill(slot);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Method that removes all the items of the bag
+     */
+    public void clear() {
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mItems[slot] != DEAD) {
+                mSlots[mItems[slot]] = NO_SLOT;
+            }
+        }
+        mSize = 0;
+        mCursor = 0;
+        mDead = 0;
+        mSorted = true;
+    }
+
+    /**
+     * Method that reconciles the bag against a new set of items. Items not present in the
+     * new set are removed, and new ones are added like {@link #add(int)} does.
+     *
+     * @param items The new set of items
+     */
+    public void reconcile(int[] items) {
+        mGeneration++;
+        for (int item : items) {
+            int slot = getSlot(item);
+            if (slot == NO_SLOT) {
+                append(item);
+            } else {
+                mSeen[slot] = mGeneration;
+                if (mSequence != null) {
+                    mKeys[slot] = mSequence.getKey(item);
+                }
+            }
+        }
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mItems[slot] != DEAD && mSeen[slot] != mGeneration) {
+                kill(slot);
+            }
+        }
+        if (mSequence != null && mSorted) {
+            sort();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Method that picks the next pending item of the current round. Switching from random
+     * picks to the sequence continues the sequence after the last picked item.
+     *
+     * @param random Whether to pick a random item or the next one in sequence
+     * @return int The item or -1 if all the items of this round were picked
+     */
+    public int pick(boolean random) {
+        if (!random && !mSorted) {
+            sort();
+        }
+        while (mCursor < mSize) {
+            if (random) {
+                swap(mCursor, Utils.getNextRandom(mCursor, mSize - 1));
+            }
+            int item = mItems[mOrder[mCursor]];
+            mCursor++;
+            if (item != DEAD) {
+                return item;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method that returns a picked item to the head of the pending items, so it will be
+     * the next one in sequence. Items must be put back in the inverse order in which they
+     * were picked to preserve the sequence.
+     *
+     * @param item The item to put back
+     */
+    public void putBack(int item) {
+        int slot = getSlot(item);
+        if (slot == NO_SLOT || mPositions[slot] >= mCursor) {
+            return;
+        }
+        mCursor--;
+        swap(mPositions[slot], mCursor);
+    }
+
+    /**
+     * Method that starts a new round. All the items become pending again.
+     */
+    public void rewind() {
+        mCursor = 0;
+        if (mDead > 0) {
+            compact();
+        }
+    }
+
+    private int getSlot(int item) {
+        return item < mSlots.length ? mSlots[item] : NO_SLOT;
+    }
+
+    private int append(int item) {
+        ensureCapacity(mSize + 1);
+        ensureItemCapacity(item);
+        int slot = mSize;
+        mItems[slot] = item;
+        mKeys[slot] = mSequence != null ? mSequence.getKey(item) : mNextKey++;
+        mSlots[item] = slot;
+        mOrder[mSize] = slot;
+        mPositions[slot] = mSize;
+        mSeen[slot] = mGeneration;
+        mSize++;
+        return slot;
+    }
+
+    private int upperBound(long key, int size) {
+        // The first position with a greater key (dead slots keep their keys)
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mOrder[mid]] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void sort() {
+        // The round continues after the last picked item
+        long last = mCursor > 0 ? mKeys[mOrder[mCursor - 1]] : Long.MIN_VALUE;
+
+        // A stable bottom-up merge sort of the slots by key
+        int[] src = mOrder;
+        int[] dst = new int[mOrder.length];
+        for (int width = 1; width < mSize; width *= 2) {
+            for (int low = 0; low < mSize; low += 2 * width) {
+                int mid = Math.min(low + width, mSize);
+                int high = Math.min(low + 2 * width, mSize);
+                int i = low, j = mid, k = low;
+                while (i < mid && j < high) {
+                    dst[k++] = mKeys[src[j]] < mKeys[src[i]] ? src[j++] : src[i++];
+                }
+                while (i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while (j < high) {
+                    dst[k++] = src[j++];
+                }
+            }
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        mOrder = src;
+        for (int i = 0; i < mSize; i++) {
+            mPositions[mOrder[i]] = i;
+        }
+        mCursor = mCursor > 0 ? upperBound(last, mSize) : 0;
+        mSorted = true;
+    }
+
+    private void kill(int slot) {
+        mSlots[mItems[slot]] = NO_SLOT;
+        mItems[slot] = DEAD;
+        mDead++;
+    }
+
+    private void swap(int a, int b) {
+        if (a == b) {
+            return;
+        }
+        mSorted = false;
+        int slotA = mOrder[a];
+        int slotB = mOrder[b];
+        mOrder[a] = slotB;
+        mOrder[b] = slotA;
+        mPositions[slotB] = a;
+        mPositions[slotA] = b;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mOrder.length) {
+            int newCapacity = Math.max(capacity, mOrder.length * 2);
+            mItems = Arrays.copyOf(mItems, newCapacity);
+            mKeys = Arrays.copyOf(mKeys, newCapacity);
+            mOrder = Arrays.copyOf(mOrder, newCapacity);
+            mPositions = Arrays.copyOf(mPositions, newCapacity);
+            mSeen = Arrays.copyOf(mSeen, newCapacity);
+        }
+    }
+
+    private void ensureItemCapacity(int item) {
+        if (item >= mSlots.length) {
+            int oldCapacity = mSlots.length;
+            mSlots = Arrays.copyOf(mSlots, Math.max(item + 1, oldCapacity * 2));
+            Arrays.fill(mSlots, oldCapacity, mSlots.length, NO_SLOT);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (mSize > MIN_COMPACT_SIZE && mDead > mSize / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        // Renumber the live slots following the current order
+        int[] items = new int[mSize - mDead];
+        long[] keys = new long[items.length];
+        int count = 0;
+        int cursor = 0;
+        for (int i = 0; i < mSize; i++) {
+            int item = mItems[mOrder[i]];
+            if (item != DEAD) {
+                keys[count] = mKeys[mOrder[i]];
+                items[count++] = item;
+            }
+            if (i == mCursor - 1) {
+                cursor = count;
+            }
+        }
+
+        System.arraycopy(items, 0, mItems, 0, count);
+        System.arraycopy(keys, 0, mKeys, 0, count);
+        mSize = count;
+        mCursor = cursor;
+        mDead = 0;
+        for (int slot = 0; slot < mSize; slot++) {
+            mOrder[slot] = slot;
+            mPositions[slot] = slot;
+            mSeen[slot] = mGeneration;
+            mSlots[mItems[slot]] = slot;
+        }
+    }
+}
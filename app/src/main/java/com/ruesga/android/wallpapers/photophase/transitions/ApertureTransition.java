@@ -24,7 +24,6 @@ import com.ruesga.android.wallpapers.photophase.textures.TextureManager;
 import com.ruesga.android.wallpapers.photophase.transitions.Transitions.TRANSITIONS;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 
-import java.nio.FloatBuffer;
 
 /**
  * A transition that applies a aperture transition to the picture.
@@ -69,16 +68,14 @@ public class ApertureTransition extends Transition {
     }
 
     private void draw(float[] matrix, float radius) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Use our shader program
         useProgram(0);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandlers[0], 1, false, matrix, 0);
@@ -88,50 +85,29 @@ public class ApertureTransition extends Transition {
         GLES20.glUniform1f(mRadiusHandler, radius);
         GLESUtil.glesCheckError("glUniform1f");
 
-        // Textures
-        FloatBuffer textureBuffer = mTarget.getTextureBuffer();
-        textureBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordHandlers[0], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
-
-        // Position
-        FloatBuffer positionBuffer = mTarget.getPositionBuffer();
-        positionBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandlers[0], 2, GLES20.GL_FLOAT, false, 0, positionBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        // Geometry (texture and position)
+        mTarget.bindGeometry(mPositionHandlers[0], mTextureCoordHandlers[0]);
 
         // Set the input textures
         // Texture 1
         int texture = mTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(texture);
         GLES20.glUniform1i(mTextureHandlers[0], 0);
         GLESUtil.glesCheckError("glUniform1i");
 
         // Texture 2
         int targetTexture = mTransitionTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, targetTexture);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE1);
+        GLESUtil.glesGetState().bindTexture(targetTexture);
         GLES20.glUniform1i(mTargetTextureHandler, 1);
         GLESUtil.glesCheckError("glUniform1i");
 
         // Draw
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLESUtil.glesCheckError("glDrawElements");
+        mTarget.drawGeometry();
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        mTarget.unbindGeometry(mPositionHandlers[0], mTextureCoordHandlers[0]);
     }
 
     @Override
@@ -131,23 +131,19 @@ public class CubeTransition extends Transition {
     }
 
     private void applySrcTransition(float delta, float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Set the program
         useProgram(0);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Set the input texture
         int textureHandle = mTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[0], 0);
         GLESUtil.glesCheckError("glBindTexture");
 
@@ -156,8 +152,7 @@ public class CubeTransition extends Transition {
         textureBuffer.position(0);
         GLES20.glVertexAttribPointer(mTextureCoordHandlers[0], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandlers[0]);
 
         // Position
         setInternalVertex();
@@ -186,8 +181,7 @@ public class CubeTransition extends Transition {
         mPositionBuffer.position(0);
         GLES20.glVertexAttribPointer(mPositionHandlers[0], 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandlers[0]);
 
         // Calculate the delta angle and the translation and rotate parameters
         float angle = 0.0f;
@@ -222,30 +216,24 @@ public class CubeTransition extends Transition {
         GLESUtil.glesCheckError("glDrawElements");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandlers[0]);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandlers[0]);
     }
 
     private void applyDstTransition(float delta, float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Set the program
         useProgram(1);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Set the input texture
         int textureHandle = mTransitionTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[1], 0);
         GLESUtil.glesCheckError("glBindTexture");
 
@@ -254,8 +242,7 @@ public class CubeTransition extends Transition {
         textureBuffer.position(0);
         GLES20.glVertexAttribPointer(mTextureCoordHandlers[1], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandlers[1]);
 
         // Position
         setInternalVertex();
@@ -284,8 +271,7 @@ public class CubeTransition extends Transition {
         mPositionBuffer.position(0);
         GLES20.glVertexAttribPointer(mPositionHandlers[1], 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandlers[1]);
 
         // Calculate the delta angle and the translation and rotate parameters
         float angle = 0.0f;
@@ -320,62 +306,39 @@ public class CubeTransition extends Transition {
         GLESUtil.glesCheckError("glDrawElements");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandlers[1]);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandlers[1]);
     }
 
     private void applyFinalTransition(float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Use our shader program
         useProgram(1);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandlers[1], 1, false, matrix, 0);
         GLESUtil.glesCheckError("glUniformMatrix4fv");
 
-        // Texture
-        FloatBuffer textureBuffer = mTransitionTarget.getTextureBuffer();
-        textureBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordHandlers[1], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
-
-        // Position
-        FloatBuffer positionBuffer = mTransitionTarget.getPositionBuffer();
-        positionBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandlers[1], 2, GLES20.GL_FLOAT, false, 0, positionBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        // Geometry (texture and position)
+        mTransitionTarget.bindGeometry(mPositionHandlers[1], mTextureCoordHandlers[1]);
 
         // Set the input texture
         int textureHandle = mTransitionTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[1], 0);
         GLESUtil.glesCheckError("glUniform1i");
 
         // Draw
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLESUtil.glesCheckError("glDrawElements");
+        mTransitionTarget.drawGeometry();
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        mTransitionTarget.unbindGeometry(mPositionHandlers[1], mTextureCoordHandlers[1]);
     }
 
     private void setInternalVertex() {
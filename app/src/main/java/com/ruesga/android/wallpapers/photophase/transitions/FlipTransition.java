@@ -27,7 +27,6 @@ import com.ruesga.android.wallpapers.photophase.transitions.Transitions.TRANSITI
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 import com.ruesga.android.wallpapers.photophase.utils.Utils;
 
-import java.nio.FloatBuffer;
 
 /**
  * A transition that applies a translation transition to the picture.
@@ -107,41 +106,24 @@ public class FlipTransition extends Transition {
         // Retrieve the index of the structures
         int index = delta <= 0.5f ? 0 : 1;
 
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Set the program
         useProgram(index);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Set the input texture
         int textureHandle = target.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[index], 0);
         GLESUtil.glesCheckError("glBindTexture");
 
-        // Texture
-        FloatBuffer textureBuffer = target.getTextureBuffer();
-        textureBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordHandlers[index], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
-
-        // Position
-        FloatBuffer positionBuffer = target.getPositionBuffer();
-        positionBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandlers[index], 2, GLES20.GL_FLOAT, false, 0, positionBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[index]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        // Geometry (texture and position)
+        target.bindGeometry(mPositionHandlers[index], mTextureCoordHandlers[index]);
 
         // Calculate the delta angle and the translation and rotate parameters
         float angle = (delta * 90) / 0.5f;
@@ -175,14 +157,10 @@ public class FlipTransition extends Transition {
         GLESUtil.glesCheckError("glUniformMatrix4fv");
 
         // Draw
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLESUtil.glesCheckError("glDrawElements");
+        target.drawGeometry();
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[index]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        target.unbindGeometry(mPositionHandlers[index], mTextureCoordHandlers[index]);
     }
 
 }
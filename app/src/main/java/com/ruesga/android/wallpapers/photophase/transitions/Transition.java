@@ -18,7 +18,6 @@ package com.ruesga.android.wallpapers.photophase.transitions;
 
 import android.content.Context;
 import android.opengl.GLES20;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.animation.AccelerateInterpolator;
 
@@ -42,6 +41,7 @@ public abstract class Transition {
     protected int[] mPositionHandlers;
     protected int[] mTextureCoordHandlers;
     protected int[] mMVPMatrixHandlers;
+    private int[] mDimHandlers;
 
     protected PhotoFrame mTarget;
     protected PhotoFrame mTransitionTarget;
@@ -50,7 +50,10 @@ public abstract class Transition {
     private final int[] mFragmentShader;
 
     private long mTime;
+    private long mFrameTime;
+    private float mDurationScale = 1.0f;
     protected boolean mRunning;
+    private float mDim;
 
     private AccelerateInterpolator mInterpolator;
 
@@ -79,6 +82,7 @@ public abstract class Transition {
         mPositionHandlers = new int[cc];
         mTextureCoordHandlers = new int[cc];
         mMVPMatrixHandlers = new int[cc];
+        mDimHandlers = new int[cc];
         for (int i = 0; i < cc; i++) {
             createProgram(i);
         }
@@ -101,7 +105,9 @@ public abstract class Transition {
                             mTextureManager,
                             mTarget.getFrameVertex(),
                             mTarget.getPhotoVertex(),
-                            mTarget.getBackgroundColor());
+                            mTarget.getBackgroundColor(),
+                            mTarget.getGeometry(),
+                            mTarget.getGeometrySlot());
         }
     }
 
@@ -153,6 +159,34 @@ public abstract class Transition {
     public void chooseMode() {
     }
 
+    /**
+     * Method that sets the dim of the wallpaper, which the programs apply to the drawn frames
+     *
+     * @param dim The dim (0 to 1)
+     */
+    public void setDim(float dim) {
+        mDim = dim;
+    }
+
+    /**
+     * Method that sets the time of the frame to draw. Without it, the transition uses the
+     * time it's applied at
+     *
+     * @param frameTime The time (in nanoseconds of {@link System#nanoTime()})
+     */
+    public void setFrameTime(long frameTime) {
+        mFrameTime = frameTime;
+    }
+
+    /**
+     * Method that sets the scale of the time of the transition (less than 1 to shorten it)
+     *
+     * @param scale The scale of the time
+     */
+    public void setDurationScale(float scale) {
+        mDurationScale = scale;
+    }
+
     /**
      * Method that returns the type of transition.
      *
@@ -185,11 +219,12 @@ public abstract class Transition {
         }
 
         // Set the time the first time
+        long now = mFrameTime != 0 ? mFrameTime : System.nanoTime();
         if (mTime == -1) {
-            mTime = SystemClock.uptimeMillis();
+            mTime = now;
         }
 
-        float delta = getDelta();
+        float delta = getDelta(now);
         applyTransition(delta, matrix);
 
         mRunning = delta < 1;
@@ -234,6 +269,9 @@ public abstract class Transition {
         mMVPMatrixHandlers[index] =
                 GLES20.glGetUniformLocation(mProgramHandlers[index], "uMVPMatrix");
         GLESUtil.glesCheckError("glGetUniformLocation");
+        mDimHandlers[index] =
+                GLES20.glGetUniformLocation(mProgramHandlers[index], "uDim");
+        GLESUtil.glesCheckError("glGetUniformLocation");
     }
 
     /**
@@ -245,8 +283,9 @@ public abstract class Transition {
         if (!GLES20.glIsProgram(mProgramHandlers[index])) {
             createProgram(index);
         }
-        GLES20.glUseProgram(mProgramHandlers[index]);
-        GLESUtil.glesCheckError("glUseProgram()");
+        GLESUtil.glesGetState().useProgram(mProgramHandlers[index]);
+        GLES20.glUniform1f(mDimHandlers[index], mDim);
+        GLESUtil.glesCheckError("glUniform1f");
     }
 
     /**
@@ -260,22 +299,23 @@ public abstract class Transition {
                     Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteProgram: "
                             + mProgramHandlers[i]);
                 }
-                GLES20.glDeleteProgram(mProgramHandlers[i]);
-                GLESUtil.glesCheckError("glDeleteProgram");
+                GLESUtil.glesGetState().deleteProgram(mProgramHandlers[i]);
             }
             mProgramHandlers[i] = -1;
             mTextureHandlers[i] = -1;
             mPositionHandlers[i] = -1;
             mTextureCoordHandlers[i] = -1;
             mMVPMatrixHandlers[i] = -1;
+            mDimHandlers[i] = -1;
         }
         mTransitionTarget = null;
         mTarget = null;
     }
 
-    private float getDelta() {
-        float delta = Math.min(
-                SystemClock.uptimeMillis() - mTime, getTransitionTime()) / getTransitionTime();
+    private float getDelta(long now) {
+        float elapsed = (now - mTime) / 1000000f;
+        float time = getTransitionTime() * mDurationScale;
+        float delta = Math.min(elapsed, time) / time;
         return mInterpolator.getInterpolation(delta);
     }
 }
@@ -139,6 +139,20 @@ public class Transitions {
         return TRANSITIONS.NO_TRANSITION;
     }
 
+    /**
+     * Method that returns if a transition is light to draw: it draws the frames once per
+     * frame with simple programs (no blur, no 3d nor shader effects over the pictures).
+     *
+     * @param type The type of transition
+     * @return boolean If the transition is light to draw
+     */
+    public static boolean isLightTransition(TRANSITIONS type) {
+        return type.compareTo(TRANSITIONS.NO_TRANSITION) == 0
+                || type.compareTo(TRANSITIONS.SWAP) == 0
+                || type.compareTo(TRANSITIONS.FADE) == 0
+                || type.compareTo(TRANSITIONS.TRANSLATE) == 0;
+    }
+
     /**
      * Method that creates a new transition.
      *
@@ -63,7 +63,9 @@ public class WindowTransition extends Transition {
 
     private WINDOW_MODES mMode;
 
+    private FloatBuffer mPositionBuffer;
     private final float[] mTranslationMatrix;
+    private float[] mVertex;
 
     private AccelerateInterpolator mInterpolation;
     private float mAmount;
@@ -97,6 +99,18 @@ public class WindowTransition extends Transition {
         mInterpolation = new AccelerateInterpolator();
         mAmount = getAmount();
 
+        // Create the internal buffer (reused by every frame of the transition)
+        float[] vertex = target.getFrameVertex();
+        if (mPositionBuffer == null) {
+            // (# of coordinate values * 4 bytes per float)
+            ByteBuffer bb = ByteBuffer.allocateDirect(vertex.length * 4);
+            bb.order(ByteOrder.nativeOrder());
+            mPositionBuffer = bb.asFloatBuffer();
+        }
+        if (mVertex == null) {
+            mVertex = new float[vertex.length];
+        }
+
         // choose a random mode
         chooseMode();
     }
@@ -135,23 +149,19 @@ public class WindowTransition extends Transition {
     }
 
     private void applySrcTransition(float delta, float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Set the program
         useProgram(0);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Set the input texture
         int textureHandle = mTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[0], 0);
         GLESUtil.glesCheckError("glBindTexture");
 
@@ -160,11 +170,12 @@ public class WindowTransition extends Transition {
         textureBuffer.position(0);
         GLES20.glVertexAttribPointer(mTextureCoordHandlers[0], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mTextureCoordHandlers[0]);
 
         // Position
-        float[] vertex = cloneVertex();
+        float[] vertex = mVertex;
+        float[] originalVertex = mTarget.getFrameVertex();
+        System.arraycopy(originalVertex, 0, vertex, 0, originalVertex.length);
         float interpolation = mInterpolation.getInterpolation(delta);
         switch (mMode) {
             case LEFT_TO_RIGHT:
@@ -178,15 +189,12 @@ public class WindowTransition extends Transition {
             default:
                 break;
         }
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertex.length * 4); // (# of coordinate values * 4 bytes per float)
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer positionBuffer = bb.asFloatBuffer();
-        positionBuffer.put(vertex);
-        positionBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandlers[0], 2, GLES20.GL_FLOAT, false, 0, positionBuffer);
+        mPositionBuffer.position(0);
+        mPositionBuffer.put(vertex);
+        mPositionBuffer.position(0);
+        GLES20.glVertexAttribPointer(mPositionHandlers[0], 2, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
         GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        GLESUtil.glesGetState().enableVertexAttribArray(mPositionHandlers[0]);
 
         // Calculate the delta angle and the translation and rotate parameters
         float angle = 0.0f;
@@ -221,69 +229,39 @@ public class WindowTransition extends Transition {
         GLESUtil.glesCheckError("glDrawElements");
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[0]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        GLESUtil.glesGetState().disableVertexAttribArray(mPositionHandlers[0]);
+        GLESUtil.glesGetState().disableVertexAttribArray(mTextureCoordHandlers[0]);
     }
 
     private void applyDstTransition(float[] matrix) {
-        // Bind default FBO
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLESUtil.glesCheckError("glBindFramebuffer");
+        // Bind the render target (the screen or the composite of the static frames)
+        GLESUtil.glesBindRenderTarget();
 
         // Use our shader program
         useProgram(1);
 
         // Disable blending
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLESUtil.glesCheckError("glDisable");
+        GLESUtil.glesGetState().disable(GLES20.GL_BLEND);
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandlers[1], 1, false, matrix, 0);
         GLESUtil.glesCheckError("glUniformMatrix4fv");
 
-        // Texture
-        FloatBuffer textureBuffer = mTransitionTarget.getTextureBuffer();
-        textureBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordHandlers[1], 2, GLES20.GL_FLOAT, false, 0, textureBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
-
-        // Position
-        FloatBuffer positionBuffer = mTransitionTarget.getPositionBuffer();
-        positionBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandlers[1], 2, GLES20.GL_FLOAT, false, 0, positionBuffer);
-        GLESUtil.glesCheckError("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        // Geometry (texture and position)
+        mTransitionTarget.bindGeometry(mPositionHandlers[1], mTextureCoordHandlers[1]);
 
         // Set the input texture
         int textureHandle = mTransitionTarget.getTextureHandle();
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLESUtil.glesCheckError("glActiveTexture");
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
-        GLESUtil.glesCheckError("glBindTexture");
+        GLESUtil.glesGetState().activeTexture(GLES20.GL_TEXTURE0);
+        GLESUtil.glesGetState().bindTexture(textureHandle);
         GLES20.glUniform1i(mTextureHandlers[1], 0);
         GLESUtil.glesCheckError("glUniform1i");
 
         // Draw
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLESUtil.glesCheckError("glDrawElements");
+        mTransitionTarget.drawGeometry();
 
         // Disable attributes
-        GLES20.glDisableVertexAttribArray(mPositionHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-        GLES20.glDisableVertexAttribArray(mTextureCoordHandlers[1]);
-        GLESUtil.glesCheckError("glDisableVertexAttribArray");
-    }
-
-    private float[] cloneVertex() {
-        float[] originalVertex = mTarget.getFrameVertex();
-        float[] vertex = new float[originalVertex.length];
-        System.arraycopy(originalVertex, 0, vertex, 0, originalVertex.length);
-        return vertex;
+        mTransitionTarget.unbindGeometry(mPositionHandlers[1], mTextureCoordHandlers[1]);
     }
 
     private float getAmount() {
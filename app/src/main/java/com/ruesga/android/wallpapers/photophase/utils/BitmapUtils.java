@@ -110,6 +110,54 @@ public class BitmapUtils {
         return out;
     }
 
+    /**
+     * Method that decodes a bitmap and scales it down to the minimum size that fills the
+     * requested dimensions. This is the size of the pictures returned by every decoder.
+     *
+     * @param file The bitmap file to decode
+     * @param dstWidth The request width
+     * @param dstHeight The request height
+     * @return Bitmap The decoded bitmap
+     */
+    public static Bitmap decodeScaledBitmap(File file, int dstWidth, int dstHeight) {
+        Bitmap bitmap = decodeBitmap(file, dstWidth, dstHeight);
+        if (bitmap == null) {
+            return null;
+        }
+        return scaleToFill(bitmap, dstWidth, dstHeight);
+    }
+
+    /**
+     * Method that scales down the bitmap to the minimum size that fills the requested
+     * dimensions. The decoder only can subsample by powers of two.
+     *
+     * @param src The decoded bitmap
+     * @param width The requested width
+     * @param height The requested height
+     * @return Bitmap The scaled bitmap
+     */
+    private static Bitmap scaleToFill(Bitmap src, int width, int height) {
+        Bitmap out = src;
+        float ratio = Math.max(
+                (float) width / src.getWidth(), (float) height / src.getHeight());
+        if (ratio < 1) {
+            int w = Math.max(1, Math.round(src.getWidth() * ratio));
+            int h = Math.max(1, Math.round(src.getHeight() * ratio));
+            out = Bitmap.createScaledBitmap(src, w, h, true);
+        }
+        if (out.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap copy = out.copy(Bitmap.Config.ARGB_8888, false);
+            if (out != src) {
+                out.recycle();
+            }
+            out = copy;
+        }
+        if (out != src) {
+            src.recycle();
+        }
+        return out;
+    }
+
     public static Rect getBitmapDimensions(File file) {
         // First decode with inJustDecodeBounds=true to check dimensions
         final Options options = new Options();
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.utils;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * A helper class that collects frame times and logs a summary (average, 95th percentile
+ * and maximum) every time a window of frames is completed. The label allows to compare
+ * the same measure under different configurations.
+ */
+public class FrameStats {
+
+    private final String mTag;
+    private final long[] mSamples;
+    private int mCount;
+    private long mStart;
+    private String mLabel;
+
+    /**
+     * Constructor of <code>FrameStats</code>
+     *
+     * @param tag The log tag
+     * @param window The number of frames of every summary
+     */
+    public FrameStats(String tag, int window) {
+        super();
+        mTag = tag;
+        mSamples = new long[window];
+        mLabel = "";
+    }
+
+    /**
+     * Method that sets the label of the next summaries. Changing the label discards the
+     * current (incomplete) window
+     *
+     * @param label The label
+     */
+    public void setLabel(String label) {
+        if (!mLabel.equals(label)) {
+            mLabel = label;
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Method that marks the start of a frame
+     */
+    public void begin() {
+        mStart = System.nanoTime();
+    }
+
+    /**
+     * Method that marks the end of a frame
+     */
+    public void end() {
+        if (mStart != 0) {
+            record(System.nanoTime() - mStart);
+            mStart = 0;
+        }
+    }
+
+    /**
+     * Method that records a frame time
+     *
+     * @param nanos The frame time in nanoseconds
+     */
+    public void record(long nanos) {
+        mSamples[mCount++] = nanos;
+        if (mCount == mSamples.length) {
+            long total = 0;
+            for (long sample : mSamples) {
+                total += sample;
+            }
+            Arrays.sort(mSamples);
+            long p95 = mSamples[Math.max(0, (int) (mSamples.length * 0.95f) - 1)];
+            long max = mSamples[mSamples.length - 1];
+            Log.d(mTag, "Frame stats [" + mLabel + "]: avg=" + toMs(total / mSamples.length)
+                    + " ms, p95=" + toMs(p95) + " ms, max=" + toMs(max) + " ms ("
+                    + mSamples.length + " frames)");
+            mCount = 0;
+        }
+    }
+
+    private static String toMs(long nanos) {
+        return String.valueOf(nanos / 10000 / 100f);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.utils;
+
+import android.opengl.GLSurfaceView;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * An EGL config chooser of GLES 2.0 configs with a RGB888 color buffer and without depth
+ * and stencil buffers. The wallpaper is drawn in painter's order, so it never uses them
+ * (the default chooser of {@link GLSurfaceView} accepts configs with a depth buffer).
+ */
+public class GLESConfigChooser implements GLSurfaceView.EGLConfigChooser {
+
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+
+    private final int mAlphaSize;
+    private final int[] mValue = new int[1];
+
+    /**
+     * Constructor of <code>GLESConfigChooser</code>
+     *
+     * @param withAlpha If the color buffer must have an alpha channel
+     */
+    public GLESConfigChooser(boolean withAlpha) {
+        super();
+        mAlphaSize = withAlpha ? 8 : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+        int[] spec = {
+                EGL10.EGL_RED_SIZE, 8,
+                EGL10.EGL_GREEN_SIZE, 8,
+                EGL10.EGL_BLUE_SIZE, 8,
+                EGL10.EGL_ALPHA_SIZE, mAlphaSize,
+                EGL10.EGL_DEPTH_SIZE, 0,
+                EGL10.EGL_STENCIL_SIZE, 0,
+                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_NONE
+        };
+        int[] num = new int[1];
+        if (!egl.eglChooseConfig(display, spec, null, 0, num) || num[0] <= 0) {
+            throw new IllegalArgumentException("No configs match configSpec");
+        }
+        EGLConfig[] configs = new EGLConfig[num[0]];
+        if (!egl.eglChooseConfig(display, spec, configs, num[0], num)) {
+            throw new IllegalArgumentException("eglChooseConfig failed");
+        }
+
+        // The sizes of the spec are minimums; choose the exact color config with the smallest
+        // depth and stencil buffers (none if the driver has it)
+        EGLConfig best = null;
+        int bestAncillary = Integer.MAX_VALUE;
+        for (EGLConfig config : configs) {
+            if (getAttrib(egl, display, config, EGL10.EGL_RED_SIZE) != 8
+                    || getAttrib(egl, display, config, EGL10.EGL_GREEN_SIZE) != 8
+                    || getAttrib(egl, display, config, EGL10.EGL_BLUE_SIZE) != 8
+                    || getAttrib(egl, display, config, EGL10.EGL_ALPHA_SIZE) != mAlphaSize) {
+                continue;
+            }
+            int ancillary = getAttrib(egl, display, config, EGL10.EGL_DEPTH_SIZE)
+                    + getAttrib(egl, display, config, EGL10.EGL_STENCIL_SIZE);
+            if (ancillary < bestAncillary) {
+                best = config;
+                bestAncillary = ancillary;
+                if (ancillary == 0) {
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            // No exact color config; the first one is the best one for the driver
+            best = configs[0];
+        }
+        return best;
+    }
+
+    private int getAttrib(EGL10 egl, EGLDisplay display, EGLConfig config, int attrib) {
+        if (egl.eglGetConfigAttrib(display, config, attrib, mValue)) {
+            return mValue[0];
+        }
+        return 0;
+    }
+}
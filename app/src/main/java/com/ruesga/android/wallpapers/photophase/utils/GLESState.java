@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.utils;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * A shadow copy of the GLES state of a context, that skips the calls that don't change the
+ * state (binding the bound program or texture, enabling blending twice, ...) and answers the
+ * queries of the current program, framebuffer, array buffer and viewport without a round
+ * trip to the driver.<br/>
+ * <br/>
+ * The shadow only knows the changes done through it. Code that changes the state by other
+ * means (the media effects framework, the native texture upload, deleting objects, ...) must
+ * call {@link #invalidate()} afterwards, so the next calls are issued again.
+ */
+public class GLESState {
+
+    private static final String TAG = "GLESState";
+
+    private static final int UNKNOWN = -1;
+
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+
+    // The capabilities tracked by the shadow (the rest are always issued)
+    private static final int[] CAPABILITIES = {
+                                                GLES20.GL_BLEND,
+                                                GLES20.GL_DEPTH_TEST,
+                                                GLES20.GL_SCISSOR_TEST
+                                              };
+
+    private int mProgram;
+    private int mFramebuffer;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private int mActiveTexture;
+    private final int[] mTextures = new int[MAX_TEXTURE_UNITS];
+    private final int[] mAttribs = new int[MAX_VERTEX_ATTRIBS];
+    private final int[] mCapabilities = new int[CAPABILITIES.length];
+    private int mBlendSrc;
+    private int mBlendDst;
+    private final int[] mViewport = new int[4];
+    private boolean mHasViewport;
+
+    private long mIssued;
+    private long mAvoided;
+
+    /**
+     * Constructor of <code>GLESState</code>
+     */
+    public GLESState() {
+        super();
+        invalidate();
+    }
+
+    /**
+     * Method that forgets the shadow copy (the state of the context is unknown)
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mFramebuffer = UNKNOWN;
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        Arrays.fill(mTextures, UNKNOWN);
+        Arrays.fill(mAttribs, UNKNOWN);
+        Arrays.fill(mCapabilities, UNKNOWN);
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+        mHasViewport = false;
+    }
+
+    /**
+     * @see GLES20#glUseProgram(int)
+     */
+    public void useProgram(int program) {
+        if (mProgram == program) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        GLESUtil.glesCheckError("glUseProgram");
+        mProgram = program;
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glBindFramebuffer(int, int)
+     */
+    public void bindFramebuffer(int framebuffer) {
+        if (mFramebuffer == framebuffer) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLESUtil.glesCheckError("glBindFramebuffer");
+        mFramebuffer = framebuffer;
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glBindBuffer(int, int)
+     */
+    public void bindBuffer(int target, int buffer) {
+        boolean array = target == GLES20.GL_ARRAY_BUFFER;
+        if ((array ? mArrayBuffer : mElementArrayBuffer) == buffer) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        GLESUtil.glesCheckError("glBindBuffer");
+        if (array) {
+            mArrayBuffer = buffer;
+        } else {
+            mElementArrayBuffer = buffer;
+        }
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glActiveTexture(int)
+     */
+    public void activeTexture(int texture) {
+        if (mActiveTexture == texture) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glActiveTexture(texture);
+        GLESUtil.glesCheckError("glActiveTexture");
+        mActiveTexture = texture;
+        mIssued++;
+    }
+
+    /**
+     * Binds a texture to the <code>GL_TEXTURE_2D</code> target of the active texture unit
+     *
+     * @see GLES20#glBindTexture(int, int)
+     */
+    public void bindTexture(int texture) {
+        int unit = mActiveTexture == UNKNOWN ? UNKNOWN : mActiveTexture - GLES20.GL_TEXTURE0;
+        boolean tracked = unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (tracked && mTextures[unit] == texture) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLESUtil.glesCheckError("glBindTexture");
+        if (tracked) {
+            mTextures[unit] = texture;
+        }
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glEnableVertexAttribArray(int)
+     */
+    public void enableVertexAttribArray(int index) {
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS && mAttribs[index] == 1) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(index);
+        GLESUtil.glesCheckError("glEnableVertexAttribArray");
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+            mAttribs[index] = 1;
+        }
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glDisableVertexAttribArray(int)
+     */
+    public void disableVertexAttribArray(int index) {
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS && mAttribs[index] == 0) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glDisableVertexAttribArray(index);
+        GLESUtil.glesCheckError("glDisableVertexAttribArray");
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+            mAttribs[index] = 0;
+        }
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glEnable(int)
+     */
+    public void enable(int capability) {
+        setCapability(capability, true);
+    }
+
+    /**
+     * @see GLES20#glDisable(int)
+     */
+    public void disable(int capability) {
+        setCapability(capability, false);
+    }
+
+    private void setCapability(int capability, boolean enabled) {
+        int pos = -1;
+        for (int i = 0; i < CAPABILITIES.length; i++) {
+            if (CAPABILITIES[i] == capability) {
+                pos = i;
+                break;
+            }
+        }
+        int value = enabled ? 1 : 0;
+        if (pos != -1 && mCapabilities[pos] == value) {
+            mAvoided++;
+            return;
+        }
+        if (enabled) {
+            GLES20.glEnable(capability);
+            GLESUtil.glesCheckError("glEnable");
+        } else {
+            GLES20.glDisable(capability);
+            GLESUtil.glesCheckError("glDisable");
+        }
+        if (pos != -1) {
+            mCapabilities[pos] = value;
+        }
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glBlendFunc(int, int)
+     */
+    public void blendFunc(int src, int dst) {
+        if (mBlendSrc == src && mBlendDst == dst) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        GLESUtil.glesCheckError("glBlendFunc");
+        mBlendSrc = src;
+        mBlendDst = dst;
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glViewport(int, int, int, int)
+     */
+    public void viewport(int x, int y, int width, int height) {
+        if (mHasViewport && mViewport[0] == x && mViewport[1] == y
+                && mViewport[2] == width && mViewport[3] == height) {
+            mAvoided++;
+            return;
+        }
+        GLES20.glViewport(x, y, width, height);
+        GLESUtil.glesCheckError("glViewport");
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+        mHasViewport = true;
+        mIssued++;
+    }
+
+    /**
+     * @see GLES20#glDeleteTextures(int, int[], int)
+     */
+    public void deleteTextures(int n, int[] textures, int offset) {
+        GLES20.glDeleteTextures(n, textures, offset);
+        GLESUtil.glesCheckError("glDeleteTextures");
+
+        // Deleted textures are unbound from their units
+        for (int i = offset; i < offset + n; i++) {
+            for (int j = 0; j < MAX_TEXTURE_UNITS; j++) {
+                if (mTextures[j] == textures[i]) {
+                    mTextures[j] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @see GLES20#glDeleteBuffers(int, int[], int)
+     */
+    public void deleteBuffers(int n, int[] buffers, int offset) {
+        GLES20.glDeleteBuffers(n, buffers, offset);
+        GLESUtil.glesCheckError("glDeleteBuffers");
+
+        // Deleted buffers are unbound from their targets
+        for (int i = offset; i < offset + n; i++) {
+            if (mArrayBuffer == buffers[i]) {
+                mArrayBuffer = 0;
+            }
+            if (mElementArrayBuffer == buffers[i]) {
+                mElementArrayBuffer = 0;
+            }
+        }
+    }
+
+    /**
+     * @see GLES20#glDeleteFramebuffers(int, int[], int)
+     */
+    public void deleteFramebuffers(int n, int[] framebuffers, int offset) {
+        GLES20.glDeleteFramebuffers(n, framebuffers, offset);
+        GLESUtil.glesCheckError("glDeleteFramebuffers");
+
+        // A deleted framebuffer is unbound (the screen is bound)
+        for (int i = offset; i < offset + n; i++) {
+            if (mFramebuffer == framebuffers[i]) {
+                mFramebuffer = 0;
+            }
+        }
+    }
+
+    /**
+     * @see GLES20#glDeleteProgram(int)
+     */
+    public void deleteProgram(int program) {
+        GLES20.glDeleteProgram(program);
+        GLESUtil.glesCheckError("glDeleteProgram");
+
+        // A program in use is only flagged for deletion, but its name could be reused later
+        if (mProgram == program) {
+            mProgram = UNKNOWN;
+        }
+    }
+
+    /**
+     * Method that returns the current program
+     *
+     * @return int The current program
+     */
+    public int getProgram() {
+        if (mProgram == UNKNOWN) {
+            mProgram = query(GLES20.GL_CURRENT_PROGRAM);
+        }
+        return mProgram;
+    }
+
+    /**
+     * Method that returns the current framebuffer
+     *
+     * @return int The current framebuffer
+     */
+    public int getFramebuffer() {
+        if (mFramebuffer == UNKNOWN) {
+            mFramebuffer = query(GLES20.GL_FRAMEBUFFER_BINDING);
+        }
+        return mFramebuffer;
+    }
+
+    /**
+     * Method that returns the current array buffer
+     *
+     * @return int The current array buffer
+     */
+    public int getArrayBuffer() {
+        if (mArrayBuffer == UNKNOWN) {
+            mArrayBuffer = query(GLES20.GL_ARRAY_BUFFER_BINDING);
+        }
+        return mArrayBuffer;
+    }
+
+    /**
+     * Method that returns the current viewport
+     *
+     * @param viewport An array where to return the viewport (x, y, width and height)
+     */
+    public void getViewport(int[] viewport) {
+        if (!mHasViewport) {
+            GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mViewport, 0);
+            GLESUtil.glesCheckError("glGetIntegerv");
+            mHasViewport = true;
+        }
+        System.arraycopy(mViewport, 0, viewport, 0, 4);
+    }
+
+    private static int query(int name) {
+        int[] value = new int[1];
+        GLES20.glGetIntegerv(name, value, 0);
+        GLESUtil.glesCheckError("glGetIntegerv");
+        return value[0];
+    }
+
+    /**
+     * Method that returns the number of calls issued to the driver through the shadow
+     *
+     * @return long The number of calls issued
+     */
+    public long getIssuedCalls() {
+        return mIssued;
+    }
+
+    /**
+     * Method that returns the number of calls skipped because they didn't change the state
+     *
+     * @return long The number of calls avoided
+     */
+    public long getAvoidedCalls() {
+        return mAvoided;
+    }
+
+    /**
+     * Method that logs and resets the counters of calls
+     *
+     * @param tag The log tag
+     */
+    public void dumpStats(String tag) {
+        Log.d(tag != null ? tag : TAG, "GLES state calls: issued=" + mIssued
+                + ", avoided=" + mAvoided);
+        mIssued = 0;
+        mAvoided = 0;
+    }
+}
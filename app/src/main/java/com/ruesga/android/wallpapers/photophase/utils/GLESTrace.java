@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.utils;
+
+import android.util.Log;
+
+/**
+ * A ring buffer with the last GLES calls (the name, the time elapsed since the previous
+ * traced call and the error), so the calls that lead to an error can be attached to a bug
+ * report. It's not thread safe; every GLThread must use its own trace.
+ */
+public class GLESTrace {
+
+    private final String[] mCalls;
+    private final long[] mElapsed;
+    private final int[] mErrors;
+    private int mNext;
+    private int mCount;
+    private long mLast;
+
+    /**
+     * Constructor of <code>GLESTrace</code>
+     *
+     * @param size The number of calls to keep
+     */
+    public GLESTrace(int size) {
+        super();
+        mCalls = new String[size];
+        mElapsed = new long[size];
+        mErrors = new int[size];
+    }
+
+    /**
+     * Method that records a call
+     *
+     * @param call The name of the call (and its arguments, if known)
+     * @param error The GLES error after the call (0 if unknown or none)
+     */
+    public void record(String call, int error) {
+        long now = System.nanoTime();
+        mCalls[mNext] = call;
+        mElapsed[mNext] = mLast == 0 ? 0 : now - mLast;
+        mErrors[mNext] = error;
+        mNext = (mNext + 1) % mCalls.length;
+        mCount = Math.min(mCount + 1, mCalls.length);
+        mLast = now;
+    }
+
+    /**
+     * Method that logs the recorded calls, from the oldest to the newest
+     *
+     * @param tag The log tag
+     */
+    public void dump(String tag) {
+        Log.w(tag, "GLES trace (last " + mCount + " calls):");
+        int first = (mNext - mCount + mCalls.length) % mCalls.length;
+        for (int i = 0; i < mCount; i++) {
+            int pos = (first + i) % mCalls.length;
+            Log.w(tag, "  " + mCalls[pos] + " +" + (mElapsed[pos] / 1000) + "us"
+                    + (mErrors[pos] != 0 ? " error=0x" + Integer.toHexString(mErrors[pos]) : ""));
+        }
+    }
+
+    /**
+     * Method that discards the recorded calls
+     */
+    public void clear() {
+        mNext = 0;
+        mCount = 0;
+        mLast = 0;
+    }
+}
@@ -25,11 +25,12 @@ import android.media.effect.Effect;
 import android.opengl.GLES20;
 import android.opengl.GLException;
 import android.opengl.GLUtils;
-import android.support.design.BuildConfig;
 import android.util.Log;
 
 import com.ruesga.android.wallpapers.photophase.AndroidHelper;
+import com.ruesga.android.wallpapers.photophase.BuildConfig;
 import com.ruesga.android.wallpapers.photophase.borders.Border;
+import com.ruesga.android.wallpapers.photophase.decoder.PictureDecoder;
 import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
 
 import java.io.File;
@@ -58,6 +59,28 @@ public final class GLESUtil {
     public static final String DEBUG_GL_MEMOBJS_NEW_TAG = "MEMOBJS_NEW";
     public static final String DEBUG_GL_MEMOBJS_DEL_TAG = "MEMOBJS_DEL";
 
+    // Trace the last GLES calls, and dump them when an error is detected
+    public static final boolean DEBUG_GL_TRACE = false;
+    private static final int GL_TRACE_SIZE = 256;
+    private static final int MAX_FRAME_ERRORS = 8;
+
+    /**
+     * GLES errors are not checked
+     */
+    public static final int GL_ERROR_CHECK_OFF = 0;
+    /**
+     * GLES errors are checked once at the end of every frame
+     */
+    public static final int GL_ERROR_CHECK_PER_FRAME = 1;
+    /**
+     * GLES errors are checked after every call (every glGetError is a round trip to
+     * the driver, and it could stall the GPU pipeline)
+     */
+    public static final int GL_ERROR_CHECK_PER_CALL = 2;
+
+    // The policy of the build type (off in release, per frame in beta and per call in debug)
+    public static final int GL_ERROR_CHECK = BuildConfig.GL_ERROR_CHECK;
+
     private static final Object SYNC = new Object();
 
     private static IntBuffer sNativeBuffer;
@@ -65,6 +88,31 @@ public final class GLESUtil {
     private static final int MAX_GLES_ERRORS = 50;
     private static int sGlErrors = 0;
 
+    private static Boolean sNpotMipmapsSupport;
+
+    // The framebuffer where the world is drawn (every wallpaper engine has its own GLThread)
+    private static final ThreadLocal<int[]> sRenderTarget = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[]{0};
+        }
+    };
+
+    // The shadow copy of the GLES state of the context of every GLThread
+    private static final ThreadLocal<GLESState> sState = new ThreadLocal<GLESState>() {
+        @Override
+        protected GLESState initialValue() {
+            return new GLESState();
+        }
+    };
+
+    private static final ThreadLocal<GLESTrace> sTrace = new ThreadLocal<GLESTrace>() {
+        @Override
+        protected GLESTrace initialValue() {
+            return new GLESTrace(GL_TRACE_SIZE);
+        }
+    };
+
     // Load the native library
     static {
         if (NATIVE_TEXTURE_BIND) {
@@ -377,10 +425,28 @@ public final class GLESUtil {
      * @return GLESTextureInfo The texture info
      */
     public static GLESTextureInfo loadFadeTexture(File file, Rect dimensions) {
+        return loadFadeTexture(file, dimensions, null);
+    }
+
+    /**
+     * Method that loads a fake texture (the bitmap but no gles data) from a file.
+     *
+     * @param file The image file
+     * @param dimensions The desired dimensions
+     * @param decoder The picture decoder to use or null to decode in this thread
+     * @return GLESTextureInfo The texture info
+     */
+    public static GLESTextureInfo loadFadeTexture(
+            File file, Rect dimensions, PictureDecoder decoder) {
         Bitmap bitmap = null;
         try {
             // Decode and associate the bitmap (invert the desired dimensions)
-            bitmap = BitmapUtils.decodeBitmap(file, dimensions.width(), dimensions.height());
+            if (decoder != null) {
+                bitmap = decoder.decode(file, dimensions.width(), dimensions.height());
+            } else {
+                bitmap = BitmapUtils.decodeScaledBitmap(
+                        file, dimensions.width(), dimensions.height());
+            }
             if (bitmap == null) {
                 Log.e(TAG, "Failed to decode the file bitmap");
                 return new GLESTextureInfo();
@@ -495,8 +561,7 @@ public final class GLESUtil {
         }
 
         // Bind the texture to the name
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandles[0]);
-        GLESUtil.glesCheckError("glBindTexture");
+        glesGetState().bindTexture(textureHandles[0]);
 
         // Set the texture properties
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
@@ -532,6 +597,8 @@ public final class GLESUtil {
 
         // Apply effects and borders. Don't apply effects if there is not a valid context
         int handle = textureHandles[0];
+        int width = texture.getWidth();
+        int height = texture.getHeight();
         if (hasValidEglContext()) {
             int n = 0;
             if (effect != null) {
@@ -541,6 +608,15 @@ public final class GLESUtil {
             if (border != null) {
                 handle = applyEffect(textureHandles, n, border, dimen);
             }
+            if (handle != textureHandles[0]) {
+                width = dimen.width();
+                height = dimen.height();
+            }
+        }
+
+        // Generate the mipmaps over the final texture (once effects and borders are applied)
+        if (PreferencesProvider.Preferences.General.isMipmaps(context)) {
+            generateMipmaps(handle, width, height);
         }
 
         // Return the texture handle identifier and the associated info
@@ -563,11 +639,52 @@ public final class GLESUtil {
             Log.d(GLESUtil.DEBUG_GL_MEMOBJS_DEL_TAG, "glDeleteTextures: ["
                     + textureHandles[n] + "]");
         }
-        GLES20.glDeleteTextures(1, textureHandles, n);
-        GLESUtil.glesCheckError("glDeleteTextures");
+        glesGetState().deleteTextures(1, textureHandles, n);
         return textureHandles[n + 1];
     }
 
+    /**
+     * Method that generates the mipmaps of a texture and enables trilinear filtering on it,
+     * so minified pictures are sampled from the right level instead of sparsely across the
+     * whole texture. Non power of two textures need the <code>GL_OES_texture_npot</code>
+     * extension; otherwise the texture is left as is.
+     *
+     * @param handle The texture handle
+     * @param width The texture width
+     * @param height The texture height
+     */
+    private static void generateMipmaps(int handle, int width, int height) {
+        if (!BitmapUtils.isPowerOfTwo(width, height) && !hasNpotMipmapsSupport()) {
+            return;
+        }
+
+        glesGetState().bindTexture(handle);
+        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        GLESUtil.glesCheckError("glGenerateMipmap");
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        GLESUtil.glesCheckError("glTexParameteri");
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLESUtil.glesCheckError("glTexParameteri");
+    }
+
+    /**
+     * Method that returns if the device can generate mipmaps for non power of two textures
+     *
+     * @return boolean If the device supports mipmaps for non power of two textures
+     */
+    private static boolean hasNpotMipmapsSupport() {
+        if (sNpotMipmapsSupport == null) {
+            String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+            GLESUtil.glesCheckError("glGetString");
+            sNpotMipmapsSupport = extensions != null
+                    && (extensions.contains("GL_OES_texture_npot")
+                        || extensions.contains("GL_ARB_texture_non_power_of_two"));
+        }
+        return sNpotMipmapsSupport;
+    }
+
     /**
      * Ensure that the passed bitmap can be used a as power of two texture
      *
@@ -589,11 +706,55 @@ public final class GLESUtil {
     }
 
     /**
-     * Method that checks if an GLES error is present
+     * Method that sets the framebuffer where the world is drawn in the current GLThread
+     *
+     * @param fbo The framebuffer (0 for the screen)
+     */
+    public static void glesSetRenderTarget(int fbo) {
+        sRenderTarget.get()[0] = fbo;
+        glesBindRenderTarget();
+    }
+
+    /**
+     * Method that binds the framebuffer where the world is drawn in the current GLThread
+     */
+    public static void glesBindRenderTarget() {
+        glesGetState().bindFramebuffer(sRenderTarget.get()[0]);
+    }
+
+    /**
+     * Method that sets the shadow copy of the GLES state of the current GLThread
+     *
+     * @param state The shadow copy of the GLES state
+     */
+    public static void glesSetState(GLESState state) {
+        sState.set(state);
+    }
+
+    /**
+     * Method that returns the shadow copy of the GLES state of the current GLThread. Every
+     * change of the state done by other means must invalidate it.
+     *
+     * @return GLESState The shadow copy of the GLES state
+     */
+    public static GLESState glesGetState() {
+        return sState.get();
+    }
+
+    /**
+     * Method that checks if an GLES error is present, if the errors are checked per call
+     * (see {@link #GL_ERROR_CHECK})
      *
      * @param func The GLES function to check
      */
     public static void glesCheckError(String func) {
+        if (GL_ERROR_CHECK != GL_ERROR_CHECK_PER_CALL) {
+            if (DEBUG_GL_TRACE) {
+                sTrace.get().record(func, 0);
+            }
+            return;
+        }
+
         // Log when a call happens without a current context or outside the GLThread
         if (BuildConfig.DEBUG) {
             if (!hasValidEglContext()) {
@@ -614,6 +775,9 @@ public final class GLESUtil {
         }
 
         int error = GLES20.glGetError();
+        if (DEBUG_GL_TRACE) {
+            sTrace.get().record(func, error);
+        }
         if (error != 0) {
             if (BuildConfig.DEBUG) {
                 try {
@@ -626,6 +790,38 @@ public final class GLESUtil {
                 Log.e(TAG, "GLES20 Error (" + glesGetErrorModule() + ") (" + func + "): " +
                         GLUtils.getEGLErrorString(error));
             }
+            if (DEBUG_GL_TRACE) {
+                sTrace.get().dump(TAG);
+            }
+        }
+    }
+
+    /**
+     * Method that checks if any GLES error was raised while drawing a frame, if the errors
+     * are checked per frame (see {@link #GL_ERROR_CHECK}). Only the first errors are known,
+     * not the calls that raised them (the trace, if enabled, has the calls of the frame).
+     *
+     * @param frame A description of the frame
+     */
+    public static void glesCheckFrameErrors(String frame) {
+        if (GL_ERROR_CHECK != GL_ERROR_CHECK_PER_FRAME) {
+            return;
+        }
+
+        // Every error flag is returned (and cleared) by one glGetError call (bounded, in case
+        // of a lost context)
+        int errors = 0;
+        int error;
+        while (errors < MAX_FRAME_ERRORS
+                && (error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            Log.e(TAG, "GLES20 Error (" + frame + "): " + GLUtils.getEGLErrorString(error));
+            errors++;
+        }
+        if (DEBUG_GL_TRACE) {
+            if (errors > 0) {
+                sTrace.get().dump(TAG);
+            }
+            sTrace.get().clear();
         }
     }
 
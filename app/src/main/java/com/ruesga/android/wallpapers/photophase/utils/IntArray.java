@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive ints (without the boxing of a <code>List&lt;Integer&gt;</code>).
+ */
+public class IntArray {
+
+    private int[] mValues;
+    private int mSize;
+
+    /**
+     * Constructor of <code>IntArray</code>
+     */
+    public IntArray() {
+        this(16);
+    }
+
+    /**
+     * Constructor of <code>IntArray</code>
+     *
+     * @param capacity The initial capacity
+     */
+    public IntArray(int capacity) {
+        super();
+        mValues = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Method that appends a value
+     *
+     * @param value The value
+     */
+    public void add(int value) {
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        mValues[mSize++] = value;
+    }
+
+    /**
+     * Method that returns a value
+     *
+     * @param index The index of the value
+     * @return int The value
+     */
+    public int get(int index) {
+        if (index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mValues[index];
+    }
+
+    /**
+     * Method that returns the number of values
+     *
+     * @return int The number of values
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Method that removes all the values
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Method that returns a copy of the values
+     *
+     * @return int[] The values
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+}
@@ -20,6 +20,7 @@ import com.ruesga.android.wallpapers.photophase.model.Disposition;
 import com.ruesga.android.wallpapers.photophase.textures.SimpleTextureManager;
 import com.ruesga.android.wallpapers.photophase.transitions.Transition;
 import com.ruesga.android.wallpapers.photophase.transitions.Transitions;
+import com.ruesga.android.wallpapers.photophase.utils.GLESConfigChooser;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil;
 import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLColor;
 
@@ -75,18 +76,14 @@ public class LivePreviewView extends GLSurfaceView {
                 mBackgroundColor = new GLColor(Color.WHITE);
             }
 
-            // We have a 2d (fake) scenario, disable all unnecessary tests. Deep are
-            // necessary for some 3d effects
-            GLES20.glDisable(GL10.GL_DITHER);
-            GLESUtil.glesCheckError("glDisable");
-            GLES20.glDisable(GL10.GL_CULL_FACE);
-            GLESUtil.glesCheckError("glDisable");
-            GLES20.glEnable(GL10.GL_DEPTH_TEST);
-            GLESUtil.glesCheckError("glEnable");
-            GLES20.glDepthMask(false);
-            GLESUtil.glesCheckError("glDepthMask");
-            GLES20.glDepthFunc(GLES20.GL_LEQUAL);
-            GLESUtil.glesCheckError("glDepthFunc");
+            // A new context, so nothing is known about its state
+            GLESUtil.glesGetState().invalidate();
+
+            // We have a 2d (fake) scenario drawn in painter's order, disable all unnecessary
+            // tests (the surface hasn't a depth buffer)
+            GLESUtil.glesGetState().disable(GL10.GL_DITHER);
+            GLESUtil.glesGetState().disable(GL10.GL_CULL_FACE);
+            GLESUtil.glesGetState().disable(GL10.GL_DEPTH_TEST);
 
             // Recreate the effect contexts
             recycle();
@@ -111,8 +108,7 @@ public class LivePreviewView extends GLSurfaceView {
             mTextureManager.setTargetDimensions(new Rect(0, 0, mWidth, mHeight));
             createNewFrame();
 
-            GLES20.glViewport(0, 0, mWidth, mHeight);
-            GLESUtil.glesCheckError("glViewport");
+            GLESUtil.glesGetState().viewport(0, 0, mWidth, mHeight);
             Matrix.frustumM(mProjMatrix, 0, 1.0f, -1.0f, -1.0f, 1.0f, 1.0f, 2.0f);
         }
 
@@ -173,7 +169,7 @@ public class LivePreviewView extends GLSurfaceView {
                     mBackgroundColor.b,
                     mBackgroundColor.a);
             GLESUtil.glesCheckError("glClearColor");
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
             GLESUtil.glesCheckError("glClear");
         }
 
@@ -266,7 +262,7 @@ public class LivePreviewView extends GLSurfaceView {
         mRecycled = false;
         setEGLContextClientVersion(2);
         setPreserveEGLContextOnPause(true);
-        setEGLConfigChooser(false);
+        setEGLConfigChooser(new GLESConfigChooser(false));
         getHolder().setFormat(PixelFormat.RGBA_8888);
         mRenderer = new Renderer(context);
         setRenderer(mRenderer);
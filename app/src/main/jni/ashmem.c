@@ -0,0 +1,63 @@
+#include <jni.h>
+#include <fcntl.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/ioctl.h>
+#include <sys/mman.h>
+#include <linux/ashmem.h>
+
+#define ASHMEM_DEVICE "/dev/ashmem"
+
+/**
+ * Creates a new ashmem region of the passed size. Returns its file descriptor or -1
+ */
+JNIEXPORT jint JNICALL
+Java_com_ruesga_android_wallpapers_photophase_decoder_AshmemRegion_nativeCreate
+        (JNIEnv *env, jclass clazz, jstring name, jint size) {
+    int fd = open(ASHMEM_DEVICE, O_RDWR);
+    if (fd < 0) {
+        return -1;
+    }
+    if (name != NULL) {
+        char buf[ASHMEM_NAME_LEN];
+        const char *str = (*env)->GetStringUTFChars(env, name, NULL);
+        if (str != NULL) {
+            strncpy(buf, str, sizeof(buf) - 1);
+            buf[sizeof(buf) - 1] = 0;
+            (*env)->ReleaseStringUTFChars(env, name, str);
+            ioctl(fd, ASHMEM_SET_NAME, buf);
+        }
+    }
+    if (ioctl(fd, ASHMEM_SET_SIZE, (size_t) size) < 0) {
+        close(fd);
+        return -1;
+    }
+    return fd;
+}
+
+/**
+ * Maps a shared memory file descriptor into a direct ByteBuffer
+ */
+JNIEXPORT jobject JNICALL
+Java_com_ruesga_android_wallpapers_photophase_decoder_AshmemRegion_nativeMap
+        (JNIEnv *env, jclass clazz, jint fd, jint size, jboolean writable) {
+    int prot = PROT_READ | (writable ? PROT_WRITE : 0);
+    void *addr = mmap(NULL, (size_t) size, prot, MAP_SHARED, fd, 0);
+    if (addr == MAP_FAILED) {
+        return NULL;
+    }
+    return (*env)->NewDirectByteBuffer(env, addr, size);
+}
+
+/**
+ * Unmaps a ByteBuffer previously mapped with nativeMap
+ */
+JNIEXPORT void JNICALL
+Java_com_ruesga_android_wallpapers_photophase_decoder_AshmemRegion_nativeUnmap
+        (JNIEnv *env, jclass clazz, jobject buffer) {
+    void *addr = (*env)->GetDirectBufferAddress(env, buffer);
+    jlong size = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (addr != NULL && size > 0) {
+        munmap(addr, (size_t) size);
+    }
+}
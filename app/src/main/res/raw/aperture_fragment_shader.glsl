@@ -20,6 +20,7 @@ varying vec2 vTextureCoord;
 uniform sampler2D sTexture;
 uniform sampler2D sTexture2;
 uniform float radius;
+uniform float uDim;
 const float border = 0.03;
 
 bool in_circle(vec2 p, vec2 c, float r) {
@@ -48,4 +49,5 @@ void main() {
     } else {
         gl_FragColor = tex1;
     }
+    gl_FragColor.rgb *= 1.0 - uDim;
 }
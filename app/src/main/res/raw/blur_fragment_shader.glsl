@@ -17,6 +17,7 @@
 precision mediump float;
 
 uniform sampler2D s_texture;
+uniform float uDim;
 
 varying vec2 v_texcoord;
 varying vec2 v_blurTexCoords[14];
@@ -39,4 +40,5 @@ void main()
     gl_FragColor += texture2D(s_texture, v_blurTexCoords[11]) * 0.0215963866053;
     gl_FragColor += texture2D(s_texture, v_blurTexCoords[12]) * 0.00895781211794;
     gl_FragColor += texture2D(s_texture, v_blurTexCoords[13]) * 0.0044299121055113265;
+    gl_FragColor.rgb *= 1.0 - uDim;
 }
@@ -18,7 +18,9 @@ precision mediump float;
 
 varying vec2 vTextureCoord;
 uniform sampler2D sTexture;
+uniform float uDim;
 
 void main() {
     gl_FragColor = texture2D(sTexture, vTextureCoord);
+    gl_FragColor.rgb *= 1.0 - uDim;
 }
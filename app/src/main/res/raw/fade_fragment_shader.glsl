@@ -19,6 +19,7 @@ precision mediump float;
 varying vec2 vTextureCoord;
 uniform sampler2D sTexture;
 uniform vec4 vColor;
+uniform float uDim;
 
 void main() {
     vec4 tex = texture2D (sTexture, vTextureCoord);
@@ -26,4 +27,5 @@ void main() {
     float g = tex.g + (vColor.g - tex.g) * vColor.a;
     float b = tex.b + (vColor.b - tex.b) * vColor.a;
     gl_FragColor = vec4(r, g, b, tex.a);
+    gl_FragColor.rgb *= 1.0 - uDim;
 }
@@ -20,9 +20,11 @@ varying vec2 vTextureCoord;
 uniform sampler2D sTexture;
 uniform sampler2D sTexture2;
 uniform float delta;
+uniform float uDim;
 
 void main() {
     vec4 tex1 = texture2D(sTexture, vTextureCoord);
     vec4 tex2 = texture2D(sTexture2, vTextureCoord);
     gl_FragColor = mix(tex1, tex2, delta);
+    gl_FragColor.rgb *= 1.0 - uDim;
 }
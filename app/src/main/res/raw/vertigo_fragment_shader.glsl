@@ -22,6 +22,7 @@ varying vec2 vTextureCoord;
 uniform float w;
 uniform float h;
 uniform float radius;
+uniform float uDim;
 const float angle = 0.8;
 void main (void)
 {
@@ -41,5 +42,5 @@ void main (void)
   }
   tc += center;
   vec3 color = texture2D(s_texture, tc / texSize).rgb;
-  gl_FragColor = vec4(color, 1.0);
+  gl_FragColor = vec4(color * (1.0 - uDim), 1.0);
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider.Preferences;
+import com.ruesga.android.wallpapers.photophase.utils.GLESUtil.GLColor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests that the helpers called by {@link PhotoPhaseRenderer} for every frame only use the
+ * {@link RenderConfig} snapshot: they don't read the preferences or the resources, and they
+ * don't allocate objects once warmed up.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DrawLoopTest {
+
+    private static final int FRAMES = 10000;
+    private static final long FRAME_TIME = 16666667L;
+
+    private CountingContext mContext;
+    private RenderConfig mConfig;
+    private QualityGovernor mGovernor;
+    private PhotoPhaseWallpaperWorld mWorld;
+    private long mFrameTime;
+    private long mSink;
+
+    @Before
+    public void setUp() {
+        mContext = new CountingContext(RuntimeEnvironment.application);
+        mConfig = new RenderConfig(5000, 0.2f, new GLColor(0xff000000), false,
+                Preferences.General.RENDER_SCALE_AUTO, 0);
+        mGovernor = new QualityGovernor(mContext, new FrameClock(null));
+        // The transitions of the photo frames need a GLES context, so the world is empty
+        mWorld = new PhotoPhaseWallpaperWorld(mContext, null);
+
+        // Let the helpers create their reusable state
+        drawFrames(2);
+        mContext.mPreferencesReads = 0;
+        mContext.mResourcesReads = 0;
+    }
+
+    @Test
+    public void testFramesDontReadTheSettings() {
+        drawFrames(FRAMES);
+
+        assertEquals(0, mContext.mPreferencesReads);
+        assertEquals(0, mContext.mResourcesReads);
+    }
+
+    @Test
+    public void testFramesDontAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // Warm up the JIT, then count
+        drawFrames(FRAMES);
+        long start = threads.getThreadAllocatedBytes(thread);
+        drawFrames(FRAMES);
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+
+        // An allocation per frame would add up to many times the number of frames
+        assertTrue("The frames allocated " + allocated + " bytes", allocated < FRAMES);
+    }
+
+    private void drawFrames(int frames) {
+        // The calls of PhotoPhaseRenderer.onDrawFrame and drawWorld (but the GLES drawing)
+        for (int i = 0; i < frames; i++) {
+            mFrameTime += FRAME_TIME;
+            if (mWorld.updateTimeline(mFrameTime)) {
+                mSink++;
+            }
+            mWorld.setFrameTime(mFrameTime);
+            mWorld.setDim(mConfig.wallpaperDim);
+            mWorld.setTransitionDurationScale(mGovernor.getTransitionDurationScale());
+            mWorld.setLightTransitionsOnly(mGovernor.isLightTransitionsOnly());
+            if (mWorld.hasStaticChanges()) {
+                mSink++;
+            }
+            mSink += mWorld.getRunningBounds().size();
+            mGovernor.onTransitionFrame(mFrameTime);
+            if (mWorld.hasRunningTransition()) {
+                mSink++;
+            }
+            mSink += mGovernor.getTransitionInterval(mConfig);
+        }
+    }
+
+    /**
+     * A context that counts the reads of the preferences and the resources
+     */
+    private static class CountingContext extends ContextWrapper {
+        int mPreferencesReads;
+        int mResourcesReads;
+        private final Resources mResources;
+
+        CountingContext(Context base) {
+            super(base);
+            Resources res = base.getResources();
+            // The world reads the dispositions of the frames once, when it is created
+            mResources = new Resources(res.getAssets(), res.getDisplayMetrics(),
+                    res.getConfiguration()) {
+                @Override
+                public String[] getStringArray(int id) {
+                    return new String[0];
+                }
+            };
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            mPreferencesReads++;
+            return super.getSharedPreferences(name, mode);
+        }
+
+        @Override
+        public Resources getResources() {
+            mResourcesReads++;
+            return mResources;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link FileSystemPictureScanner} over a tree of folders
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class FileSystemPictureScannerTest {
+
+    private static final byte[] JPEG = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0};
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] GIF = {'G', 'I', 'F', '8', '9', 'a'};
+    private static final byte[] TEXT = {'n', 'o', 't', ' ', 'a', ' ', 'p', 'i', 'c'};
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mRoot;
+    private File mBeach;
+    private File mSnow;
+    private File mParty;
+    private Collection<File> mRoots;
+
+    @Before
+    public void setUp() throws IOException {
+        // root/beach.jpg, root/2016/snow.png, root/2016/party/party.gif, plus files and
+        // folders that must be ignored
+        mRoot = mTemp.newFolder("pictures");
+        mBeach = write(new File(mRoot, "beach.jpg"), JPEG);
+        write(new File(mRoot, "notes.txt"), TEXT);
+        write(new File(mRoot, "fake.png"), TEXT);
+        mSnow = write(new File(mRoot, "2016/snow.png"), PNG);
+        mParty = write(new File(mRoot, "2016/party/party.gif"), GIF);
+        write(new File(mRoot, ".thumbnails/beach.jpg"), JPEG);
+        mRoots = Collections.singletonList(mRoot);
+    }
+
+    @Test
+    public void testScanFindsThePictures() {
+        FileSystemPictureScanner scanner = new FileSystemPictureScanner(2);
+
+        FileSystemPictureScanner.Result result = scanner.scan(mRoots);
+
+        int[] expected = ids(mBeach, mSnow, mParty);
+        assertArrayEquals(expected, result.mPictures);
+        assertArrayEquals(expected, result.mAdded);
+        assertEquals(0, result.mRemoved.length);
+        assertEquals(3, result.mFolders);
+        assertEquals(3, result.mListedFolders);
+    }
+
+    @Test
+    public void testRescanReusesTheUnmodifiedFolders() {
+        FileSystemPictureScanner scanner = new FileSystemPictureScanner(2);
+        scanner.scan(mRoots);
+
+        FileSystemPictureScanner.Result result = scanner.scan(mRoots);
+
+        assertArrayEquals(ids(mBeach, mSnow, mParty), result.mPictures);
+        assertEquals(0, result.mAdded.length);
+        assertEquals(0, result.mRemoved.length);
+        assertEquals(3, result.mFolders);
+        assertEquals(0, result.mListedFolders);
+    }
+
+    @Test
+    public void testRescanReportsTheChanges() throws IOException {
+        FileSystemPictureScanner scanner = new FileSystemPictureScanner(2);
+        scanner.scan(mRoots);
+
+        File folder = mSnow.getParentFile();
+        long modified = folder.lastModified();
+        assertTrue(mSnow.delete());
+        File sunset = write(new File(folder, "sunset.jpeg"), JPEG);
+        // Don't depend on the resolution of the modification time of the filesystem
+        assertTrue(folder.setLastModified(modified + 2000L));
+
+        FileSystemPictureScanner.Result result = scanner.scan(mRoots);
+
+        assertArrayEquals(ids(mBeach, sunset, mParty), result.mPictures);
+        assertArrayEquals(ids(sunset), result.mAdded);
+        assertArrayEquals(ids(mSnow), result.mRemoved);
+        assertEquals(1, result.mListedFolders);
+    }
+
+    @Test
+    public void testCancelBeforeTheScan() {
+        FileSystemPictureScanner scanner = new FileSystemPictureScanner(2);
+        scanner.cancel();
+
+        FileSystemPictureScanner.Result cancelled = scanner.scan(mRoots);
+
+        assertEquals(0, cancelled.mPictures.length);
+        assertEquals(0, cancelled.mAdded.length);
+        assertEquals(0, cancelled.mRemoved.length);
+
+        // The cancellation only applies to one scan
+        FileSystemPictureScanner.Result result = scanner.scan(mRoots);
+        assertArrayEquals(ids(mBeach, mSnow, mParty), result.mPictures);
+        assertArrayEquals(ids(mBeach, mSnow, mParty), result.mAdded);
+    }
+
+    private static File write(File file, byte[] data) throws IOException {
+        File parent = file.getParentFile();
+        assertTrue(parent.isDirectory() || parent.mkdirs());
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    private static int[] ids(File... files) {
+        PathTable paths = PathTable.getInstance();
+        int[] ids = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ids[i] = paths.intern(files[i]);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+}
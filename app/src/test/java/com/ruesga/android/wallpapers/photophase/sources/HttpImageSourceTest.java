@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.sources;
+
+import android.content.Context;
+
+import com.ruesga.android.wallpapers.photophase.PathTable;
+import com.ruesga.android.wallpapers.photophase.preferences.PreferencesProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link HttpImageSource} against a mock WebDAV server
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class HttpImageSourceTest {
+
+    private static final String FOLDER = "/pictures/";
+
+    private static final String MULTI_STATUS = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<D:multistatus xmlns:D=\"DAV:\">"
+            + "<D:response><D:href>/pictures/</D:href></D:response>"
+            + "<D:response><D:href>/pictures/beach.jpg</D:href></D:response>"
+            + "<D:response><D:href>/pictures/Snow.PNG</D:href></D:response>"
+            + "<D:response><D:href>/pictures/notes.txt</D:href></D:response>"
+            + "<D:response><D:href>/pictures/2016/</D:href></D:response>"
+            + "<D:response><D:href>http://example.com/pictures/other.jpg</D:href></D:response>"
+            + "</D:multistatus>";
+
+    private Context mContext;
+    private MockWebServer mServer;
+    private HttpImageSource mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mServer = new MockWebServer();
+        mServer.start();
+        setRemoteFolder(mServer.url(FOLDER).toString());
+        mSource = new HttpImageSource(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testEnumerateWebDavFolder() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(207).setBody(MULTI_STATUS));
+
+        List<String> paths = toPaths(mSource.enumerate());
+
+        List<String> expected = new ArrayList<>();
+        expected.add(mServer.url(FOLDER + "Snow.PNG").toString());
+        expected.add(mServer.url(FOLDER + "beach.jpg").toString());
+        assertEquals(expected, paths);
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("PROPFIND", request.getMethod());
+        assertEquals("1", request.getHeader("Depth"));
+        assertEquals(FOLDER, request.getPath());
+    }
+
+    @Test
+    public void testEnumerateHtmlListingWithoutWebDav() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(405));
+        mServer.enqueue(new MockResponse().setBody("<html><body>"
+                + "<a href=\"../\">Parent</a>"
+                + "<a href=\"sunset.jpeg\">sunset.jpeg</a>"
+                + "<a HREF = \"readme.html\">readme</a>"
+                + "</body></html>"));
+
+        List<String> paths = toPaths(mSource.enumerate());
+
+        assertEquals(Collections.singletonList(mServer.url(FOLDER + "sunset.jpeg").toString()),
+                paths);
+        assertEquals("PROPFIND", mServer.takeRequest().getMethod());
+        assertEquals("GET", mServer.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testEnumerateFailsIfTheFolderCantBeListed() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+
+        try {
+            mSource.enumerate();
+            fail("The listing of the folder must fail");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testEnumerateSendsTheCredentialsOfTheFolder() throws Exception {
+        HttpUrl folder = mServer.url(FOLDER).newBuilder()
+                .username("user").password("secret").build();
+        setRemoteFolder(folder.toString());
+        mServer.enqueue(new MockResponse().setResponseCode(207).setBody(MULTI_STATUS));
+
+        List<String> paths = toPaths(mSource.enumerate());
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("Basic dXNlcjpzZWNyZXQ=", request.getHeader("Authorization"));
+        for (String path : paths) {
+            // The credentials never leave the preference
+            assertFalse(path, path.contains("secret"));
+        }
+    }
+
+    @Test
+    public void testGetFileDownloadsAndCachesThePicture() throws Exception {
+        String path = mServer.url(FOLDER + "download.jpg").toString();
+        mServer.enqueue(new MockResponse().setBody("picture").setHeader("ETag", "\"v1\""));
+
+        File file = mSource.getFile(path);
+        File cached = mSource.getFile(path);
+
+        assertEquals("picture", read(file));
+        assertEquals(file, cached);
+        assertEquals(1, mServer.getRequestCount());
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testGetFileRevalidatesTheCachedPicture() throws Exception {
+        String path = mServer.url(FOLDER + "revalidate.jpg").toString();
+        mServer.enqueue(new MockResponse().setBody("picture").setHeader("ETag", "\"v1\""));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+        File file = mSource.getFile(path);
+
+        // Make the cached picture old enough to be revalidated
+        DiskCache cache = new DiskCache(new File(mContext.getCacheDir(), "remote_pictures"), 0);
+        DiskCache.Meta meta = cache.getMeta(path);
+        meta.mValidated = 0;
+        cache.putMeta(path, meta);
+
+        File revalidated = mSource.getFile(path);
+
+        assertEquals(file, revalidated);
+        assertEquals("picture", read(revalidated));
+        mServer.takeRequest();
+        assertEquals("\"v1\"", mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testGetFileOfAMissingPicture() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+
+        try {
+            mSource.getFile(mServer.url(FOLDER + "missing.jpg").toString());
+            fail("A missing picture must fail");
+        } catch (FileNotFoundException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testUnreachableSourceIsSuspended() throws Exception {
+        MockWebServer offline = new MockWebServer();
+        offline.start();
+        String path = offline.url(FOLDER + "offline.jpg").toString();
+        offline.shutdown();
+        ImageSources sources = ImageSources.getInstance(mContext);
+
+        try {
+            sources.getFile(path);
+            fail("An offline server must fail");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertTrue(sources.getSuspendedTime(path) > 0);
+    }
+
+    private void setRemoteFolder(String folder) {
+        mContext.getSharedPreferences(PreferencesProvider.PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .edit()
+                .putString("ui_media_remote_folder", folder)
+                .commit();
+    }
+
+    private static List<String> toPaths(int[] ids) {
+        PathTable paths = PathTable.getInstance();
+        String[] values = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            values[i] = paths.getPath(ids[i]);
+        }
+        // The listing order is the one of the server
+        Arrays.sort(values);
+        List<String> sorted = new ArrayList<>();
+        Collections.addAll(sorted, values);
+        return sorted;
+    }
+
+    private static String read(File file) throws IOException {
+        return Okio.buffer(Okio.source(file)).readUtf8();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ruesga.android.wallpapers.photophase.textures;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link ShuffleBag}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ShuffleBagTest {
+
+    private static final ShuffleBag.Sequence IDENTITY = new ShuffleBag.Sequence() {
+        @Override
+        public long getKey(int item) {
+            return item;
+        }
+    };
+
+    @Test
+    public void testSequentialRound() {
+        ShuffleBag bag = new ShuffleBag();
+        bag.reconcile(new int[]{30, 10, 20});
+
+        assertArrayEquals(new int[]{30, 10, 20}, pickAll(bag, false));
+
+        bag.rewind();
+        assertArrayEquals(new int[]{30, 10, 20}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testReconcileInsertsTheNewItemsInTheSequence() {
+        ShuffleBag bag = new ShuffleBag(IDENTITY);
+        bag.reconcile(new int[]{10, 20, 30, 40});
+        assertEquals(10, bag.pick(false));
+        assertEquals(20, bag.pick(false));
+
+        bag.reconcile(new int[]{5, 10, 20, 25, 30, 35, 40});
+
+        // The items before the last picked one wait for the next round
+        assertArrayEquals(new int[]{25, 30, 35, 40}, pickAll(bag, false));
+        bag.rewind();
+        assertArrayEquals(new int[]{5, 10, 20, 25, 30, 35, 40}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testAddInsertsTheNewItemsInTheSequence() {
+        ShuffleBag bag = new ShuffleBag(IDENTITY);
+        bag.reconcile(new int[]{10, 20, 30, 40});
+        assertEquals(10, bag.pick(false));
+        assertEquals(20, bag.pick(false));
+
+        bag.add(50);
+        bag.add(25);
+        bag.add(5);
+
+        assertArrayEquals(new int[]{25, 30, 40, 50}, pickAll(bag, false));
+        bag.rewind();
+        assertArrayEquals(new int[]{5, 10, 20, 25, 30, 40, 50}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testSequenceResumesAfterTheShuffle() {
+        ShuffleBag bag = new ShuffleBag(IDENTITY);
+        bag.reconcile(new int[]{1, 2, 3, 4, 5, 6, 7, 8});
+        int last = bag.pick(true);
+
+        // The rest of the round follows the sequence from the picked item
+        int[] expected = new int[8 - last];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = last + i + 1;
+        }
+        assertArrayEquals(expected, pickAll(bag, false));
+        bag.rewind();
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6, 7, 8}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testReconcileRemovesTheMissingItems() {
+        ShuffleBag bag = new ShuffleBag();
+        bag.reconcile(new int[]{1, 2, 3, 4});
+        assertEquals(1, bag.pick(false));
+
+        bag.reconcile(new int[]{1, 3});
+
+        assertEquals(2, bag.size());
+        assertArrayEquals(new int[]{3}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testPutBackPreservesTheSequence() {
+        ShuffleBag bag = new ShuffleBag();
+        bag.reconcile(new int[]{1, 2, 3, 4});
+        int first = bag.pick(false);
+        int second = bag.pick(false);
+
+        bag.putBack(second);
+        bag.putBack(first);
+
+        assertArrayEquals(new int[]{1, 2, 3, 4}, pickAll(bag, false));
+    }
+
+    @Test
+    public void testShufflePicksEveryItemOncePerRound() {
+        ShuffleBag bag = new ShuffleBag();
+        int[] items = new int[1000];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i;
+        }
+        bag.reconcile(items);
+
+        for (int round = 0; round < 3; round++) {
+            int[] picked = pickAll(bag, true);
+            Arrays.sort(picked);
+            assertArrayEquals(items, picked);
+            bag.rewind();
+        }
+    }
+
+    private static int[] pickAll(ShuffleBag bag, boolean random) {
+        int[] picked = new int[bag.size()];
+        int count = 0;
+        int item;
+        while ((item = bag.pick(random)) != -1) {
+            picked[count++] = item;
+        }
+        return Arrays.copyOf(picked, count);
+    }
+}